@@ -0,0 +1,162 @@
+package micro1.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the assembler on large generated sources: a single pass over a file, the same source
+ * split over several files and translated by a ParallelAssembler, and the translation of single
+ * lines through <code>Assembler.parseCommand</code> and <code>parseArguments</code>. The
+ * <code>lines</code> counter gives the source lines translated per second.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AssemblerBenchmark {
+
+    private static final String[] NAMES = {"load", "store", "add", "mul", "sub", "div", "and", "or",
+                                           "not", "lshift", "rshift", "bwc", "bwd", "if"};
+    // Files the source is split into for the parallel assembler.
+    private static final int FILES = 8;
+    private static final int PARSED_LINES = 1024;
+
+    @Param({"10000", "1000000"})
+    public int lines;
+
+    private byte[] source;
+    private Path directory;
+    private List<Path> files;
+    private String[] commands;
+    private String[][] arguments;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            lines = 0;
+        }
+    }
+
+    @Setup
+    public void generate() throws IOException {
+        Random random = new Random(1);
+        List<StringBuilder> parts = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            parts.add(new StringBuilder());
+        }
+        commands = new String[PARSED_LINES];
+        arguments = new String[PARSED_LINES][];
+        for (int line = 0; line < lines; line++) {
+            StringBuilder text = parts.get((int) ((long) line * FILES / lines));
+            if (random.nextInt(4) == 0) {
+                int register = random.nextInt(8);
+                text.append("loadc ").append(register).append('\n');
+                text.append("0x").append(Integer.toHexString(random.nextInt(1 << 16))).append('\n');
+                line++;
+            } else {
+                String name = NAMES[random.nextInt(NAMES.length)];
+                int a = random.nextInt(8);
+                int b = random.nextInt(8);
+                text.append(name).append(' ').append(a).append(' ').append(b).append('\n');
+                if (line < PARSED_LINES) {
+                    commands[line] = name;
+                    arguments[line] = new String[] {Integer.toString(a), Integer.toString(b)};
+                }
+            }
+        }
+        parts.get(FILES - 1).append("halt\n");
+        directory = Files.createTempDirectory("m1-assembler-benchmark");
+        files = new ArrayList<>();
+        StringBuilder whole = new StringBuilder();
+        for (int i = 0; i < FILES; i++) {
+            Path file = directory.resolve(String.format("part%d.asm", i));
+            Files.write(file, parts.get(i).toString().getBytes(StandardCharsets.US_ASCII));
+            files.add(file);
+            whole.append(parts.get(i));
+        }
+        source = whole.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Translates the whole source held in memory in a single pass.
+     */
+    @Benchmark
+    public Object assemble(Counters counters) {
+        counters.lines += lines;
+        return Simulator.assemble(source, true);
+    }
+
+    /**
+     * Reads and translates the source files one after the other.
+     */
+    @Benchmark
+    public Object assembleFiles(Counters counters) {
+        counters.lines += lines;
+        return Simulator.assemble(files);
+    }
+
+    /**
+     * Reads and translates the source files with a new ParallelAssembler, so no chunk is reused.
+     */
+    @Benchmark
+    public Object assembleParallel(Counters counters) {
+        counters.lines += lines;
+        return Simulator.assembleParallel(files);
+    }
+
+    /**
+     * Translates single lines through the parse methods, the original line by line path.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PARSED_LINES)
+    public int parseLines() {
+        int length = 0;
+        for (int i = 0; i < PARSED_LINES; i++) {
+            if (commands[i] != null) {
+                length += Simulator.parseArguments(Simulator.parseCommand(commands[i]), arguments[i]).length();
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,75 @@
+package micro1.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how the cost of displaying memory grows with its size: <code>Memory.dump()</code>
+ * formats every cell as the Console does, while the viewer only formats the rows on screen, one
+ * <code>Memory.format</code> per row.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DumpBenchmark {
+
+    // Rows of memory visible in the viewer.
+    static final int ROWS = 40;
+
+    @Param({"256", "4096", "65536", "1048576"})
+    public int cells;
+
+    private Object memory;
+    private int top;
+
+    @Setup
+    public void fill() {
+        Random random = new Random(1);
+        memory = Simulator.memory(cells);
+        for (int i = 0; i < cells; i++) {
+            Simulator.write(memory, i, random.nextInt(1 << 24));
+        }
+    }
+
+    /**
+     * Formats every cell.
+     */
+    @Benchmark
+    public String[] dump() {
+        return Simulator.dump(memory);
+    }
+
+    /**
+     * Formats a screen of rows, scrolling through the memory from one invocation to the next.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int render() {
+        int length = 0;
+        for (int row = 0; row < ROWS; row++) {
+            length += Simulator.format(memory, (top + row) % cells).length();
+        }
+        top = (top + ROWS) % cells;
+        return length;
+    }
+}
@@ -0,0 +1,105 @@
+package micro1.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the sample programs <code>program_C1.asm</code> to <code>program_C5.asm</code> from a
+ * freshly loaded memory, the way the Console and the viewer run them. The programs are only a
+ * few instructions long, so the score is dominated by starting a run; the
+ * <code>instructions</code> counter gives the instructions executed per second.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    // Enough for every sample to halt or fault.
+    private static final long MAX_STEPS = 10_000;
+
+    @Param({"program_C1.asm", "program_C2.asm", "program_C3.asm", "program_C4.asm", "program_C5.asm"})
+    public String kernel;
+
+    private Object program;
+    private Object memory;
+    private Object cpu;
+
+    /**
+     * Instructions executed, reported per second next to the runs.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+
+        public long instructions;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            instructions = 0;
+        }
+    }
+
+    @Setup
+    public void assemble() throws IOException {
+        try (InputStream in = KernelBenchmark.class.getResourceAsStream("/" + kernel)) {
+            if (in == null) {
+                throw new IOException(kernel + " is not on the class path");
+            }
+            program = Simulator.assemble(in.readAllBytes(), true);
+        }
+        memory = Simulator.memory(256);
+        cpu = Simulator.processor(memory, Simulator.entry(program));
+    }
+
+    /**
+     * Loads the program and runs it until it halts or faults.
+     */
+    @Benchmark
+    public long run(Counters counters) {
+        Simulator.load(program, memory);
+        Simulator.setPC(cpu, Simulator.entry(program));
+        long steps = Simulator.run(cpu, MAX_STEPS);
+        counters.instructions += steps;
+        return steps;
+    }
+
+    /**
+     * Loads the program and executes it one instruction at a time, like stepping in a debugger.
+     */
+    @Benchmark
+    public long step(Counters counters) {
+        Simulator.load(program, memory);
+        Simulator.setPC(cpu, Simulator.entry(program));
+        long steps = 0;
+        while (steps < MAX_STEPS) {
+            steps++;
+            if (!Simulator.step(cpu)) {
+                break;
+            }
+        }
+        counters.instructions += steps;
+        return steps;
+    }
+}
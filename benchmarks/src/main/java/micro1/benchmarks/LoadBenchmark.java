@@ -0,0 +1,76 @@
+package micro1.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to load a memory image from a file into memory with
+ * <code>Assembler.load</code>: a hexadecimal text image, one word per line, against the binary
+ * <code>.m1</code> image of the same words.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LoadBenchmark {
+
+    @Param({"4096", "65536", "1048576"})
+    public int words;
+
+    @Param({"text", "binary"})
+    public String format;
+
+    private Path image;
+    private Object memory;
+
+    @Setup
+    public void write() throws IOException {
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(Integer.toHexString(random.nextInt(1 << 24))).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.US_ASCII);
+        memory = Simulator.memory(words);
+        if (format.equals("text")) {
+            image = Files.createTempFile("m1-load-benchmark", ".hex");
+            Files.write(image, bytes);
+        } else {
+            image = Files.createTempFile("m1-load-benchmark", ".m1");
+            Simulator.save(Simulator.assemble(bytes, false), image);
+        }
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(image);
+    }
+
+    @Benchmark
+    public Object load() {
+        return Simulator.load(image, memory);
+    }
+}
@@ -0,0 +1,80 @@
+package micro1.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures instructions per second on long synthetic loops, for each execution tier of the
+ * Processor. Every invocation restarts the loop and executes {@link #STEPS} instructions, the
+ * loops are long enough to never halt within them.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LoopBenchmark {
+
+    static final int STEPS = 1_000_000;
+
+    // r0 = 1, r1 = iterations, r2 = 0, r3 = 3, r4 = loop, then
+    // loop: r2 += r0; r3 *= r2; r3 -= r0; r3 >>= 1; r1 -= r0; if r1 goto loop.
+    private static final int[] ARITHMETIC = {0x200, 1, 0x210, 0x10000000, 0x220, 0, 0x230, 3, 0x240, 10,
+                                             0x420, 0x532, 0x630, 0xC33, 0x610, 0xF14, 0};
+
+    // r0 = 1, r1 = iterations, r2 = pointer, r3 = stride, r4 = loop, r6 = mask, r7 = base, then
+    // loop: mem[r2] = r1; r2 = ((r2 + r3) & r6) | r7; r1 -= r0; if r1 goto loop.
+    private static final int[] STORE = {0x200, 1, 0x210, 0x10000000, 0x220, 0x8000, 0x230, 0x441,
+                                        0x240, 14, 0x260, 0x7FFF, 0x270, 0x8000,
+                                        0x321, 0x423, 0xD26, 0xE27, 0x610, 0xF14, 0};
+
+    // r0 = 1, r1 = iterations, r2 = pointer, r4 = loop, r5 = sum, r6 = mask, then
+    // loop: r3 = mem[r2]; r5 += r3; r2 += r0; r2 &= r6; r1 -= r0; if r1 goto loop.
+    private static final int[] LOAD = {0x200, 1, 0x210, 0x10000000, 0x220, 0, 0x240, 12,
+                                       0x250, 0, 0x260, 0xFFFF,
+                                       0x132, 0x453, 0x420, 0xD26, 0x610, 0xF14, 0};
+
+    @Param({"arithmetic", "store", "load"})
+    public String loop;
+
+    @Param({"interpreter", "unfused", "jit"})
+    public String tier;
+
+    private Object cpu;
+
+    @Setup
+    public void load() {
+        int[] program = loop.equals("arithmetic") ? ARITHMETIC : loop.equals("store") ? STORE : LOAD;
+        Object memory = Simulator.memory(1 << 16);
+        for (int i = 0; i < program.length; i++) {
+            Simulator.write(memory, i, program[i]);
+        }
+        cpu = Simulator.processor(memory, 0);
+        Simulator.setFusion(cpu, !tier.equals("unfused"));
+        Simulator.setJit(cpu, tier.equals("jit"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STEPS)
+    public long run() {
+        Simulator.setPC(cpu, 0);
+        return Simulator.run(cpu, STEPS);
+    }
+}
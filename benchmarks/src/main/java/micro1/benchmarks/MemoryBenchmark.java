@@ -0,0 +1,158 @@
+package micro1.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the memory backends: the heap array, <code>PagedMemory</code>, off-heap
+ * <code>DirectMemory</code> and a memory-mapped <code>DirectMemory</code>. For every backend it
+ * measures sequential writes and reads, random reads and a Processor loop that loads from memory,
+ * then the time to save an image and to map it again.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryBenchmark {
+
+    static final int CELLS = 1 << 20;
+    static final int STEPS = 1_000_000;
+
+    // r0 = 1, r2 = 0, r5 = iterations, r6 = 1, r7 = loop, then
+    // loop: r3 = mem[r0]; r1 += r3; r0 += r2; r5 -= r6; if r5 goto loop.
+    private static final int[] LOOP = {0x200, 1, 0x220, 0, 0x250, 0x10000000, 0x260, 1, 0x270, 10,
+                                       0x130, 0x413, 0x402, 0x656, 0xF57, 0};
+
+    /**
+     * A memory of {@link #CELLS} cells of one backend, with the loop loaded at address 0.
+     */
+    @State(Scope.Thread)
+    public static class Backend {
+
+        @Param({"heap", "paged", "off-heap", "mapped"})
+        public String kind;
+
+        Object memory;
+        Object cpu;
+        private Path image;
+
+        @Setup
+        public void allocate() throws IOException {
+            image = Files.createTempFile("m1-memory-benchmark", ".img");
+            memory = Simulator.memory(kind, CELLS, image);
+            for (int i = 0; i < LOOP.length; i++) {
+                Simulator.write(memory, i, LOOP[i]);
+            }
+            cpu = Simulator.processor(memory, 0);
+        }
+
+        @TearDown
+        public void delete() throws IOException {
+            Files.deleteIfExists(image);
+        }
+    }
+
+    /**
+     * A heap memory of {@link #CELLS} cells and the image file it is saved to.
+     */
+    @State(Scope.Thread)
+    public static class Image {
+
+        Object memory;
+        Path file;
+
+        @Setup
+        public void save() throws IOException {
+            memory = Simulator.memory("heap", CELLS, null);
+            for (int i = 0; i < CELLS; i++) {
+                Simulator.write(memory, i, i);
+            }
+            file = Files.createTempFile("m1-memory-benchmark", ".img");
+            Simulator.saveImage(memory, file);
+        }
+
+        @TearDown
+        public void delete() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CELLS)
+    public void write(Backend backend) {
+        Object memory = backend.memory;
+        for (int i = 0; i < CELLS; i++) {
+            Simulator.write(memory, i, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CELLS)
+    public long read(Backend backend) {
+        Object memory = backend.memory;
+        long sum = 0;
+        for (int i = 0; i < CELLS; i++) {
+            sum += Simulator.read(memory, i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CELLS)
+    public long randomRead(Backend backend) {
+        Object memory = backend.memory;
+        long sum = 0;
+        int address = 0;
+        for (int i = 0; i < CELLS; i++) {
+            // Linear congruential walk over the whole memory.
+            address = (int) ((address * 1103515245L + 12345) & 0x7fffffff) % CELLS;
+            sum += Simulator.read(memory, address);
+        }
+        return sum;
+    }
+
+    /**
+     * Runs {@link #STEPS} instructions of the loop, in instructions per microsecond.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @OperationsPerInvocation(STEPS)
+    public long loop(Backend backend) {
+        Simulator.setPC(backend.cpu, 0);
+        return Simulator.run(backend.cpu, STEPS);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void saveImage(Image image) {
+        Simulator.saveImage(image.memory, image.file);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object mapImage(Image image) {
+        return Simulator.mapImage(image.file);
+    }
+}
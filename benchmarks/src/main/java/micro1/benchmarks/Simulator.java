@@ -0,0 +1,428 @@
+package micro1.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Calls into the simulator for the benchmarks. The simulator classes live in the unnamed package,
+ * which cannot be imported from a named one, and JMH does not accept benchmarks in the unnamed
+ * package. Every method is therefore looked up once as a constant method handle typed with
+ * <code>Object</code>, which the JIT inlines like a direct call.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+final class Simulator {
+
+    private static final MethodHandle NEW_PROCESSOR;
+    private static final MethodHandle SET_MEMORY;
+    private static final MethodHandle SET_PC;
+    private static final MethodHandle SET_JIT;
+    private static final MethodHandle SET_FUSION;
+    private static final MethodHandle RUN;
+    private static final MethodHandle STEPS;
+    private static final MethodHandle REASON;
+    private static final MethodHandle FOR_CAPACITY;
+    private static final MethodHandle WRITE;
+    private static final MethodHandle DUMP;
+    private static final MethodHandle FORMAT;
+    private static final MethodHandle ASSEMBLE;
+    private static final MethodHandle ASSEMBLE_FILES;
+    private static final MethodHandle LOAD_FILE;
+    private static final MethodHandle NEW_PARALLEL;
+    private static final MethodHandle PARALLEL_ASSEMBLE;
+    private static final MethodHandle LOAD;
+    private static final MethodHandle SAVE;
+    private static final MethodHandle ENTRY;
+    private static final MethodHandle PARSE_COMMAND;
+    private static final MethodHandle PARSE_ARGUMENTS;
+    private static final MethodHandle NEW_MEMORY;
+    private static final MethodHandle NEW_PAGED;
+    private static final MethodHandle ALLOCATE;
+    private static final MethodHandle MAP;
+    private static final MethodHandle SAVE_IMAGE;
+    private static final MethodHandle READ;
+    private static final MethodHandle SNAPSHOT;
+    private static final MethodHandle SNAPSHOT_DELTA;
+    private static final MethodHandle RESTORE;
+    private static final MethodHandle FORK;
+    private static final MethodHandle SAVE_SNAPSHOT;
+    private static final MethodHandle READ_SNAPSHOT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> processor = Class.forName("Processor");
+            Class<?> memory = Class.forName("Memory");
+            Class<?> result = Class.forName("RunResult");
+            Class<?> assembler = Class.forName("Assembler");
+            Class<?> parallel = Class.forName("ParallelAssembler");
+            Class<?> program = Class.forName("Program");
+            Class<?> direct = Class.forName("DirectMemory");
+            Class<?> snapshot = Class.forName("Snapshot");
+            NEW_PROCESSOR = erase(lookup.findConstructor(processor, MethodType.methodType(void.class)));
+            SET_MEMORY = erase(lookup.findVirtual(processor, "setMemory", MethodType.methodType(void.class, memory)));
+            SET_PC = erase(lookup.findVirtual(processor, "setPC", MethodType.methodType(void.class, int.class)));
+            SET_JIT = erase(lookup.findVirtual(processor, "setJit", MethodType.methodType(void.class, boolean.class)));
+            SET_FUSION = erase(lookup.findVirtual(processor, "setFusion", MethodType.methodType(void.class, boolean.class)));
+            RUN = erase(lookup.findVirtual(processor, "run", MethodType.methodType(result, long.class)));
+            STEPS = erase(lookup.findVirtual(result, "getSteps", MethodType.methodType(long.class)));
+            REASON = erase(lookup.findVirtual(result, "getReason", MethodType.methodType(Class.forName("ExitReason"))));
+            FOR_CAPACITY = erase(lookup.findStatic(memory, "forCapacity", MethodType.methodType(memory, int.class)));
+            WRITE = erase(lookup.findVirtual(memory, "write", MethodType.methodType(void.class, int.class, int.class)));
+            DUMP = erase(lookup.findVirtual(memory, "dump", MethodType.methodType(String[].class)));
+            FORMAT = erase(lookup.findVirtual(memory, "format", MethodType.methodType(String.class, int.class)));
+            ASSEMBLE = erase(lookup.findStatic(assembler, "assemble",
+                                               MethodType.methodType(program, ReadableByteChannel.class, boolean.class)));
+            ASSEMBLE_FILES = erase(lookup.findStatic(assembler, "assemble", MethodType.methodType(program, List.class)));
+            LOAD_FILE = erase(lookup.findStatic(assembler, "load", MethodType.methodType(program, Path.class, memory)));
+            NEW_PARALLEL = erase(lookup.findConstructor(parallel, MethodType.methodType(void.class)));
+            PARALLEL_ASSEMBLE = erase(lookup.findVirtual(parallel, "assemble", MethodType.methodType(program, List.class)));
+            LOAD = erase(lookup.findVirtual(program, "load", MethodType.methodType(void.class, memory)));
+            SAVE = erase(lookup.findVirtual(program, "save", MethodType.methodType(void.class, Path.class)));
+            ENTRY = erase(lookup.findVirtual(program, "getEntry", MethodType.methodType(int.class)));
+            PARSE_COMMAND = erase(lookup.findStatic(assembler, "parseCommand", MethodType.methodType(String.class, String.class)));
+            PARSE_ARGUMENTS = erase(lookup.findStatic(assembler, "parseArguments",
+                                                      MethodType.methodType(String.class, String.class, String[].class)));
+            NEW_MEMORY = erase(lookup.findConstructor(memory, MethodType.methodType(void.class, int.class)));
+            NEW_PAGED = erase(lookup.findConstructor(Class.forName("PagedMemory"), MethodType.methodType(void.class, int.class)));
+            ALLOCATE = erase(lookup.findStatic(direct, "allocate", MethodType.methodType(direct, int.class)));
+            MAP = erase(lookup.findStatic(direct, "map", MethodType.methodType(direct, Path.class, int.class)));
+            SAVE_IMAGE = erase(lookup.findStatic(direct, "save", MethodType.methodType(void.class, memory, Path.class)));
+            READ = erase(lookup.findVirtual(memory, "read", MethodType.methodType(int.class, int.class)));
+            SNAPSHOT = erase(lookup.findVirtual(processor, "snapshot", MethodType.methodType(snapshot)));
+            SNAPSHOT_DELTA = erase(lookup.findVirtual(processor, "snapshot", MethodType.methodType(snapshot, snapshot)));
+            RESTORE = erase(lookup.findVirtual(processor, "restore", MethodType.methodType(void.class, snapshot)));
+            FORK = erase(lookup.findVirtual(snapshot, "fork", MethodType.methodType(processor)));
+            SAVE_SNAPSHOT = erase(lookup.findVirtual(snapshot, "save", MethodType.methodType(void.class, Path.class)));
+            READ_SNAPSHOT = erase(lookup.findStatic(snapshot, "read", MethodType.methodType(snapshot, Path.class)));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Simulator() {
+    }
+
+    /**
+     * Replaces the simulator classes in the type of a handle by <code>Object</code>.
+     */
+    private static MethodHandle erase(MethodHandle handle) {
+        MethodType type = handle.type();
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (isSimulator(type.parameterType(i))) {
+                type = type.changeParameterType(i, Object.class);
+            }
+        }
+        if (isSimulator(type.returnType())) {
+            type = type.changeReturnType(Object.class);
+        }
+        return handle.asType(type);
+    }
+
+    private static boolean isSimulator(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && type.getPackageName().isEmpty();
+    }
+
+    /**
+     * Rethrows what a handle threw, checked exceptions wrapped.
+     */
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new IllegalStateException(e);
+    }
+
+    static Object processor(Object memory, int pc) {
+        try {
+            Object cpu = (Object) NEW_PROCESSOR.invokeExact();
+            SET_MEMORY.invokeExact(cpu, memory);
+            SET_PC.invokeExact(cpu, pc);
+            return cpu;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void setPC(Object cpu, int pc) {
+        try {
+            SET_PC.invokeExact(cpu, pc);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void setJit(Object cpu, boolean enabled) {
+        try {
+            SET_JIT.invokeExact(cpu, enabled);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void setFusion(Object cpu, boolean enabled) {
+        try {
+            SET_FUSION.invokeExact(cpu, enabled);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Runs the Processor and gets the number of instructions it executed.
+     */
+    static long run(Object cpu, long maxSteps) {
+        try {
+            Object result = (Object) RUN.invokeExact(cpu, maxSteps);
+            return (long) STEPS.invokeExact(result);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Executes a single instruction like a debugger stepping through the program.
+     *
+     * @return
+     *  <code>true</code> if the Processor can go on, <code>false</code> once it stopped.
+     */
+    static boolean step(Object cpu) {
+        try {
+            Object result = (Object) RUN.invokeExact(cpu, 1L);
+            Object reason = (Object) REASON.invokeExact(result);
+            return ((Enum<?>) reason).name().equals("STEP_LIMIT");
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object memory(int cells) {
+        try {
+            return (Object) FOR_CAPACITY.invokeExact(cells);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void write(Object memory, int address, int data) {
+        try {
+            WRITE.invokeExact(memory, address, data);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String[] dump(Object memory) {
+        try {
+            return (String[]) DUMP.invokeExact(memory);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String format(Object memory, int address) {
+        try {
+            return (String) FORMAT.invokeExact(memory, address);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Translates a program held in memory, Assembly language or a hexadecimal image.
+     */
+    static Object assemble(byte[] text, boolean source) {
+        try {
+            return (Object) ASSEMBLE.invokeExact((ReadableByteChannel) Channels.newChannel(new ByteArrayInputStream(text)), source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object assemble(List<Path> files) {
+        try {
+            return (Object) ASSEMBLE_FILES.invokeExact(files);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Translates files with a new ParallelAssembler, so no chunk of an earlier build is reused.
+     */
+    static Object assembleParallel(List<Path> files) {
+        try {
+            Object assembler = (Object) NEW_PARALLEL.invokeExact();
+            return (Object) PARALLEL_ASSEMBLE.invokeExact(assembler, files);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Reads a program file, text or binary image, into memory.
+     */
+    static Object load(Path file, Object memory) {
+        try {
+            return (Object) LOAD_FILE.invokeExact(file, memory);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void load(Object program, Object memory) {
+        try {
+            LOAD.invokeExact(program, memory);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void save(Object program, Path file) {
+        try {
+            SAVE.invokeExact(program, file);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int entry(Object program) {
+        try {
+            return (int) ENTRY.invokeExact(program);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String parseCommand(String command) {
+        try {
+            return (String) PARSE_COMMAND.invokeExact(command);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static String parseArguments(String command, String... args) {
+        try {
+            return (String) PARSE_ARGUMENTS.invokeExact(command, args);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Creates a memory of a given kind: "heap" for the single array, "paged", "off-heap" or
+     * "mapped" onto an image file.
+     */
+    static Object memory(String kind, int cells, Path image) {
+        try {
+            switch (kind) {
+                case "heap":
+                    return (Object) NEW_MEMORY.invokeExact(cells);
+                case "paged":
+                    return (Object) NEW_PAGED.invokeExact(cells);
+                case "off-heap":
+                    return (Object) ALLOCATE.invokeExact(cells);
+                case "mapped":
+                    return (Object) MAP.invokeExact(image, cells);
+                default:
+                    throw new IllegalArgumentException("Unknown memory: " + kind);
+            }
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static int read(Object memory, int address) {
+        try {
+            return (int) READ.invokeExact(memory, address);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Writes a memory as an image file for <code>DirectMemory.map</code>.
+     */
+    static void saveImage(Object memory, Path image) {
+        try {
+            SAVE_IMAGE.invokeExact(memory, image);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Maps the whole of an image file as memory.
+     */
+    static Object mapImage(Path image) {
+        try {
+            return (Object) MAP.invokeExact(image, -1);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object snapshot(Object cpu) {
+        try {
+            return (Object) SNAPSHOT.invokeExact(cpu);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the pages written since a previous one.
+     */
+    static Object snapshot(Object cpu, Object previous) {
+        try {
+            return (Object) SNAPSHOT_DELTA.invokeExact(cpu, previous);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void restore(Object cpu, Object snapshot) {
+        try {
+            RESTORE.invokeExact(cpu, snapshot);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object fork(Object snapshot) {
+        try {
+            return (Object) FORK.invokeExact(snapshot);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static void saveSnapshot(Object snapshot, Path file) {
+        try {
+            SAVE_SNAPSHOT.invokeExact(snapshot, file);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    static Object readSnapshot(Path file) {
+        try {
+            return (Object) READ_SNAPSHOT.invokeExact(file);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package micro1.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares starting a run from a warmed-up snapshot with loading the program again and re-running
+ * the {@link #PREFIX_STEPS} steps before it, and measures taking, restoring, saving and reading
+ * snapshots. The program writes a cell in a different page of the memory on every iteration, so
+ * the snapshot holds many pages. Every run executes {@link #SUFFIX_STEPS} steps after the prefix.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SnapshotBenchmark {
+
+    static final int CELLS = 1 << 16;
+    static final long PREFIX_STEPS = 6_000_000;
+    static final long SUFFIX_STEPS = 1_000;
+
+    // r0 = 1, r1 = iterations, r2 = pointer, r3 = stride, r4 = loop, r6 = mask, r7 = base, then
+    // loop: mem[r2] = r1; r2 = ((r2 + r3) & r6) | r7; r1 -= r0; if r1 goto loop.
+    private static final int[] PROGRAM = {0x200, 1, 0x210, 0x1000000, 0x220, 0x8000, 0x230, 0x441,
+                                          0x240, 14, 0x260, 0x7FFF, 0x270, 0x8000,
+                                          0x321, 0x423, 0xD26, 0xE27, 0x610, 0xF14, 0};
+
+    private Object warm;
+    private Object checkpoint;
+    private Path file;
+
+    /**
+     * Loads the program into a new memory, ready to run from address 0.
+     */
+    static Object load() {
+        Object memory = Simulator.memory("heap", CELLS, null);
+        for (int i = 0; i < PROGRAM.length; i++) {
+            Simulator.write(memory, i, PROGRAM[i]);
+        }
+        return Simulator.processor(memory, 0);
+    }
+
+    @Setup
+    public void warmUp() throws IOException {
+        warm = load();
+        Simulator.run(warm, PREFIX_STEPS);
+        checkpoint = Simulator.snapshot(warm);
+        file = Files.createTempFile("m1-snapshot-benchmark", ".m1s");
+        Simulator.saveSnapshot(checkpoint, file);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * A warmed-up Processor that runs {@link #SUFFIX_STEPS} steps past its last snapshot before
+     * every invocation, so there are pages to take or restore.
+     */
+    @State(Scope.Thread)
+    public static class Running {
+
+        Object cpu;
+        Object last;
+
+        @Setup
+        public void warmUp() {
+            cpu = load();
+            Simulator.run(cpu, PREFIX_STEPS);
+            last = Simulator.snapshot(cpu);
+        }
+
+        @Setup(Level.Invocation)
+        public void runSuffix() {
+            Simulator.run(cpu, SUFFIX_STEPS);
+        }
+    }
+
+    /**
+     * Loads the program and runs the prefix again, the way a run starts without snapshots.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long rerun() {
+        Object cpu = load();
+        Simulator.run(cpu, PREFIX_STEPS);
+        return Simulator.run(cpu, SUFFIX_STEPS);
+    }
+
+    @Benchmark
+    public long fork() {
+        return Simulator.run(Simulator.fork(checkpoint), SUFFIX_STEPS);
+    }
+
+    @Benchmark
+    public Object snapshot() {
+        return Simulator.snapshot(warm);
+    }
+
+    @Benchmark
+    public Object delta(Running running) {
+        running.last = Simulator.snapshot(running.cpu, running.last);
+        return running.last;
+    }
+
+    @Benchmark
+    public void restore(Running running) {
+        Simulator.restore(running.cpu, running.last);
+    }
+
+    @Benchmark
+    public void save() {
+        Simulator.saveSnapshot(checkpoint, file);
+    }
+
+    @Benchmark
+    public Object read() {
+        return Simulator.readSnapshot(file);
+    }
+}
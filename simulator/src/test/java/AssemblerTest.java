@@ -0,0 +1,86 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link Assembler}: where code ends and data starts, the lines it skips, the words
+ * data lines accept and the line numbers of its errors.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+class AssemblerTest {
+
+    private static Program assemble(String text, boolean source) throws Exception {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        return Assembler.assemble(Channels.newChannel(new ByteArrayInputStream(bytes)), source);
+    }
+
+    private static int[] lines(Program program) {
+        int[] lines = new int[program.getSize()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = program.getLine(i);
+        }
+        return lines;
+    }
+
+    @Test
+    void lineAfterFirstHaltIsData() throws Exception {
+        Program program = assemble("loadc 1\n0x05\nhalt\n2A\nhalt\n7\n", true);
+        assertArrayEquals(new int[] {0x210, 5, 0, 0x2A, 0, 7}, program.toArray());
+        assertArrayEquals(new int[] {1, 2, 3, 4, 5, 6}, lines(program));
+        assertEquals(3, program.getCodeEnd());
+    }
+
+    @Test
+    void blankLinesAreSkipped() throws Exception {
+        // The last line has no line end.
+        Program program = assemble("\n  \nADD 1 2\n\n\r\n\tHalt\r\n\n1F", true);
+        assertArrayEquals(new int[] {0x412, 0, 0x1F}, program.toArray());
+        assertArrayEquals(new int[] {3, 6, 8}, lines(program));
+        assertEquals(2, program.getCodeEnd());
+    }
+
+    @Test
+    void dataTakesPrefixedAndFullWords() throws Exception {
+        Program program = assemble("halt\n0x2A\nFFFFFFFF\n0xdeadBEEF 1 halt\n", true);
+        assertArrayEquals(new int[] {0, 0x2A, -1, 0xDEADBEEF, 1, 0}, program.toArray());
+        assertArrayEquals(new int[] {1, 2, 3, 4, 4, 4}, lines(program));
+
+        Program image = assemble("0x2A\nFFFFFFFF\n\n0xdeadBEEF\n", false);
+        assertArrayEquals(new int[] {0x2A, -1, 0xDEADBEEF}, image.toArray());
+        assertArrayEquals(new int[] {1, 2, 4}, lines(image));
+    }
+
+    private static void assertError(String text, boolean source, int line, String detail) {
+        AssemblyException error = assertThrows(AssemblyException.class, () -> assemble(text, source));
+        assertEquals(line, error.getLine());
+        assertEquals(detail, error.getDetail());
+        assertNull(error.getFile());
+        assertEquals("line " + line + ": " + detail, error.getMessage());
+    }
+
+    @Test
+    void errorsNameTheirLine() {
+        assertError("add 1 2\n\nfoo 1 2\n", true, 3, "unknown command 'foo'");
+        assertError("add 1 9\n", true, 1, "invalid register '9', must be in range 0-7");
+        assertError("add 1 10\n", true, 1, "invalid register '10', must be in range 0-7");
+        assertError("loadc 1 2\n", true, 1, "loadc takes one register");
+        assertError("mul 1\n", true, 1, "mul takes two registers");
+        assertError("add 1 2 3\n", true, 1, "too many arguments");
+        assertError("0x\n", true, 1, "unknown command '0x'");
+        assertError("loadc 1\n0xZZ\n", true, 2, "invalid hexadecimal word '0xZZ'");
+        assertError("halt\n1 2 3 4\n", true, 2, "too many words on one line");
+        assertError("halt\n\n1FFFFFFFF\n", true, 3, "invalid hexadecimal word '1FFFFFFFF'");
+        assertError("2A\nxyz\n", false, 2, "invalid hexadecimal word 'xyz'");
+    }
+}
@@ -0,0 +1,260 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Differential tests of the ways a {@link Processor} can run a program: the plain interpreter,
+ * superinstructions, the JIT, the stepwise loop behind the undo log and the loop simulating the
+ * caches must all end in the same state, also when the program rewrites its own code.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+class ExecutionPathsTest {
+
+    private static final int CAPACITY = 1024;
+    private static final long MAX_STEPS = 20000;
+
+    // How each path is set up, the plain interpreter first.
+    private static final String[] PATHS = {"plain", "fusion", "jit", "stepwise", "caches"};
+    private static final String CACHES = "split 64/4/2/lru/wb 256/8/4/lru/wb";
+
+    private static Processor processor(String path, Memory memory) {
+        Processor cpu = new Processor();
+        cpu.setFusion(!path.equals("plain"));
+        cpu.setMemory(memory);
+        if (path.equals("jit")) {
+            cpu.setJit(true);
+        } else if (path.equals("stepwise")) {
+            cpu.setUndoDepth(16);
+        } else if (path.equals("caches")) {
+            cpu.setCaches(CacheHierarchy.parse(CACHES));
+        }
+        return cpu;
+    }
+
+    private static Memory memory(int[] words, int at) {
+        Memory memory = new Memory(CAPACITY);
+        for (int i = 0; i < words.length; i++) {
+            memory.write(at + i, words[i]);
+        }
+        return memory;
+    }
+
+    /**
+     * Runs a copy of the program on every path, lets each of them change memory from the outside
+     * and run again, then compares everything to the plain interpreter.
+     */
+    private static void assertSameOnEveryPath(String name, int[] words, int at, Consumer<Memory> between) {
+        String expected = null;
+        for (String path : PATHS) {
+            Memory memory = memory(words, at);
+            Processor cpu = processor(path, memory);
+            cpu.setPC(at);
+            RunResult first = cpu.run(MAX_STEPS);
+            StringBuilder state = new StringBuilder(first.toString());
+            if (between != null) {
+                between.accept(memory);
+                cpu.setPC(at);
+                state.append(' ').append(cpu.run(MAX_STEPS));
+            }
+            state.append(' ').append(Arrays.toString(cpu.dump())).append(' ').append(String.join(",", memory.dump()));
+            if (expected == null) {
+                expected = state.toString();
+            } else {
+                assertEquals(expected, state.toString(), path + " differs from plain for " + name);
+            }
+        }
+    }
+
+    @Test
+    void randomProgramsAgree() {
+        Random random = new Random(1);
+        for (int program = 0; program < 500; program++) {
+            int[] words = new int[16 + random.nextInt(48)];
+            for (int i = 0; i < words.length; i++) {
+                int command = random.nextInt(16);
+                words[i] = command << 8 | random.nextInt(8) << 4 | random.nextInt(8);
+                if (command == 2 && i + 1 < words.length) {
+                    // Constants that are mostly addresses, so loads, stores and ifs stay in memory.
+                    words[++i] = random.nextInt(4) == 0 ? random.nextInt(4) : random.nextInt(CAPACITY + 16);
+                }
+            }
+            // Also place them across the end of the first predecode table.
+            assertSameOnEveryPath("random program " + program, words, program % 2 == 0 ? 0 : 0x100 - words.length / 2, null);
+        }
+    }
+
+    // A loop counting r7 down from 0x800, whose body add 2 4; if 4 5 at 0xFF and 0x100 is a single
+    // superinstruction across the end of the first predecode table. Once the count is
+    // done, store 6 3 turns the if into a halt and the body runs one last time.
+    private static final int[] REWRITE_LOOP = {
+        0x240, 1,          // loadc 4 1
+        0x200, 0xFF,       // loadc 0 0xFF
+        0x250, 0x0C,       // loadc 5 0x0C
+        0x260, 0x100,      // loadc 6 0x100
+        0x230, 0,          // loadc 3 0
+        0x270, 0x800,      // loadc 7 0x800
+        0x674,             // 0x0C sub 7 4
+        0xF70,             // 0x0D if 7 0
+        0x363,             // 0x0E store 6 3
+        0xF40,             // 0x0F if 4 0
+    };
+    private static final int[] REWRITE_LOOP_BODY = {
+        0x424,             // 0xFF add 2 4
+        0xF45,             // 0x100 if 4 5
+    };
+
+    private static int[] rewriteLoop() {
+        int[] words = new int[0x102];
+        System.arraycopy(REWRITE_LOOP, 0, words, 0, REWRITE_LOOP.length);
+        System.arraycopy(REWRITE_LOOP_BODY, 0, words, 0xFF, REWRITE_LOOP_BODY.length);
+        return words;
+    }
+
+    @Test
+    void programRewritingItselfAtTableEndAgrees() {
+        int[] words = rewriteLoop();
+        assertSameOnEveryPath("rewrite loop", words, 0, null);
+
+        Processor cpu = processor("jit", memory(words, 0));
+        RunResult result = cpu.run(MAX_STEPS);
+        assertEquals(ExitReason.HALT, result.getReason());
+        assertEquals(0x800, cpu.getRegister(2));
+    }
+
+    @Test
+    void writesFromOutsideAtTableEndAgree() {
+        int[] words = rewriteLoop();
+        // Without the store, the loop halts at 0x0E without ever executing past the table.
+        words[0x0E] = 0;
+        int[] cells = {0xFE, 0xFF, 0x100, 0x101};
+        for (int cell : cells) {
+            int original = words[cell];
+            // Turn the cell into a halt, then back into what it was.
+            assertSameOnEveryPath("halt at " + Memory.getHex(cell), words, 0, memory -> memory.write(cell, 0));
+            assertSameOnEveryPath("rewrite of " + Memory.getHex(cell), words, 0, memory -> {
+                memory.write(cell, 0);
+                memory.write(cell, original);
+            });
+        }
+        // A bulk write over the whole loop, putting the same words back.
+        int[] loop = Arrays.copyOfRange(words, 0xFE, 0x102);
+        assertSameOnEveryPath("bulk write", words, 0, memory -> memory.write(0xFE, IntBuffer.wrap(loop)));
+    }
+
+    @Test
+    void jitRunsRewriteLoopCompiled() {
+        int[] words = rewriteLoop();
+        words[0x0E] = 0;
+        Processor cpu = processor("jit", memory(words, 0));
+        cpu.run(MAX_STEPS);
+        assertNotNull(cpu.getJit().lookup(0xFF), "the loop should be hot enough to compile");
+    }
+
+    @Test
+    void cachesCountTheSameWithAndWithoutUndo() {
+        Random random = new Random(2);
+        for (int program = 0; program < 100; program++) {
+            int[] words = new int[64];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = random.nextInt(16) << 8 | random.nextInt(8) << 4 | random.nextInt(8);
+            }
+            Processor alone = processor("caches", memory(words, 0));
+            Processor undone = processor("caches", memory(words, 0));
+            undone.setUndoDepth(16);
+            alone.run(MAX_STEPS);
+            undone.run(MAX_STEPS);
+            assertEquals(undone.getCaches().report(null), alone.getCaches().report(null), "program " + program);
+        }
+    }
+
+    private static String trace(Path directory) throws Exception {
+        TraceReader reader = new TraceReader(directory);
+        StringBuilder records = new StringBuilder(reader.getFirst() + "-" + reader.getEnd());
+        for (long index = reader.getFirst(); index < reader.getEnd(); index++) {
+            records.append(' ').append(reader.format(index));
+        }
+        return records.toString();
+    }
+
+    @Test
+    void tracesRecordTheSameWithAndWithoutUndo(@TempDir Path directory) throws Exception {
+        // A loop of 0x20 rounds, and files small enough that the oldest ones are reused.
+        int[] words = rewriteLoop();
+        words[0x0B] = 0x20;
+        Path alone = directory.resolve("alone");
+        Path undone = directory.resolve("undone");
+        for (Path trace : new Path[] {alone, undone}) {
+            Processor cpu = processor(trace == alone ? "plain" : "stepwise", memory(words, 0));
+            cpu.setFusion(true);
+            try (TraceRecorder recorder = new TraceRecorder(trace, 16, 3)) {
+                cpu.setTrace(recorder);
+                assertEquals(ExitReason.HALT, cpu.run(MAX_STEPS).getReason());
+                cpu.setTrace(null);
+            }
+        }
+        String records = trace(alone);
+        assertEquals(trace(undone), records);
+        assertTrue(records.startsWith("96-136 "), records.substring(0, 20));
+    }
+
+    @Test
+    void recordingAfterCloseIsDropped(@TempDir Path directory) throws Exception {
+        TraceRecorder recorder = new TraceRecorder(directory, 16, 2);
+        Processor cpu = processor("plain", memory(rewriteLoop(), 0));
+        cpu.setTrace(recorder);
+        cpu.run(10);
+        recorder.close();
+        cpu.run(10);
+        assertEquals(10, recorder.getRecorded());
+        assertEquals(10, new TraceReader(directory).getEnd());
+    }
+
+    // loadc 4 1, loadc 7 0x10, loadc 5 9, loadc 6 8, then if 7 5 jumping to the next cell and
+    // sub 7 4; if 7 6 until r7 is 0.
+    private static final int[] JUMP_TO_NEXT = {0x240, 1, 0x270, 0x10, 0x250, 9, 0x260, 8, 0xF75, 0x674, 0xF76, 0};
+
+    @Test
+    void branchesReadFromTraceAreTheRecordedOnes(@TempDir Path directory) throws Exception {
+        // Recording the branches runs stepwise, the trace alone runs in the loop of its own.
+        Path undone = directory.resolve("undone");
+        Processor live = processor("plain", memory(JUMP_TO_NEXT, 0));
+        BranchStream recorded = new BranchStream();
+        live.setBranches(recorded);
+        try (TraceRecorder recorder = new TraceRecorder(undone, 16, 8)) {
+            live.setTrace(recorder);
+            assertEquals(ExitReason.HALT, live.run(MAX_STEPS).getReason());
+            live.setTrace(null);
+        }
+        Path alone = directory.resolve("alone");
+        Processor traced = processor("plain", memory(JUMP_TO_NEXT, 0));
+        try (TraceRecorder recorder = new TraceRecorder(alone, 16, 8)) {
+            traced.setTrace(recorder);
+            assertEquals(ExitReason.HALT, traced.run(MAX_STEPS).getReason());
+            traced.setTrace(null);
+        }
+
+        // A static predictor mispredicts every taken branch, the if to the next cell included.
+        BranchPredictor expected = BranchPredictor.parse("static");
+        recorded.replay(expected);
+        assertEquals(31, expected.getMispredictions());
+        for (Path trace : new Path[] {undone, alone}) {
+            BranchPredictor replayed = BranchPredictor.parse("static");
+            BranchStream.read(new TraceReader(trace)).replay(replayed);
+            assertEquals(expected.getBranches(), replayed.getBranches(), trace.toString());
+            assertEquals(expected.getMispredictions(), replayed.getMispredictions(), trace.toString());
+        }
+    }
+}
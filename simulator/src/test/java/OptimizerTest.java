@@ -0,0 +1,189 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link Optimizer}: optimized programs must end like the original ones, with the
+ * data moved down by the cells removed, and programs it cannot relocate must be left alone.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+class OptimizerTest {
+
+    private static final int CAPACITY = 256;
+    private static final long MAX_STEPS = 100000;
+
+    private static Program assemble(String... lines) throws Exception {
+        byte[] text = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.US_ASCII);
+        return Assembler.assemble(Channels.newChannel(new ByteArrayInputStream(text)), true);
+    }
+
+    /**
+     * Final state of a run: the steps, the registers, then every cell of memory.
+     */
+    private static int[] run(Program program) {
+        Memory memory = new Memory(CAPACITY);
+        program.load(memory);
+        Processor cpu = new Processor();
+        cpu.setMemory(memory);
+        cpu.setPC(program.getEntry());
+        RunResult result = cpu.run(MAX_STEPS);
+        assertEquals(ExitReason.HALT, result.getReason());
+        int[] state = new int[9 + CAPACITY];
+        state[0] = (int) result.getSteps();
+        for (int i = 0; i < 8; i++) {
+            state[1 + i] = cpu.getRegister(i);
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            state[9 + i] = memory.read(i);
+        }
+        return state;
+    }
+
+    /**
+     * Optimizes a program, runs both versions and compares them: the registers are the same but
+     * for those holding a moved address, which hold the new one, and every cell after the code
+     * is found the removed cells lower.
+     *
+     * @return
+     *  The result of the optimization.
+     */
+    private static Optimizer.Result assertSameRun(Program original, int[] addressRegisters, int[] newAddresses) {
+        Optimizer.Result result = Optimizer.optimize(original);
+        assertNull(result.getRefusal(), result.toString());
+        assertTrue(result.getRemoved() > 0, result.toString());
+        int[] before = run(original);
+        int[] after = run(result.getProgram());
+        assertTrue(after[0] < before[0], "executed " + before[0] + " -> " + after[0]);
+        for (int i = 0; i < addressRegisters.length; i++) {
+            before[1 + addressRegisters[i]] = newAddresses[i];
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals(before[1 + i], after[1 + i], "reg[" + i + "]");
+        }
+        int shift = result.getRemovedCells();
+        assertEquals(original.getCodeEnd() - shift, result.getProgram().getCodeEnd());
+        for (int cell = original.getCodeEnd(); cell < CAPACITY; cell++) {
+            assertEquals(before[9 + cell], after[9 + cell - shift], "cell " + Memory.getHex(cell));
+        }
+        return result;
+    }
+
+    private static void assertRefused(Program original, String refusal) {
+        Optimizer.Result result = Optimizer.optimize(original);
+        assertEquals(refusal, result.getRefusal());
+        assertSame(original, result.getProgram());
+        assertEquals(0, result.getRemoved());
+    }
+
+    @Test
+    void loopJumpsAcrossRemovedCells() throws Exception {
+        Program program = assemble(
+            "loadc 6", "0x03",      // 0x00 overwritten before it is read
+            "loadc 6", "0x04",
+            "loadc 1", "0x05",      // 0x04 counter
+            "loadc 2", "0x01",
+            "loadc 4", "0x0A",      // 0x08 start of the loop, itself removed
+            "loadc 5", "0x00",      // 0x0A r5 is already 0
+            "add 3 5",              // 0x0C adds 0
+            "add 3 1",
+            "loadc 7", "0x1A",      // 0x0E data cell, moved down
+            "load 0 7",
+            "add 0 3",
+            "store 7 0",
+            "loadc 5", "0x00",      // 0x13 r5 is still 0
+            "sub 1 2",
+            "if 1 4",
+            "halt",                 // 0x17
+            "0", "0", "0");
+        Optimizer.Result result = assertSameRun(program, new int[] {4, 7}, new int[] {0x08, 0x15});
+        assertEquals(3, result.getRemoved());
+        assertEquals(5, result.getRemovedCells());
+    }
+
+    @Test
+    void dataAddressesMoveWithRemovedCells() throws Exception {
+        Program program = assemble(
+            "loadc 0", "0x00",      // 0x00 r0 is already 0
+            "loadc 1", "0x05",      // 0x02 overwritten before it is read
+            "loadc 1", "0x07",
+            "add 1 0",              // 0x06 adds 0
+            "loadc 2", "0x0F",      // 0x07 data cell, moved down
+            "load 3 2",
+            "add 3 1",
+            "store 2 3",
+            "loadc 0", "0x00",      // 0x0C r0 is still 0
+            "halt",
+            "0x2A",                 // 0x0F
+            "halt");
+        Optimizer.Result result = assertSameRun(program, new int[] {2}, new int[] {0x0A});
+        assertEquals(3, result.getRemoved());
+        assertEquals(5, result.getRemovedCells());
+        assertEquals(0x31, run(result.getProgram())[9 + 0x0A]);
+    }
+
+    @Test
+    void ifThatNeverJumpsIsRemovedDespiteComputedTarget() throws Exception {
+        Program program = assemble(
+            "loadc 6", "0x03",      // 0x00 overwritten before it is read
+            "loadc 6", "0x04",
+            "loadc 4", "0x06",
+            "add 4 6",              // 0x06 target computed, but never jumped to
+            "loadc 1", "0x00",      // 0x07 r1 is already 0
+            "if 1 4",               // 0x09 never jumps
+            "halt");
+        Optimizer.Result result = assertSameRun(program, new int[0], new int[0]);
+        assertEquals(2, result.getRemoved());
+    }
+
+    @Test
+    void refusesComputedAddress() throws Exception {
+        assertRefused(assemble(
+            "loadc 6", "0x03",      // 0x00 overwritten before it is read
+            "loadc 6", "0x04",
+            "loadc 1", "0x05",
+            "add 1 6",              // 0x06 address of the data cell 0x09
+            "load 2 1",             // 0x07
+            "halt",
+            "0x2A"), "the address used by the load at 7 is computed");
+    }
+
+    @Test
+    void refusesAddressFromSeveralLoadc() throws Exception {
+        assertRefused(assemble(
+            "loadc 6", "0x03",      // 0x00 overwritten before it is read
+            "loadc 6", "0x04",
+            "loadc 0", "0x14",
+            "load 1 0",             // 0x06 unknown condition
+            "loadc 4", "0x0F",
+            "loadc 5", "0x11",
+            "if 1 4",               // 0x0B
+            "loadc 2", "0x14",      // 0x0C one way
+            "if 4 5",               // 0x0E
+            "loadc 2", "0x14",      // 0x0F the other way
+            "load 3 2",             // 0x11 join
+            "store 2 3",
+            "halt",
+            "0x2A"), "the address used by the load at 11 comes from several loadc");
+    }
+
+    @Test
+    void refusesStoreIntoCode() throws Exception {
+        assertRefused(assemble(
+            "loadc 6", "0x03",      // 0x00 overwritten before it is read
+            "loadc 6", "0x04",
+            "loadc 2", "0x06",
+            "store 2 6",            // 0x06 writes itself
+            "halt"), "the store at 6 changes the code");
+    }
+}
@@ -0,0 +1,145 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests that the {@link ParallelAssembler} builds the same program as
+ * {@link Assembler#assemble(List)}: on files cut into many chunks, with the first halt in the
+ * middle of a file, after an edit and when a line cannot be translated.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+class ParallelAssemblerTest {
+
+    // Lines of each file, about 1 MiB and several chunks.
+    private static final int LINES = 1 << 17;
+    private static final String[] COMMANDS = {"load", "store", "add", "mul", "sub", "div", "and", "or", "not",
+                                              "lshift", "rshift", "bwc", "bwd", "if"};
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Writes a file of random instructions, a loadc and its constant now and then, with a halt
+     * at a line if one is given and data after it.
+     */
+    private Path write(String name, long seed, int halt, boolean data) throws Exception {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(LINES);
+        while (lines.size() < LINES) {
+            if (data || halt >= 0 && lines.size() > halt) {
+                lines.add(Integer.toHexString(random.nextInt(1 << 16)));
+            } else if (lines.size() == halt) {
+                lines.add("halt");
+            } else if (random.nextInt(8) == 0) {
+                lines.add("loadc " + random.nextInt(8));
+                lines.add("0x" + Integer.toHexString(random.nextInt(1 << 12)));
+            } else {
+                lines.add(COMMANDS[random.nextInt(COMMANDS.length)] + " " + random.nextInt(8) + " " + random.nextInt(8));
+            }
+        }
+        Path file = directory.resolve(name);
+        Files.write(file, lines);
+        return file;
+    }
+
+    private List<Path> program() throws Exception {
+        // Code only, then the first halt halfway through the second file, then data only.
+        return Arrays.asList(write("first.asm", 1, -1, false), write("second.asm", 2, LINES / 2, false),
+                             write("third.asm", 3, -1, true));
+    }
+
+    private static void assertSameProgram(Program expected, Program actual) {
+        assertEquals(expected.getSize(), actual.getSize());
+        assertEquals(expected.getCodeEnd(), actual.getCodeEnd());
+        assertArrayEquals(expected.toArray(), actual.toArray());
+        int[] expectedLines = new int[expected.getSize()];
+        int[] actualLines = new int[actual.getSize()];
+        for (int i = 0; i < expectedLines.length; i++) {
+            expectedLines[i] = expected.getLine(i);
+            actualLines[i] = actual.getLine(i);
+        }
+        assertArrayEquals(expectedLines, actualLines);
+    }
+
+    private static void replaceLine(Path file, int line, String text) throws Exception {
+        List<String> lines = new ArrayList<>(Files.readAllLines(file));
+        lines.set(line - 1, text);
+        Files.write(file, lines);
+    }
+
+    @Test
+    void sameProgramAcrossChunksAndFiles() throws Exception {
+        List<Path> files = program();
+        ParallelAssembler parallel = new ParallelAssembler();
+        Program program = parallel.assemble(files);
+        assertSameProgram(Assembler.assemble(files), program);
+        // Several chunks per file, the chunks after the halt translated twice.
+        assertTrue(parallel.getTranslated() > 2 * files.size(), parallel.getTranslated() + " translations");
+        assertTrue(program.getCodeEnd() > LINES && program.getCodeEnd() < 2 * LINES, "code end " + program.getCodeEnd());
+    }
+
+    @Test
+    void editTranslatesOnlyTheChunksAroundIt() throws Exception {
+        List<Path> files = program();
+        ParallelAssembler parallel = new ParallelAssembler();
+        parallel.assemble(files);
+        int chunks = parallel.getTranslated();
+
+        parallel.assemble(files);
+        assertEquals(0, parallel.getTranslated());
+        assertEquals(chunks, parallel.getReused());
+
+        // An instruction a third into the first file, far from the halt.
+        Path first = files.get(0);
+        int line = LINES / 3;
+        while (Files.readAllLines(first).get(line - 2).startsWith("loadc")) {
+            line++;
+        }
+        replaceLine(first, line, "sub 1 2");
+        Program program = parallel.assemble(files);
+        assertSameProgram(Assembler.assemble(files), program);
+        assertTrue(parallel.getTranslated() >= 1 && parallel.getTranslated() <= 3, parallel.getTranslated() + " translations");
+        assertEquals(chunks, parallel.getTranslated() + parallel.getReused());
+    }
+
+    private void assertSameError(List<Path> files, Path file, int line) {
+        AssemblyException expected = assertThrows(AssemblyException.class, () -> Assembler.assemble(files));
+        AssemblyException actual = assertThrows(AssemblyException.class, () -> new ParallelAssembler().assemble(files));
+        assertEquals(file.toString(), expected.getFile());
+        assertEquals(line, expected.getLine());
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(expected.getFile(), actual.getFile());
+        assertEquals(expected.getLine(), actual.getLine());
+        assertEquals(expected.getDetail(), actual.getDetail());
+    }
+
+    @Test
+    void errorsNameTheSameFileAndLine() throws Exception {
+        List<Path> files = program();
+        // In the code, chunks into the first half of the second file.
+        Path second = files.get(1);
+        replaceLine(second, LINES / 3, "jump 1 2");
+        assertSameError(files, second, LINES / 3);
+
+        // In the data, chunks into the third file.
+        files = program();
+        Path third = files.get(2);
+        replaceLine(third, LINES * 2 / 3, "zz");
+        assertSameError(files, third, LINES * 2 / 3);
+    }
+}
@@ -0,0 +1,182 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests of the {@link Processor} for specific cases, such as self-modifying code at the end of the
+ * predecoded instructions.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+class ProcessorTest {
+
+    // loadc 4 1, loadc 5 1, loadc 6 0x0B, loadc 0 0xFF, if 5 0, then halt at 0x0B.
+    private static final int[] JUMP_TO_FF = {0x240, 1, 0x250, 1, 0x260, 0x0B, 0x200, 0xFF, 0xF50, 0, 0, 0};
+
+    private static Memory boundaryProgram() {
+        Memory memory = new Memory(1024);
+        for (int i = 0; i < JUMP_TO_FF.length; i++) {
+            memory.write(i, JUMP_TO_FF[i]);
+        }
+        // add 1 4 in the last cell of the first predecode table, if 5 6 in the first cell past it.
+        memory.write(0xFF, 0x414);
+        memory.write(0x100, 0xF56);
+        return memory;
+    }
+
+    @Test
+    void writePastDecodedTableDropsSuperinstructionBeforeIt() {
+        Memory memory = boundaryProgram();
+        Processor warm = new Processor();
+        warm.setMemory(memory);
+        assertEquals(ExitReason.HALT, warm.run(100).getReason());
+        assertEquals(0x0C, warm.getPC());
+
+        // Turn the if of the fused add/if into a halt, then run again.
+        memory.write(0x100, 0);
+        warm.setPC(0);
+        RunResult warmed = warm.run(100);
+
+        Processor fresh = new Processor();
+        fresh.setMemory(memory);
+        RunResult cold = fresh.run(100);
+
+        assertEquals(ExitReason.HALT, cold.getReason());
+        assertEquals(7, cold.getSteps());
+        assertEquals(0x101, fresh.getPC());
+        assertEquals(cold.getSteps(), warmed.getSteps());
+        assertEquals(fresh.getPC(), warm.getPC());
+    }
+
+    @Test
+    void writePastDecodedTableDropsLoadcBeforeIt() {
+        Memory memory = new Memory(1024);
+        // loadc 0 0xFF, if 0 0, then loadc 1 with its constant past the table, halt.
+        int[] program = {0x200, 0xFF, 0xF00};
+        for (int i = 0; i < program.length; i++) {
+            memory.write(i, program[i]);
+        }
+        memory.write(0xFF, 0x210);
+        memory.write(0x100, 5);
+        Processor cpu = new Processor();
+        cpu.setMemory(memory);
+        cpu.run(100);
+        assertEquals(5, cpu.getRegister(1));
+
+        memory.write(0x100, 7);
+        cpu.setPC(0);
+        cpu.run(100);
+        assertEquals(7, cpu.getRegister(1));
+    }
+
+    @Test
+    void jitCanBeEnabledBeforeMemory() {
+        // loadc 4 1, loadc 7 0x800, loadc 6 6, then sub 7 4; if 7 6 until r7 is 0.
+        int[] program = {0x240, 1, 0x270, 0x800, 0x260, 6, 0x674, 0xF76, 0};
+        Memory memory = new Memory(256);
+        for (int i = 0; i < program.length; i++) {
+            memory.write(i, program[i]);
+        }
+        Processor cpu = new Processor();
+        cpu.setJit(true);
+        cpu.setMemory(memory);
+        assertEquals(ExitReason.HALT, cpu.run(10000).getReason());
+        assertNotNull(cpu.getJit().lookup(6), "the loop should be compiled");
+    }
+
+    // loadc 4 1, loadc 0 5, loadc 6 6, then sub 0 4; if 0 6 until r0 is 0, with a breakpoint on the sub.
+    private static final int[] COUNTDOWN = {0x240, 1, 0x200, 5, 0x260, 6, 0x604, 0xF06, 0};
+
+    private static Processor countdown() {
+        Memory memory = new Memory(256);
+        for (int i = 0; i < COUNTDOWN.length; i++) {
+            memory.write(i, COUNTDOWN[i]);
+        }
+        Processor cpu = new Processor();
+        cpu.setMemory(memory);
+        cpu.getBreakpoints().addBreakpoint(6);
+        return cpu;
+    }
+
+    @Test
+    void restoreStopsAgainAtBreakpoint() {
+        Processor cpu = countdown();
+        assertEquals(ExitReason.BREAKPOINT, cpu.run(100).getReason());
+        Snapshot snapshot = cpu.snapshot();
+        assertEquals(ExitReason.BREAKPOINT, cpu.run(100).getReason());
+        assertEquals(4, cpu.getRegister(0));
+
+        cpu.restore(snapshot);
+        RunResult result = cpu.run(100);
+        assertEquals(ExitReason.BREAKPOINT, result.getReason());
+        assertEquals(0, result.getSteps());
+        assertEquals(5, cpu.getRegister(0));
+        // Going on from there passes the breakpoint once.
+        assertEquals(2, cpu.run(100).getSteps());
+        assertEquals(4, cpu.getRegister(0));
+    }
+
+    @Test
+    void stepBackStopsAgainAtBreakpoint() {
+        Processor cpu = countdown();
+        cpu.setUndoDepth(16);
+        assertEquals(ExitReason.BREAKPOINT, cpu.run(100).getReason());
+        assertEquals(ExitReason.BREAKPOINT, cpu.run(100).getReason());
+        assertEquals(4, cpu.getRegister(0));
+
+        assertEquals(2, cpu.stepBack(2));
+        cpu.setUndoDepth(0);
+        RunResult result = cpu.run(100);
+        assertEquals(ExitReason.BREAKPOINT, result.getReason());
+        assertEquals(0, result.getSteps());
+        assertEquals(5, cpu.getRegister(0));
+    }
+
+    // r0 = 1, r1 = iterations, r2 = pointer, r3 = stride, r4 = loop, r6 = mask, r7 = base, then
+    // loop: mem[r2] = r1; r2 = ((r2 + r3) & r6) | r7; r1 -= r0; if r1 goto loop.
+    private static final int[] STORE_LOOP = {0x200, 1, 0x210, 0x100, 0x220, 0x80, 0x230, 5, 0x240, 14,
+                                             0x260, 0x7F, 0x270, 0x80, 0x321, 0x423, 0xD26, 0xE27, 0x610, 0xF14, 0};
+
+    private static String state(Processor cpu, Memory memory) {
+        return Arrays.toString(cpu.dump()) + " " + String.join(",", memory.dump());
+    }
+
+    @Test
+    void stepBackRestoresEveryStepUpToTheDepth() {
+        Memory memory = new Memory(256);
+        for (int i = 0; i < STORE_LOOP.length; i++) {
+            memory.write(i, STORE_LOOP[i]);
+        }
+        Processor cpu = new Processor();
+        cpu.setMemory(memory);
+        cpu.setPC(0);
+        cpu.setUndoDepth(16);
+        // The state before each step.
+        List<String> states = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            states.add(state(cpu, memory));
+            assertEquals(1, cpu.run(1).getSteps());
+        }
+
+        for (int back = 1; back <= 16; back++) {
+            assertEquals(1, cpu.stepBack(1));
+            assertEquals(states.get(40 - back), state(cpu, memory), "stepped back " + back);
+        }
+        // The log only held the last 16 instructions.
+        assertEquals(0, cpu.stepBack(1));
+        assertEquals(states.get(24), state(cpu, memory));
+
+        cpu.run(10);
+        assertEquals(states.get(34), state(cpu, memory));
+        assertEquals(10, cpu.stepBack(20));
+        assertEquals(states.get(24), state(cpu, memory));
+    }
+}
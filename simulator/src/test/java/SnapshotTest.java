@@ -0,0 +1,210 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests of {@link Snapshot}: delta snapshots, restoring only the pages written since, forks and
+ * saving to a file.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+class SnapshotTest {
+
+    // Not a multiple of the page size, the last page is short.
+    private static final int CELLS = 8 * PagedMemory.PAGE_SIZE + 100;
+    // loadc 1 0x11, loadc 2 0x22, halt.
+    private static final int[] PROGRAM = {0x210, 0x11, 0x220, 0x22, 0};
+
+    /**
+     * Memory that remembers the pages a restore wrote.
+     */
+    private static final class RestoreCounting extends Memory {
+
+        private final List<Integer> restored = new ArrayList<>();
+
+        private RestoreCounting(int cap) {
+            super(cap);
+        }
+
+        @Override
+        void restorePage(int index, int[] page) {
+            restored.add(index);
+            super.restorePage(index, page);
+        }
+    }
+
+    private static Processor processor(Memory memory) {
+        for (int i = 0; i < PROGRAM.length; i++) {
+            memory.write(i, PROGRAM[i]);
+        }
+        // A cell in every page but one.
+        for (int page = 1; page < 8; page++) {
+            if (page != 4) {
+                memory.write(page * PagedMemory.PAGE_SIZE + page, page);
+            }
+        }
+        memory.write(CELLS - 1, 0x7E);
+        Processor cpu = new Processor();
+        cpu.setMemory(memory);
+        cpu.run(10);
+        return cpu;
+    }
+
+    private static int[] cells(Memory memory) {
+        int[] cells = new int[memory.getCapacity()];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = memory.read(i);
+        }
+        return cells;
+    }
+
+    private static void assertState(int[] cells, Processor expected, Processor actual) {
+        assertArrayEquals(cells, cells(actual.getMemory()));
+        assertEquals(expected.getPC(), actual.getPC());
+        for (int i = 0; i < 8; i++) {
+            assertEquals(expected.getRegister(i), actual.getRegister(i), "reg[" + i + "]");
+        }
+    }
+
+    @Test
+    void deltaStoresOnlyPagesWrittenSince() {
+        Processor cpu = processor(new Memory(CELLS));
+        Snapshot full = cpu.snapshot();
+        assertFalse(full.isDelta());
+        // Pages 0-8 but page 4, which holds only 0.
+        assertEquals(8, full.getStoredPages());
+        int[] before = cells(cpu.getMemory());
+
+        cpu.getMemory().write(2 * PagedMemory.PAGE_SIZE, 5);
+        cpu.getMemory().write(4 * PagedMemory.PAGE_SIZE + 9, 6);
+        Snapshot delta = cpu.snapshot(full);
+        assertTrue(delta.isDelta());
+        assertEquals(2, delta.getStoredPages());
+        int[] after = cells(cpu.getMemory());
+
+        // Only the last snapshot taken can be the base of a delta.
+        assertThrows(IllegalArgumentException.class, () -> cpu.snapshot(full));
+
+        cpu.getMemory().write(7 * PagedMemory.PAGE_SIZE, 9);
+        cpu.restore(delta);
+        assertArrayEquals(after, cells(cpu.getMemory()));
+        cpu.restore(full);
+        assertArrayEquals(before, cells(cpu.getMemory()));
+    }
+
+    @Test
+    void restoreOfLastSnapshotOnlyWritesTouchedPages() {
+        RestoreCounting memory = new RestoreCounting(CELLS);
+        Processor cpu = processor(memory);
+        Snapshot first = cpu.snapshot();
+        int[] cells = cells(memory);
+
+        memory.write(3 * PagedMemory.PAGE_SIZE + 1, 0x33);
+        memory.write(6 * PagedMemory.PAGE_SIZE, 0x66);
+        cpu.restore(first);
+        assertEquals(List.of(3, 6), memory.restored);
+        assertArrayEquals(cells, cells(memory));
+
+        // The memory now follows a newer snapshot, restoring an older one writes every page.
+        memory.write(5, 0x55);
+        Snapshot second = cpu.snapshot();
+        memory.restored.clear();
+        cpu.restore(first);
+        assertEquals(PagedMemory.pageCount(CELLS), memory.restored.size());
+        assertArrayEquals(cells, cells(memory));
+        cpu.restore(second);
+        assertEquals(0x55, memory.read(5));
+    }
+
+    @Test
+    void forksAreIndependent() {
+        Processor cpu = processor(new Memory(CELLS));
+        Snapshot snapshot = cpu.snapshot();
+        int[] cells = cells(cpu.getMemory());
+
+        Processor first = snapshot.fork();
+        Processor second = snapshot.fork();
+        assertState(cells, cpu, first);
+        first.getMemory().write(PagedMemory.PAGE_SIZE + 1, 0x100);
+        first.getMemory().write(4 * PagedMemory.PAGE_SIZE, 0x400);
+        second.getMemory().write(PagedMemory.PAGE_SIZE + 1, 0x200);
+
+        assertEquals(0x100, first.getMemory().read(PagedMemory.PAGE_SIZE + 1));
+        assertEquals(0x200, second.getMemory().read(PagedMemory.PAGE_SIZE + 1));
+        assertEquals(0, second.getMemory().read(4 * PagedMemory.PAGE_SIZE));
+        assertArrayEquals(cells, cells(cpu.getMemory()));
+        assertState(cells, cpu, snapshot.fork());
+
+        // The next snapshot of a fork is a delta of the snapshot it was forked from.
+        Snapshot delta = first.snapshot(snapshot);
+        assertEquals(2, delta.getStoredPages());
+        assertEquals(0x400, delta.fork().getMemory().read(4 * PagedMemory.PAGE_SIZE));
+    }
+
+    @Test
+    void saveAndReadRoundTrip(@TempDir Path directory) throws Exception {
+        Processor cpu = processor(new Memory(CELLS));
+        Snapshot full = cpu.snapshot();
+        cpu.getMemory().write(CELLS - 2, 0x7D);
+        Snapshot delta = cpu.snapshot(full);
+        int[] cells = cells(cpu.getMemory());
+
+        // A saved delta holds every page.
+        Path file = directory.resolve("delta.m1s");
+        delta.save(file);
+        Snapshot read = Snapshot.read(file);
+        assertFalse(read.isDelta());
+        assertEquals(CELLS, read.getCapacity());
+        assertEquals(8, read.getStoredPages());
+        assertState(cells, cpu, read.fork());
+
+        Processor restored = processor(new Memory(CELLS));
+        restored.getMemory().write(4 * PagedMemory.PAGE_SIZE, 1);
+        restored.restore(read);
+        assertState(cells, cpu, restored);
+    }
+
+    private static String readError(Path file) {
+        return assertThrows(IOException.class, () -> Snapshot.read(file)).getMessage();
+    }
+
+    @Test
+    void damagedFilesAreRejected(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("full.m1s");
+        processor(new Memory(CELLS)).snapshot().save(file);
+        byte[] saved = Files.readAllBytes(file);
+
+        byte[] flipped = saved.clone();
+        flipped[Snapshot.HEADER_SIZE + 4 + PagedMemory.PAGE_SIZE] ^= 1;
+        Files.write(file, flipped);
+        assertTrue(readError(file).endsWith("is damaged: checksum mismatch"), readError(file));
+
+        Files.write(file, saved);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(saved.length - Integer.BYTES);
+        }
+        assertTrue(readError(file).contains("is damaged"), readError(file));
+
+        Files.write(file, new byte[Snapshot.HEADER_SIZE - 1]);
+        assertTrue(readError(file).endsWith("is not an M1 snapshot"), readError(file));
+
+        Files.write(file, saved);
+        assertEquals(8, Snapshot.read(file).getStoredPages());
+    }
+}
@@ -2,11 +2,22 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.FileWriter; 
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
 
 import javax.swing.JOptionPane; 
 /**
 * Static class that handles converting Assembly language to Machine (hex) language. 
+* 
+* <p> 
+*  {@link #assemble(Path)} translates a whole file in a single pass over its bytes and produces 
+*  the encoded words directly, without building a String for every line. The String methods 
+*  below translate a single instruction at a time. 
+* </p> 
 * @author
 *  Levi Kuhaulua
 * @version 
@@ -17,6 +28,30 @@ public class Assembler {
     final static String PREFIX = "00000"; 
     final static String[] CMDS= {"halt", "load", "loadc", "store", "add", "mul", "sub", "div",
                           "and", "or", "not", "lshift", "rshift", "bwc", "bwd", "if"};
+    // Version of the translation rules, part of the key of cached programs. Change it whenever 
+    // the same source would translate to different words. 
+    static final int VERSION = 2; 
+    // Open addressing table from a command packed by nameKey to its opcode. 
+    private static final int TABLE_BITS = 6; 
+    private static final long[] KEYS = new long[1 << TABLE_BITS]; 
+    private static final byte[] OPCODES = new byte[1 << TABLE_BITS]; 
+    // Longest token kept by the streaming assembler, longer tokens are never valid. 
+    private static final int TOKEN_LIMIT = 32; 
+    // Most tokens on a line of Assembly language: a command and two registers. 
+    private static final int MAX_TOKENS = 3; 
+
+    static {
+        for (int i = 0; i < CMDS.length; i++) {
+            byte[] name = CMDS[i].getBytes(StandardCharsets.US_ASCII); 
+            int slot = slot(nameKey(name, name.length)); 
+            while (KEYS[slot] != 0) {
+                slot = (slot + 1) & (KEYS.length - 1); 
+            }
+            KEYS[slot] = nameKey(name, name.length); 
+            OPCODES[slot] = (byte) i; 
+        }
+    }
+
     /**
      * Checks to see if the file exists and is an Assembly language file (.asm file extension). 
      * @param fileToCheck
@@ -36,13 +71,351 @@ public class Assembler {
      *  The hex representation of the command or <code>null</code> if it is an invalid command. 
      */
     public static String parseCommand(String command) {
-        for (int i = 0; i < CMDS.length; i++) {
-            if (CMDS[i].equalsIgnoreCase(command)) {
-                return Integer.toHexString(i); 
+        byte[] name = command.getBytes(StandardCharsets.US_ASCII); 
+        int opcode = opcode(name, name.length); 
+        return opcode < 0 ? null : Integer.toHexString(opcode); 
+    }
+
+    /**
+     * Packs a command into a number, one byte per letter in lower case. 
+     * 
+     * @return
+     *  The key of the command or 0 if it is too long to be one. 
+     */
+    private static long nameKey(byte[] name, int length) {
+        if (length > Long.BYTES) {
+            return 0; 
+        }
+        long key = 0; 
+        for (int i = 0; i < length; i++) {
+            key = key << 8 | (name[i] | 0x20) & 0xff; 
+        }
+        return key; 
+    }
+
+    private static int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - TABLE_BITS)); 
+    }
+
+    /**
+     * Looks up a command in constant time, ignoring case. 
+     * 
+     * @return
+     *  The opcode of the command or -1 if it is not a command. 
+     */
+    private static int opcode(byte[] name, int length) {
+        long key = nameKey(name, length); 
+        if (key == 0) {
+            return -1; 
+        }
+        for (int slot = slot(key); KEYS[slot] != 0; slot = (slot + 1) & (KEYS.length - 1)) {
+            if (KEYS[slot] == key) {
+                return OPCODES[slot]; 
+            }
+        }
+        return -1; 
+    }
+
+    /**
+     * Translates a file in a single pass. Assembly language files (see {@link #checkFile(File)}) 
+     * hold one instruction or <code>0x</code> constant per line until the first 
+     * <code>halt</code>, the lines after it are hexadecimal data where <code>halt</code> stands 
+     * for 0. Any other file is a hexadecimal memory image. Blank lines are skipped. 
+     * 
+     * @param file
+     *  The file to translate. 
+     * @return
+     *  The translated program. 
+     * @throws IOException
+     *  If the file cannot be read. 
+     * @throws AssemblyException
+     *  If a line cannot be translated, no program is produced in that case. 
+     */
+    public static Program assemble(Path file) throws IOException, AssemblyException {
+        try (FileChannel in = FileChannel.open(file)) {
+            return assemble(in, checkFile(file.toFile())); 
+        }
+    }
+
+    /**
+     * Translates everything read from a channel in a single pass. 
+     * 
+     * @param in
+     *  The channel to read, it is not closed. 
+     * @param source
+     *  <code>true</code> if the channel holds Assembly language, <code>false</code> for a 
+     *  hexadecimal memory image. 
+     * @return
+     *  The translated program. 
+     * @throws IOException
+     *  If the channel cannot be read. 
+     * @throws AssemblyException
+     *  If a line cannot be translated. 
+     * @see #assemble(Path)
+     */
+    public static Program assemble(ReadableByteChannel in, boolean source) throws IOException, AssemblyException {
+        long start = System.nanoTime(); 
+        try {
+            Pass pass = new Pass(new Program()); 
+            pass.start(null, source, false, 1); 
+            pass.read(in); 
+            return pass.program; 
+        } finally {
+            SimulatorMetrics.get().assembled(System.nanoTime() - start); 
+        }
+    }
+
+    /**
+     * Translates the files of a program one after the other, as if they were a single file. The 
+     * first <code>halt</code> in any of them starts the data of the program, files that are not 
+     * Assembly language (see {@link #checkFile(File)}) hold data only. Source line numbers of 
+     * the program are counted from the start of each file. 
+     * 
+     * @param files
+     *  The files of the program, in address order. 
+     * @return
+     *  The translated program. 
+     * @throws IOException
+     *  If a file cannot be read. 
+     * @throws AssemblyException
+     *  If a line cannot be translated, the exception names the file. 
+     * @see ParallelAssembler
+     */
+    public static Program assemble(List<Path> files) throws IOException, AssemblyException {
+        long start = System.nanoTime(); 
+        try {
+            Pass pass = new Pass(new Program()); 
+            for (Path file : files) {
+                try (FileChannel in = FileChannel.open(file)) {
+                    pass.start(file.toString(), checkFile(file.toFile()), pass.data, 1); 
+                    pass.read(in); 
+                }
+            }
+            return pass.program; 
+        } finally {
+            SimulatorMetrics.get().assembled(System.nanoTime() - start); 
+        }
+    }
+
+    /**
+     * Translates part of a file held in memory. Used by the {@link ParallelAssembler}, which 
+     * splits files at line ends. 
+     * 
+     * @param bytes
+     *  The content of the file. 
+     * @param from
+     *  The offset of the first byte, at the start of a line. 
+     * @param to
+     *  The offset after the last byte. 
+     * @param source
+     *  <code>true</code> if the file holds Assembly language. 
+     * @param data
+     *  <code>true</code> if a halt came before this part of the program. 
+     * @return
+     *  The words of the part, with line numbers counted from its first line. 
+     * @throws AssemblyException
+     *  If a line cannot be translated, the line is counted from the first line of the part. 
+     */
+    static Program assemble(byte[] bytes, int from, int to, boolean source, boolean data) throws AssemblyException {
+        // Most lines are a short instruction of about 8 bytes. 
+        Pass pass = new Pass(new Program((to - from) / 8)); 
+        pass.start(null, source, data, 1); 
+        pass.feed(bytes, from, to); 
+        pass.finish(); 
+        return pass.program; 
+    }
+
+    /**
+     * Translates a file and writes the program into memory starting at address 0. Binary images 
+     * (see {@link Program#save(Path)}) are read as they are. The memory is left untouched when 
+     * the file cannot be translated. 
+     * 
+     * @param file
+     *  The file to translate. 
+     * @param memory
+     *  The memory to write the program to. 
+     * @return
+     *  The translated program. 
+     * @throws IOException
+     *  If the file cannot be read. 
+     * @throws AssemblyException
+     *  If a line cannot be translated. 
+     * @throws IllegalArgumentException
+     *  If the program does not fit in the memory. 
+     */
+    public static Program load(Path file, Memory memory) throws IOException, AssemblyException {
+        Program program = Program.isImage(file) ? Program.read(file) : assemble(file); 
+        program.load(memory); 
+        return program; 
+    }
+
+    /**
+     * State of a single translation. Bytes are split into tokens at spaces, tabs and line ends, 
+     * the tokens of a line are kept as bytes and translated once the line is complete. 
+     */
+    private static final class Pass {
+
+        private final Program program; 
+        private final byte[][] text = new byte[MAX_TOKENS][TOKEN_LIMIT]; 
+        private final int[] lengths = new int[MAX_TOKENS]; 
+        // Tokens completed on the current line, including those past MAX_TOKENS. 
+        private int tokens; 
+        // Length of the token being read, 0 between tokens. 
+        private int length; 
+        private String file; 
+        private boolean source; 
+        private int line; 
+        // Set once the first halt is translated, the rest of the program is data. 
+        private boolean data; 
+
+        private Pass(Program program) {
+            this.program = program; 
+        }
+
+        /**
+         * Starts translating a file, or part of one, at the end of the program so far. 
+         */
+        private void start(String file, boolean source, boolean data, int line) {
+            this.file = file; 
+            this.source = source; 
+            this.data = data; 
+            this.line = line; 
+        }
+
+        private void read(ReadableByteChannel in) throws IOException, AssemblyException {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16); 
+            while (in.read(buffer) >= 0) {
+                feed(buffer.array(), 0, buffer.position()); 
+                buffer.clear(); 
             }
+            finish(); 
+        }
+
+        private void feed(byte[] bytes, int from, int to) throws AssemblyException {
+            for (int i = from; i < to; i++) {
+                byte b = bytes[i]; 
+                if (b == '\n') {
+                    endToken(); 
+                    endLine(); 
+                } else if (b == ' ' || b == '\t' || b == '\r') {
+                    endToken(); 
+                } else {
+                    if (tokens < MAX_TOKENS && length < TOKEN_LIMIT) {
+                        text[tokens][length] = b; 
+                    }
+                    length++; 
+                }
+            }
+        }
+
+        /**
+         * Translates the last line of a file when it does not end with a line end. 
+         */
+        private void finish() throws AssemblyException {
+            endToken(); 
+            endLine(); 
+        }
+
+        private void endToken() {
+            if (length > 0) {
+                if (tokens < MAX_TOKENS) {
+                    lengths[tokens] = length; 
+                }
+                tokens++; 
+                length = 0; 
+            }
+        }
+
+        private void endLine() throws AssemblyException {
+            if (tokens > 0) {
+                if (!source || data) {
+                    // Data, every token is a word. 
+                    if (tokens > MAX_TOKENS) {
+                        throw error("too many words on one line"); 
+                    }
+                    for (int i = 0; i < tokens; i++) {
+                        program.add(opcode(text[i], lengths[i]) == 0 ? 0 : word(i, false), line); 
+                    }
+                } else {
+                    program.add(instruction(), line); 
+                    if (data) {
+                        program.endCode(); 
+                    }
+                }
+            }
+            tokens = 0; 
+            line++; 
+        }
+
+        private int instruction() throws AssemblyException {
+            if (tokens > MAX_TOKENS) {
+                throw error("too many arguments"); 
+            }
+            int command = opcode(text[0], lengths[0]); 
+            if (command < 0) {
+                if (tokens == 1 && lengths[0] > 2 && text[0][0] == '0' && (text[0][1] | 0x20) == 'x') {
+                    return word(0, true); 
+                }
+                throw error("unknown command '" + token(0) + "'"); 
+            }
+            if (command == 0 && tokens == 1) {
+                data = true; 
+                return 0; 
+            }
+            if (command == 2) {
+                if (tokens != 2) {
+                    throw error("loadc takes one register"); 
+                }
+                return command << 8 | register(1) << 4; 
+            }
+            if (tokens != 3) {
+                throw error(CMDS[command] + " takes two registers"); 
+            }
+            return command << 8 | register(1) << 4 | register(2); 
+        }
+
+        private int register(int index) throws AssemblyException {
+            int value = 0; 
+            for (int i = 0; i < lengths[index] && i < TOKEN_LIMIT; i++) {
+                int digit = text[index][i] - '0'; 
+                if (digit < 0 || digit > 9 || (value = value * 10 + digit) > 7) {
+                    throw error("invalid register '" + token(index) + "', must be in range 0-7"); 
+                }
+            }
+            return value; 
+        }
+
+        /**
+         * Translates a hexadecimal word of at most 32 bits. 
+         * 
+         * @param prefixed
+         *  <code>true</code> if the word must start with <code>0x</code>, otherwise the prefix 
+         *  is optional. 
+         */
+        private int word(int index, boolean prefixed) throws AssemblyException {
+            byte[] token = text[index]; 
+            int length = Math.min(lengths[index], TOKEN_LIMIT); 
+            int start = length > 2 && token[0] == '0' && (token[1] | 0x20) == 'x' ? 2 : 0; 
+            if (prefixed && start == 0 || lengths[index] > TOKEN_LIMIT) {
+                throw error("invalid constant '" + token(index) + "'"); 
+            }
+            long value = 0; 
+            for (int i = start; i < length; i++) {
+                int digit = Character.digit(token[i], 16); 
+                if (digit < 0 || (value = value << 4 | digit) > 0xFFFFFFFFL) {
+                    throw error("invalid hexadecimal word '" + token(index) + "'"); 
+                }
+            }
+            return (int) value; 
+        }
+
+        private String token(int index) {
+            return new String(text[index], 0, Math.min(lengths[index], TOKEN_LIMIT), StandardCharsets.ISO_8859_1); 
+        }
+
+        private AssemblyException error(String message) {
+            return new AssemblyException(file, line, message); 
         }
-        // Return null if command was not null
-        return null; 
     }
 
     /**
@@ -105,6 +478,7 @@ public class Assembler {
 
     /**
      * Will take in the translated command (from Assembly to Hexadecimal), then write them to a file. 
+     * {@link Program#exportText(Path)} writes a whole program at once. 
      * @param file
      *  File where translations will be written to
      * @param content
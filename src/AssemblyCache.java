@@ -0,0 +1,350 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of assembled programs, so that loading the same source again skips the 
+ * {@link Assembler}. Programs are keyed by the SHA-256 of the source bytes and the assembler 
+ * version, so a renamed or copied file still hits and an edited one misses. 
+ * 
+ * <p>
+ * The cache has two tiers: the most recently used programs are kept in memory up to a number of 
+ * words, and, when a directory is given, every assembled program is also saved there as a 
+ * binary image (see {@link Program#save(Path)}) up to a number of bytes. The least recently 
+ * used entries of each tier are evicted first. Programs read back from disk have no source line 
+ * numbers. 
+ * </p>
+ * 
+ * <p>
+ * A cache can be shared by loaders on any number of threads. Two threads missing on the same 
+ * source at the same time both assemble it and end up with the same words. 
+ * </p>
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class AssemblyCache {
+
+    private static AssemblyCache defaultCache; 
+
+    private final long maxWords; 
+    // Most recently used last, guarded by itself. 
+    private final LinkedHashMap<String, Program> entries = new LinkedHashMap<>(16, 0.75f, true); 
+    private long words; 
+
+    private final Path directory; 
+    private final long maxBytes; 
+    // Guards the files of the directory and diskBytes. 
+    private final Object diskLock = new Object(); 
+    private long diskBytes; 
+
+    private final LongAdder hits = new LongAdder(); 
+    private final LongAdder diskHits = new LongAdder(); 
+    private final LongAdder misses = new LongAdder(); 
+    private final LongAdder evictions = new LongAdder(); 
+
+    /**
+     * Creates a cache that only keeps programs in memory. 
+     * 
+     * @param maxWords
+     *  The most words the cached programs may hold together. 
+     */
+    public AssemblyCache(long maxWords) {
+        this.maxWords = maxWords; 
+        this.directory = null; 
+        this.maxBytes = 0; 
+    }
+
+    /**
+     * Creates a cache that also saves programs in a directory. 
+     * 
+     * @param maxWords
+     *  The most words the programs kept in memory may hold together. 
+     * @param directory
+     *  The directory for the saved programs, created if needed. 
+     * @param maxBytes
+     *  The most bytes the saved programs may take together. 
+     * @throws IOException
+     *  Should the directory not be usable. 
+     */
+    public AssemblyCache(long maxWords, Path directory, long maxBytes) throws IOException {
+        this.maxWords = maxWords; 
+        this.directory = Files.createDirectories(directory); 
+        this.maxBytes = maxBytes; 
+        for (Path file : cachedFiles()) {
+            diskBytes += Files.size(file); 
+        }
+    }
+
+    /**
+     * Gets the cache shared by the {@link Console} and the {@link Micro1Viewer}. It is set up 
+     * from the system properties <code>m1.cache.words</code> (default 4M words), 
+     * <code>m1.cache.dir</code> (no disk tier when unset) and <code>m1.cache.bytes</code> 
+     * (default 256 MiB). 
+     * 
+     * @return
+     *  The default cache. 
+     */
+    public static synchronized AssemblyCache getDefault() {
+        if (defaultCache == null) {
+            long maxWords = Long.getLong("m1.cache.words", 4L << 20); 
+            String dir = System.getProperty("m1.cache.dir"); 
+            try {
+                defaultCache = dir == null ? new AssemblyCache(maxWords) 
+                                           : new AssemblyCache(maxWords, Paths.get(dir), Long.getLong("m1.cache.bytes", 256L << 20)); 
+            } catch (IOException e) {
+                System.err.println("assembly cache: cannot use " + dir + ", keeping programs in memory only: " + e.getMessage()); 
+                defaultCache = new AssemblyCache(maxWords); 
+            }
+        }
+        return defaultCache; 
+    }
+
+    /**
+     * Gets the program of a file, assembling it only if it is not cached. Binary images are not 
+     * cached since reading them is as fast as a cache hit. 
+     * 
+     * @param file
+     *  The file to translate, see {@link Assembler#assemble(Path)}. 
+     * @return
+     *  The program, its words must not be changed. 
+     * @throws IOException
+     *  If the file cannot be read. 
+     * @throws AssemblyException
+     *  If a line cannot be translated. 
+     */
+    public Program get(Path file) throws IOException, AssemblyException {
+        byte[] content = Files.readAllBytes(file); 
+        if (Program.isImage(content)) {
+            return Program.read(file); 
+        }
+        boolean source = Assembler.checkFile(file.toFile()); 
+        String key = key(content, source); 
+        Program program; 
+        synchronized (entries) {
+            program = entries.get(key); 
+        }
+        if (program != null) {
+            hits.increment(); 
+            return program.share(); 
+        }
+        program = readDisk(key); 
+        if (program != null) {
+            diskHits.increment(); 
+        } else {
+            misses.increment(); 
+            program = Assembler.assemble(Channels.newChannel(new ByteArrayInputStream(content)), source); 
+            writeDisk(key, program); 
+        }
+        put(key, program); 
+        return program.share(); 
+    }
+
+    /**
+     * Gets the program of a file through the cache and writes it into memory starting at 
+     * address 0, like {@link Assembler#load(Path, Memory)}. 
+     * 
+     * @param file
+     *  The file to translate. 
+     * @param memory
+     *  The memory to write the program to. 
+     * @return
+     *  The program. 
+     * @throws IOException
+     *  If the file cannot be read. 
+     * @throws AssemblyException
+     *  If a line cannot be translated. 
+     * @throws IllegalArgumentException
+     *  If the program does not fit in the memory. 
+     */
+    public Program load(Path file, Memory memory) throws IOException, AssemblyException {
+        Program program = get(file); 
+        program.load(memory); 
+        return program; 
+    }
+
+    private static String key(byte[] content, boolean source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256"); 
+            digest.update(ByteBuffer.allocate(5).putInt(Assembler.VERSION).put((byte) (source ? 1 : 0)).array()); 
+            return HexFormat.of().formatHex(digest.digest(content)); 
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256. 
+            throw new IllegalStateException(e); 
+        }
+    }
+
+    private void put(String key, Program program) {
+        synchronized (entries) {
+            if (entries.put(key, program) == null) {
+                words += program.getSize(); 
+            }
+            Iterator<Program> eldest = entries.values().iterator(); 
+            // The program just added stays even if it is larger than the whole tier. 
+            while (words > maxWords && entries.size() > 1) {
+                words -= eldest.next().getSize(); 
+                eldest.remove(); 
+                evictions.increment(); 
+            }
+        }
+    }
+
+    private Program readDisk(String key) {
+        if (directory == null) {
+            return null; 
+        }
+        Path file = directory.resolve(key + ".m1"); 
+        synchronized (diskLock) {
+            try {
+                if (!Files.exists(file)) {
+                    return null; 
+                }
+                Program program = Program.read(file); 
+                // The modification time orders the files for eviction. 
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); 
+                return program; 
+            } catch (IOException e) {
+                // A damaged file is dropped and the source assembled again. 
+                remove(file); 
+                return null; 
+            }
+        }
+    }
+
+    private void writeDisk(String key, Program program) {
+        if (directory == null) {
+            return; 
+        }
+        synchronized (diskLock) {
+            Path file = directory.resolve(key + ".m1"); 
+            try {
+                Path temporary = Files.createTempFile(directory, key, ".tmp"); 
+                program.save(temporary); 
+                remove(file); 
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); 
+                diskBytes += Files.size(file); 
+                if (diskBytes > maxBytes) {
+                    evictDisk(); 
+                }
+            } catch (IOException e) {
+                // The program was assembled, failing to save it only costs a later miss. 
+                System.err.println("assembly cache: cannot save " + file + ": " + e.getMessage()); 
+            }
+        }
+    }
+
+    private void evictDisk() throws IOException {
+        List<Path> files = cachedFiles(); 
+        Map<Path, FileTime> times = new HashMap<>(); 
+        for (Path file : files) {
+            times.put(file, Files.getLastModifiedTime(file)); 
+        }
+        files.sort(Comparator.comparing(times::get)); 
+        for (Iterator<Path> oldest = files.iterator(); oldest.hasNext() && diskBytes > maxBytes; ) {
+            remove(oldest.next()); 
+            evictions.increment(); 
+        }
+    }
+
+    private void remove(Path file) {
+        try {
+            if (Files.exists(file)) {
+                long size = Files.size(file); 
+                Files.delete(file); 
+                diskBytes -= size; 
+            }
+        } catch (IOException e) {
+            System.err.println("assembly cache: cannot remove " + file + ": " + e.getMessage()); 
+        }
+    }
+
+    private List<Path> cachedFiles() throws IOException {
+        List<Path> files = new ArrayList<>(); 
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.m1")) {
+            for (Path file : stream) {
+                files.add(file); 
+            }
+        }
+        return files; 
+    }
+
+    /**
+     * Gets the number of loads served by the memory tier. 
+     * 
+     * @return
+     *  The number of memory hits. 
+     */
+    public long getHits() {
+        return hits.sum(); 
+    }
+
+    /**
+     * Gets the number of loads served by the disk tier. 
+     * 
+     * @return
+     *  The number of disk hits. 
+     */
+    public long getDiskHits() {
+        return diskHits.sum(); 
+    }
+
+    /**
+     * Gets the number of loads that had to assemble the source. 
+     * 
+     * @return
+     *  The number of misses. 
+     */
+    public long getMisses() {
+        return misses.sum(); 
+    }
+
+    /**
+     * Gets the number of programs evicted from either tier. 
+     * 
+     * @return
+     *  The number of evictions. 
+     */
+    public long getEvictions() {
+        return evictions.sum(); 
+    }
+
+    /**
+     * Summarizes the counters and the size of both tiers. 
+     */
+    @Override
+    public String toString() {
+        int programs; 
+        long cachedWords; 
+        synchronized (entries) {
+            programs = entries.size(); 
+            cachedWords = words; 
+        }
+        String disk; 
+        synchronized (diskLock) {
+            disk = directory == null ? "no disk tier" : diskBytes + " of " + maxBytes + " bytes on disk"; 
+        }
+        return getHits() + " hits, " + getDiskHits() + " disk hits, " + getMisses() + " misses, " 
+               + getEvictions() + " evictions; " + programs + " programs (" + cachedWords + " of " 
+               + maxWords + " words) in memory, " + disk; 
+    }
+}
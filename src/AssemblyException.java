@@ -0,0 +1,76 @@
+/**
+ * Thrown when an Assembly language file cannot be translated. The message starts with the 
+ * number of the line that could not be translated. 
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public class AssemblyException extends Exception {
+
+    private static final long serialVersionUID = 1L; 
+
+    private final String file; 
+    private final int line; 
+    private final String detail; 
+
+    /**
+     * Creates the exception for a line of the file. 
+     * 
+     * @param line
+     *  The number of the line, starting at 1. 
+     * @param message
+     *  What is wrong with the line. 
+     */
+    public AssemblyException(int line, String message) {
+        this(null, line, message); 
+    }
+
+    /**
+     * Creates the exception for a line of one of the files of a program. 
+     * 
+     * @param file
+     *  The name of the file, or <code>null</code> if the program has a single file. 
+     * @param line
+     *  The number of the line, starting at 1. 
+     * @param message
+     *  What is wrong with the line. 
+     */
+    public AssemblyException(String file, int line, String message) {
+        super((file == null ? "" : file + ", ") + "line " + line + ": " + message); 
+        this.file = file; 
+        this.line = line; 
+        this.detail = message; 
+    }
+
+    /**
+     * Gets the file that could not be translated. 
+     * 
+     * @return
+     *  The name of the file, or <code>null</code> if the program has a single file. 
+     */
+    public String getFile() {
+        return file; 
+    }
+
+    /**
+     * Gets what is wrong with the line, without the file and line number. 
+     * 
+     * @return
+     *  The description of the error. 
+     */
+    public String getDetail() {
+        return detail; 
+    }
+
+    /**
+     * Gets the line that could not be translated. 
+     * 
+     * @return
+     *  The number of the line, starting at 1. 
+     */
+    public int getLine() {
+        return line; 
+    }
+}
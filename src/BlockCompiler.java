@@ -0,0 +1,476 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+/**
+ * Optional JIT tier of the {@link Processor}. Counts how often execution starts at each address
+ * and, once an address gets hot, compiles the basic block starting there (the straight-line run
+ * of instructions up to and including the next if or store) into a hidden class that keeps the
+ * registers in locals, letting the JVM optimize across Micro-1 instructions.
+ *
+ * <p>
+ * Blocks stop before anything the compiler does not handle (halt, div and instructions naming a
+ * register outside of 0-7), which the Processor then interprets. A compiled block is dropped as
+ * soon as {@link Memory} writes to one of the cells it was compiled from.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+final class BlockCompiler {
+
+    // Number of times execution has to start at an address before its block gets compiled.
+    static final int THRESHOLD = 1000;
+    // Maximum number of cells (instructions and loadc constants) in a compiled block.
+    static final int MAX_CELLS = 64;
+    // Heat of an address whose block could not be compiled, so it is never tried again.
+    private static final int NEVER = Integer.MIN_VALUE;
+    private static final int MIN_TABLE = 256;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private final Processor cpu;
+    private final int capacity;
+
+    // Tables indexed by the address the block starts at.
+    private int[] heat;
+    private CompiledBlock[] blocks;
+    private int[] steps;
+    private int[] cells;
+    private int[] irAfter;
+    // Memory cells the block reads and writes, for the metrics.
+    private int[] loads;
+    private int[] stores;
+    // Number of compiled blocks covering each cell.
+    private int[] cover;
+
+    private long compiled;
+    private long dropped;
+
+    /**
+     * Creates the JIT tier for a Processor.
+     *
+     * @param cpu
+     *  The Processor whose decoded instructions are compiled.
+     * @param capacity
+     *  The capacity of the memory the Processor executes from.
+     */
+    BlockCompiler(Processor cpu, int capacity) {
+        this.cpu = cpu;
+        this.capacity = capacity;
+        int size = Math.min(capacity, MIN_TABLE);
+        heat = new int[size];
+        blocks = new CompiledBlock[size];
+        steps = new int[size];
+        cells = new int[size];
+        irAfter = new int[size];
+        loads = new int[size];
+        stores = new int[size];
+        cover = new int[size];
+    }
+
+    /**
+     * Gets the compiled block starting at the address, counting the visit and compiling the block
+     * when the address just got hot.
+     *
+     * @param address
+     *  The address execution is about to start at.
+     * @return
+     *  The compiled block or <code>null</code> if the block is not (yet) compiled.
+     */
+    CompiledBlock lookup(int address) {
+        if (address < 0 || address >= capacity) {
+            return null;
+        }
+        if (address >= blocks.length) {
+            grow(address);
+        }
+        CompiledBlock block = blocks[address];
+        if (block == null && heat[address] != NEVER && ++heat[address] >= THRESHOLD) {
+            block = compile(address);
+        }
+        return block;
+    }
+
+    /**
+     * Gets the number of instructions the block at the address executes.
+     */
+    int steps(int address) {
+        return steps[address];
+    }
+
+    /**
+     * Gets the value left in the IR after the block at the address executed.
+     */
+    int irAfter(int address) {
+        return irAfter[address];
+    }
+
+    /**
+     * Gets the number of load instructions in the block at the address.
+     */
+    int loads(int address) {
+        return loads[address];
+    }
+
+    /**
+     * Gets the number of store instructions in the block at the address, a store ends a block so
+     * this is 0 or 1.
+     */
+    int stores(int address) {
+        return stores[address];
+    }
+
+    /**
+     * Drops every compiled block that was compiled from the cell at the address.
+     *
+     * @param address
+     *  The address of the cell that was overwritten.
+     */
+    void invalidate(int address) {
+        if (address < 0 || address >= cover.length || cover[address] == 0) {
+            return;
+        }
+        for (int head = Math.max(0, address - MAX_CELLS + 1); head <= address; head++) {
+            if (blocks[head] != null && head + cells[head] > address) {
+                for (int i = head; i < head + cells[head]; i++) {
+                    cover[i]--;
+                }
+                blocks[head] = null;
+                heat[head] = 0;
+                dropped++;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of blocks compiled since the JIT was enabled.
+     */
+    long getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Gets the number of compiled blocks dropped because their code was overwritten.
+     */
+    long getDropped() {
+        return dropped;
+    }
+
+    private void grow(int address) {
+        int size = Math.min(Math.max(blocks.length * 2, address + 1), capacity);
+        heat = Arrays.copyOf(heat, size);
+        blocks = Arrays.copyOf(blocks, size);
+        steps = Arrays.copyOf(steps, size);
+        cells = Arrays.copyOf(cells, size);
+        irAfter = Arrays.copyOf(irAfter, size);
+        loads = Arrays.copyOf(loads, size);
+        stores = Arrays.copyOf(stores, size);
+        cover = Arrays.copyOf(cover, size);
+    }
+
+    /**
+     * Compiles the block starting at the address, or marks the address so it is never tried again
+     * if not even its first instruction can be compiled.
+     */
+    private CompiledBlock compile(int head) {
+        long[] entries = new long[MAX_CELLS];
+        int count = 0;
+        int reads = 0;
+        int writes = 0;
+        int address = head;
+        while (address - head < MAX_CELLS) {
+            long entry = cpu.entryAt(address);
+            int command = (int) (entry & 0b111100000000) >> 8;
+            if (entry == 0 || !compilable(entry) || (command == 2 && address + 2 - head > MAX_CELLS)) {
+                break;
+            }
+            entries[count++] = entry;
+            address += command == 2 ? 2 : 1;
+            if (command == 1) {
+                reads++;
+            } else if (command == 3) {
+                writes++;
+            }
+            if (command == 3 || command == 15) {
+                break;
+            }
+        }
+        if (count == 0) {
+            heat[head] = NEVER;
+            return null;
+        }
+        CompiledBlock block;
+        try {
+            byte[] bytes = assemble(entries, count, address);
+            Class<?> type = LOOKUP.defineHiddenClass(bytes, true).lookupClass();
+            block = (CompiledBlock) LOOKUP.findConstructor(type, MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            // Fall back to the interpreter for this address.
+            heat[head] = NEVER;
+            return null;
+        }
+        if (address > cover.length) {
+            grow(address - 1);
+        }
+        for (int i = head; i < address; i++) {
+            cover[i]++;
+        }
+        blocks[head] = block;
+        steps[head] = count;
+        cells[head] = address - head;
+        irAfter[head] = (int) (entries[count - 1] >> 32);
+        loads[head] = reads;
+        stores[head] = writes;
+        compiled++;
+        return block;
+    }
+
+    /**
+     * Checks if the compiler can translate the decoded instruction.
+     */
+    private static boolean compilable(long entry) {
+        int command = (int) (entry & 0b111100000000) >> 8;
+        int arg1 = (int) (entry & 0b000011110000) >> 4;
+        int arg2 = (int) (entry & 0b000000001111);
+        return command != 0 && command != 7 && arg1 < 8 && arg2 < 8;
+    }
+
+    // Constant pool entries shared by every generated class.
+    private static final int THIS_CLASS = 2;
+    private static final int OBJECT_CLASS = 4;
+    private static final int BLOCK_INTERFACE = 6;
+    private static final int INIT_NAME = 7;
+    private static final int VOID_DESCRIPTOR = 8;
+    private static final int OBJECT_INIT = 10;
+    private static final int EXECUTE_NAME = 11;
+    private static final int EXECUTE_DESCRIPTOR = 12;
+    private static final int CODE = 13;
+    private static final int MEMORY_READ = 19;
+    private static final int MEMORY_WRITE = 23;
+    private static final int CONSTANTS = 24;
+
+    // Locals of the generated execute method.
+    private static final int REG_ARRAY = 1;
+    private static final int MEMORY = 2;
+    private static final int FIRST_REG = 3;
+    private static final int MASK = FIRST_REG + 8;
+    private static final int NEXT_PC = MASK + 1;
+
+    /**
+     * Writes the class file of a block. The execute method is straight-line code without any
+     * jumps (and/or/not and if are computed branch free), so it needs no stack map frames.
+     */
+    private static byte[] assemble(long[] entries, int count, int fallThrough) throws IOException {
+        Code code = new Code();
+        boolean[] used = new boolean[8];
+        boolean[] written = new boolean[8];
+        for (int i = 0; i < count; i++) {
+            int command = (int) (entries[i] & 0b111100000000) >> 8;
+            int arg1 = (int) (entries[i] & 0b000011110000) >> 4;
+            int arg2 = (int) (entries[i] & 0b000000001111);
+            used[arg1] = true;
+            if (command != 2) {
+                used[arg2] = true;
+            }
+            if (command != 3 && command != 15) {
+                written[arg1] = true;
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            if (used[i]) {
+                code.op(0x2b).op(0x10).op(i).op(0x2e).store(FIRST_REG + i); // reg[i] into a local
+            }
+        }
+        boolean branch = false;
+        for (int i = 0; i < count; i++) {
+            int command = (int) (entries[i] & 0b111100000000) >> 8;
+            int a = FIRST_REG + ((int) (entries[i] & 0b000011110000) >> 4);
+            int b = FIRST_REG + (int) (entries[i] & 0b000000001111);
+            switch (command) {
+                case 1: // load
+                    code.op(0x2c).load(b).op(0xb6).u2(MEMORY_READ).store(a);
+                    break;
+                case 2: // loadc
+                    code.constant((int) (entries[i] >> 32)).store(a);
+                    break;
+                case 3: // store, always the last instruction so a fault leaves the registers untouched
+                    code.op(0x2c).load(a).load(b).op(0xb6).u2(MEMORY_WRITE);
+                    break;
+                case 4:
+                    code.load(a).load(b).op(0x60).store(a); // iadd
+                    break;
+                case 5:
+                    code.load(a).load(b).op(0x68).store(a); // imul
+                    break;
+                case 6:
+                    code.load(a).load(b).op(0x64).store(a); // isub
+                    break;
+                case 8: // and: (a != 0) & (b != 0)
+                    code.load(a).notZero().load(b).notZero().op(0x7e).store(a);
+                    break;
+                case 9: // or: (a | b) != 0
+                    code.load(a).load(b).op(0x80).notZero().store(a);
+                    break;
+                case 10: // not: (b != 0) ^ 1
+                    code.load(b).notZero().op(0x04).op(0x82).store(a);
+                    break;
+                case 11:
+                    code.load(b).op(0x04).op(0x78).store(a); // ishl by 1
+                    break;
+                case 12:
+                    code.load(b).op(0x04).op(0x7a).store(a); // ishr by 1
+                    break;
+                case 13:
+                    code.load(a).load(b).op(0x7e).store(a); // iand
+                    break;
+                case 14:
+                    code.load(a).load(b).op(0x80).store(a); // ior
+                    break;
+                case 15: // if: next = (b & mask) | (fallThrough & ~mask) with mask = -(a != 0)
+                    code.load(a).notZero().op(0x74).store(MASK);
+                    code.load(b).load(MASK).op(0x7e);
+                    code.constant(fallThrough).load(MASK).op(0x02).op(0x82).op(0x7e).op(0x80).store(NEXT_PC);
+                    branch = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Cannot compile command: " + command);
+            }
+        }
+        for (int i = 0; i < 8; i++) {
+            if (written[i]) {
+                code.op(0x2b).op(0x10).op(i).load(FIRST_REG + i).op(0x4f); // local into reg[i]
+            }
+        }
+        if (branch) {
+            code.load(NEXT_PC);
+        } else {
+            code.constant(fallThrough);
+        }
+        code.op(0xac); // ireturn
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(61);
+        out.writeShort(CONSTANTS + code.constants.size());
+        utf8(out, "M1Block");                                   // 1
+        out.writeByte(7); out.writeShort(1);                    // 2
+        utf8(out, "java/lang/Object");                          // 3
+        out.writeByte(7); out.writeShort(3);                    // 4
+        utf8(out, "CompiledBlock");                             // 5
+        out.writeByte(7); out.writeShort(5);                    // 6
+        utf8(out, "<init>");                                    // 7
+        utf8(out, "()V");                                       // 8
+        out.writeByte(12); out.writeShort(7); out.writeShort(8);   // 9
+        out.writeByte(10); out.writeShort(4); out.writeShort(9);   // 10
+        utf8(out, "execute");                                   // 11
+        utf8(out, "([ILMemory;)I");                             // 12
+        utf8(out, "Code");                                      // 13
+        utf8(out, "Memory");                                    // 14
+        out.writeByte(7); out.writeShort(14);                   // 15
+        utf8(out, "read");                                      // 16
+        utf8(out, "(I)I");                                      // 17
+        out.writeByte(12); out.writeShort(16); out.writeShort(17); // 18
+        out.writeByte(10); out.writeShort(15); out.writeShort(18); // 19
+        utf8(out, "write");                                     // 20
+        utf8(out, "(II)V");                                     // 21
+        out.writeByte(12); out.writeShort(20); out.writeShort(21); // 22
+        out.writeByte(10); out.writeShort(15); out.writeShort(22); // 23
+        for (int value : code.constants) {
+            out.writeByte(3);
+            out.writeInt(value);
+        }
+        out.writeShort(0x0031);             // public final super
+        out.writeShort(THIS_CLASS);
+        out.writeShort(OBJECT_CLASS);
+        out.writeShort(1);
+        out.writeShort(BLOCK_INTERFACE);
+        out.writeShort(0);                  // fields
+        out.writeShort(2);                  // methods
+
+        byte[] init = {0x2a, (byte) 0xb7, 0, OBJECT_INIT, (byte) 0xb1}; // aload_0 invokespecial return
+        method(out, INIT_NAME, VOID_DESCRIPTOR, 1, 1, init, init.length);
+        method(out, EXECUTE_NAME, EXECUTE_DESCRIPTOR, 4, NEXT_PC + 1, code.bytes, code.length);
+        out.writeShort(0);                  // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void method(DataOutputStream out, int name, int descriptor, int maxStack, int maxLocals,
+                               byte[] code, int length) throws IOException {
+        out.writeShort(0x0001);             // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(CODE);
+        out.writeInt(12 + length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0);                  // exception table
+        out.writeShort(0);                  // code attributes
+    }
+
+    /**
+     * Growable buffer for the bytecode of the execute method and the integer constants it needs.
+     */
+    private static final class Code {
+        byte[] bytes = new byte[256];
+        int length;
+        final java.util.List<Integer> constants = new java.util.ArrayList<>();
+
+        Code op(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = (byte) value;
+            return this;
+        }
+
+        Code u2(int value) {
+            return op(value >> 8).op(value);
+        }
+
+        Code load(int local) {
+            return op(0x15).op(local); // iload
+        }
+
+        Code store(int local) {
+            return op(0x36).op(local); // istore
+        }
+
+        // Replaces the value on the stack with 1 if it is not 0, otherwise 0: (x | -x) >>> 31.
+        Code notZero() {
+            return op(0x59).op(0x74).op(0x80).op(0x10).op(31).op(0x7c);
+        }
+
+        Code constant(int value) {
+            if (value >= -1 && value <= 5) {
+                return op(0x03 + value); // iconst
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                return op(0x10).op(value); // bipush
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                return op(0x11).u2(value); // sipush
+            }
+            int index = constants.indexOf(value);
+            if (index < 0) {
+                index = constants.size();
+                constants.add(value);
+            }
+            return op(0x13).u2(CONSTANTS + index); // ldc_w
+        }
+    }
+}
@@ -0,0 +1,362 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Model of a branch predictor, trained on the <code>if</code> instructions a {@link Processor}
+ * executes or on a recorded {@link BranchStream}. The model predicts each branch before learning
+ * its outcome and counts the mispredictions of every branch.
+ *
+ * <p>
+ * A predictor is described by a line such as <code>gshare/4096/12</code>, see
+ * {@link #parse(String)}. The direction predictors (static, 1-bit, 2-bit and gshare) are scored on
+ * the direction only, as if the target came from elsewhere. The branch target buffer also has to
+ * give the target of a taken branch, which for an <code>if</code> comes from a register and can
+ * change from one execution to the next. All state lives in primitive tables indexed by the low
+ * bits of the PC.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public abstract class BranchPredictor {
+
+    private final String description;
+    private long branches;
+    private long mispredictions;
+    private long[] counts = new long[Counters.INITIAL_SIZE];
+    private long[] misses = new long[Counters.INITIAL_SIZE];
+    private long[] taken = new long[Counters.INITIAL_SIZE];
+
+    private BranchPredictor(String description) {
+        this.description = description;
+    }
+
+    /**
+     * Builds a predictor from its description, one of
+     * <pre>
+     *  static                       always predicts not taken
+     *  1bit/entries                 predicts what the branch did last time
+     *  2bit/entries                 saturating 2-bit counters
+     *  gshare/entries/history       2-bit counters indexed by the PC xor the last history outcomes
+     *  btb/entries                  branch target buffer with a 2-bit counter per entry
+     * </pre>
+     * where entries is a power of 2 and history is between 1 and 30.
+     *
+     * @param description
+     *  The kind of predictor and the size of its tables.
+     * @return
+     *  The untrained predictor.
+     * @throws IllegalArgumentException
+     *  Should the description not be valid.
+     */
+    public static BranchPredictor parse(String description) {
+        String[] parts = description.trim().toLowerCase().split("/");
+        String kind = parts[0];
+        int expected = kind.equals("static") ? 1 : kind.equals("gshare") ? 3 : 2;
+        if (parts.length != expected) {
+            throw new IllegalArgumentException("expected static, 1bit/entries, 2bit/entries, gshare/entries/history "
+                                               + "or btb/entries, got " + description);
+        }
+        if (kind.equals("static")) {
+            return new NotTaken();
+        }
+        int entries = number(parts[1], description);
+        if (Integer.bitCount(entries) != 1) {
+            throw new IllegalArgumentException(description + ": the number of entries must be a power of 2");
+        }
+        switch (kind) {
+            case "1bit":
+                return new OneBit(entries);
+            case "2bit":
+                return new GShare(entries, 0);
+            case "gshare":
+                int history = number(parts[2], description);
+                if (history < 1 || history > 30) {
+                    throw new IllegalArgumentException(description + ": the history must be 1 to 30 branches");
+                }
+                return new GShare(entries, history);
+            case "btb":
+                return new TargetBuffer(entries);
+            default:
+                throw new IllegalArgumentException("unknown predictor " + parts[0]);
+        }
+    }
+
+    private static int number(String part, String description) {
+        try {
+            return Integer.parseInt(part);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(description + ": sizes must be numbers");
+        }
+    }
+
+    /**
+     * Predicts a branch, then trains on its outcome.
+     *
+     * @param pc
+     *  The address of the <code>if</code>.
+     * @param jumped
+     *  <code>true</code> if its condition held.
+     * @param target
+     *  The address it jumped to when taken.
+     * @return
+     *  <code>true</code> if the prediction was right.
+     */
+    abstract boolean predict(int pc, boolean jumped, int target);
+
+    /**
+     * Forgets everything the tables learned.
+     */
+    abstract void clear();
+
+    /**
+     * Adds an executed branch.
+     *
+     * @param pc
+     *  The address of the <code>if</code>.
+     * @param jumped
+     *  <code>true</code> if its condition held.
+     * @param target
+     *  The address it jumped to when taken.
+     */
+    void branch(int pc, boolean jumped, int target) {
+        if (pc >= counts.length) {
+            grow(pc);
+        }
+        branches++;
+        counts[pc]++;
+        if (jumped) {
+            taken[pc]++;
+        }
+        if (!predict(pc, jumped, target)) {
+            mispredictions++;
+            misses[pc]++;
+        }
+    }
+
+    private void grow(int pc) {
+        counts = Counters.cover(counts, pc);
+        misses = Counters.cover(misses, pc);
+        taken = Counters.cover(taken, pc);
+    }
+
+    /**
+     * Gets the number of branches predicted.
+     *
+     * @return
+     *  The executed <code>if</code> instructions.
+     */
+    public long getBranches() {
+        return branches;
+    }
+
+    /**
+     * Gets the number of wrong predictions.
+     *
+     * @return
+     *  The mispredicted branches.
+     */
+    public long getMispredictions() {
+        return mispredictions;
+    }
+
+    /**
+     * Gets the mispredictions of the branch at an address.
+     *
+     * @param address
+     *  The address of the <code>if</code>.
+     * @return
+     *  The times it was mispredicted.
+     */
+    public long getMispredictions(int address) {
+        return address >= 0 && address < misses.length ? misses[address] : 0;
+    }
+
+    /**
+     * Gets the share of branches predicted right.
+     *
+     * @return
+     *  The accuracy between 0 and 1, 0 before the first branch.
+     */
+    public double getAccuracy() {
+        return branches == 0 ? 0 : 1 - (double) mispredictions / branches;
+    }
+
+    /**
+     * Forgets the training and clears the counters.
+     */
+    public void reset() {
+        clear();
+        branches = 0;
+        mispredictions = 0;
+        Arrays.fill(counts, 0);
+        Arrays.fill(misses, 0);
+        Arrays.fill(taken, 0);
+    }
+
+    /**
+     * Formats the accuracy and the branches mispredicted the most, with their source lines when the
+     * program was assembled from text.
+     *
+     * @param program
+     *  The program that ran, or <code>null</code> to leave the source lines out.
+     * @return
+     *  The lines of the report.
+     */
+    public List<String> report(Program program) {
+        List<String> lines = new ArrayList<>();
+        lines.add(toString());
+        List<Integer> addresses = Counters.top(misses);
+        lines.add("mispredictions by branch:" + (addresses.isEmpty() ? " none" : ""));
+        for (int address : addresses) {
+            lines.add(String.format("  %6s %-11s %10d of %10d, %6.2f%% right, %6.2f%% taken", Memory.getHex(address),
+                                    Counters.line(program, address),
+                                    misses[address], counts[address], 100 - 100.0 * misses[address] / counts[address],
+                                    100.0 * taken[address] / counts[address]));
+        }
+        return lines;
+    }
+
+    /**
+     * Describes the predictor and sums up how it did.
+     *
+     * @return
+     *  The description it was parsed from, the branches, mispredictions and accuracy.
+     */
+    @Override
+    public String toString() {
+        return String.format("%-16s %d branches, %d mispredicted, %.2f%% right", description, branches, mispredictions,
+                             100 * getAccuracy());
+    }
+
+    /**
+     * Always predicts not taken, what a pipeline does without a predictor.
+     */
+    private static final class NotTaken extends BranchPredictor {
+
+        private NotTaken() {
+            super("static");
+        }
+
+        @Override
+        boolean predict(int pc, boolean jumped, int target) {
+            return !jumped;
+        }
+
+        @Override
+        void clear() {
+        }
+    }
+
+    /**
+     * Predicts that a branch does what it did the last time.
+     */
+    private static final class OneBit extends BranchPredictor {
+
+        private final boolean[] last;
+
+        private OneBit(int entries) {
+            super("1bit/" + entries);
+            last = new boolean[entries];
+        }
+
+        @Override
+        boolean predict(int pc, boolean jumped, int target) {
+            int index = pc & (last.length - 1);
+            boolean right = last[index] == jumped;
+            last[index] = jumped;
+            return right;
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(last, false);
+        }
+    }
+
+    /**
+     * Saturating 2-bit counters, taken from 2 up, indexed by the PC xor the global history of the
+     * last outcomes. Without history this is the classic 2-bit predictor.
+     */
+    private static final class GShare extends BranchPredictor {
+
+        private final byte[] counters;
+        private final int historyMask;
+        private int history;
+
+        private GShare(int entries, int historyBits) {
+            super(historyBits == 0 ? "2bit/" + entries : "gshare/" + entries + "/" + historyBits);
+            counters = new byte[entries];
+            historyMask = (1 << historyBits) - 1;
+            clear();
+        }
+
+        @Override
+        boolean predict(int pc, boolean jumped, int target) {
+            int index = (pc ^ history) & (counters.length - 1);
+            int counter = counters[index];
+            boolean right = counter >= 2 == jumped;
+            counters[index] = (byte) (jumped ? Math.min(counter + 1, 3) : Math.max(counter - 1, 0));
+            history = (history << 1 | (jumped ? 1 : 0)) & historyMask;
+            return right;
+        }
+
+        @Override
+        void clear() {
+            // Weakly not taken.
+            Arrays.fill(counters, (byte) 1);
+            history = 0;
+        }
+    }
+
+    /**
+     * Direct-mapped branch target buffer: taken branches are entered with their target and a 2-bit
+     * counter. A branch is predicted taken to the stored target when it hits an entry whose counter
+     * is 2 or more, and not taken otherwise. The prediction is right when the next PC is.
+     */
+    private static final class TargetBuffer extends BranchPredictor {
+
+        // PC of the branch held by each entry, -1 for an empty one.
+        private final int[] tags;
+        private final int[] targets;
+        private final byte[] counters;
+
+        private TargetBuffer(int entries) {
+            super("btb/" + entries);
+            tags = new int[entries];
+            targets = new int[entries];
+            counters = new byte[entries];
+            clear();
+        }
+
+        @Override
+        boolean predict(int pc, boolean jumped, int target) {
+            int index = pc & (tags.length - 1);
+            boolean hit = tags[index] == pc;
+            boolean right = hit && counters[index] >= 2 ? jumped && targets[index] == target : !jumped;
+            if (jumped) {
+                if (!hit) {
+                    // Enter the branch as weakly taken.
+                    tags[index] = pc;
+                    counters[index] = 2;
+                } else if (counters[index] < 3) {
+                    counters[index]++;
+                }
+                targets[index] = target;
+            } else if (hit && counters[index] > 0) {
+                counters[index]--;
+            }
+            return right;
+        }
+
+        @Override
+        void clear() {
+            Arrays.fill(tags, -1);
+            Arrays.fill(targets, 0);
+            Arrays.fill(counters, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The <code>if</code> instructions of a run in execution order, recorded by a {@link Processor}
+ * or read back from a trace, so that {@link BranchPredictor}s can be tried on them without running
+ * the program again. Each branch takes 8 bytes: its address and where it went, taken branches have
+ * their bit set in a bitmap.
+ *
+ * <p>
+ * A stream is only appended to while it is recorded. Once complete, {@link #sweep(List)} replays
+ * it into many predictors at once, each on its own thread of the common {@link
+ * java.util.concurrent.ForkJoinPool}.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class BranchStream {
+
+    private static final int INITIAL_SIZE = 1 << 10;
+
+    private int[] pcs = new int[INITIAL_SIZE];
+    // Address of the next instruction, the target of a taken branch.
+    private int[] nexts = new int[INITIAL_SIZE];
+    private long[] taken = new long[INITIAL_SIZE / 64];
+    private int size;
+
+    /**
+     * Reads the branches of a trace. Whether an <code>if</code> jumped is recorded with it, the
+     * next instruction of the trace is where it went. Traces of version 1 did not record it, an
+     * <code>if</code> of theirs counts as taken when the next instruction is not the one after it.
+     * The stream ends at the last <code>if</code> followed by an instruction.
+     *
+     * @param trace
+     *  The trace to read.
+     * @return
+     *  The branches of the trace.
+     */
+    public static BranchStream read(TraceReader trace) {
+        BranchStream stream = new BranchStream();
+        boolean recorded = trace.getVersion() >= 2;
+        for (long index = trace.getFirst(); index + 1 < trace.getEnd(); index++) {
+            // A loadc leaves its constant in IR, but it writes a register and an if does not.
+            if ((trace.getIR(index) & 0b111100000000) == 0xF00 && trace.getTarget(index) == UndoLog.NONE) {
+                int pc = trace.getPC(index);
+                int next = trace.getPC(index + 1);
+                stream.add(pc, recorded ? trace.getValue(index) != 0 : next != pc + 1, next);
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * Appends an executed branch.
+     *
+     * @param pc
+     *  The address of the <code>if</code>.
+     * @param jumped
+     *  <code>true</code> if its condition held.
+     * @param target
+     *  The address it jumped to when taken.
+     * @throws IllegalStateException
+     *  Should the stream already hold the most branches an array can.
+     */
+    void add(int pc, boolean jumped, int target) {
+        if (size == pcs.length) {
+            if (size == Integer.MAX_VALUE - 63) {
+                throw new IllegalStateException("branch stream full at " + size + " branches");
+            }
+            int grown = (int) Math.min((long) size * 2, Integer.MAX_VALUE - 63);
+            pcs = Arrays.copyOf(pcs, grown);
+            nexts = Arrays.copyOf(nexts, grown);
+            taken = Arrays.copyOf(taken, (grown + 63) / 64);
+        }
+        pcs[size] = pc;
+        if (jumped) {
+            nexts[size] = target;
+            taken[size >>> 6] |= 1L << size;
+        } else {
+            nexts[size] = pc + 1;
+        }
+        size++;
+    }
+
+    /**
+     * Gets the number of branches.
+     *
+     * @return
+     *  The branches recorded.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Forgets the branches.
+     */
+    public void clear() {
+        Arrays.fill(taken, 0);
+        size = 0;
+    }
+
+    /**
+     * Feeds every branch of the stream to a predictor, in order.
+     *
+     * @param predictor
+     *  The predictor, trained on top of what it already learned.
+     */
+    public void replay(BranchPredictor predictor) {
+        for (int i = 0; i < size; i++) {
+            predictor.branch(pcs[i], (taken[i >>> 6] & 1L << i) != 0, nexts[i]);
+        }
+    }
+
+    /**
+     * Replays the stream into new predictors in parallel. The stream must not be recorded to
+     * meanwhile.
+     *
+     * @param descriptions
+     *  The predictors to try, as {@link BranchPredictor#parse(String)} takes them.
+     * @return
+     *  The trained predictors, in the order of their descriptions.
+     * @throws IllegalArgumentException
+     *  Should a description not be valid, before anything is replayed.
+     */
+    public List<BranchPredictor> sweep(List<String> descriptions) {
+        List<BranchPredictor> predictors = new ArrayList<>();
+        for (String description : descriptions) {
+            predictors.add(BranchPredictor.parse(description));
+        }
+        predictors.parallelStream().forEach(this::replay);
+        return predictors;
+    }
+
+    /**
+     * Tries branch predictors on a trace. Usage:
+     * <code>java BranchStream directory predictor...</code> with the predictors as
+     * {@link BranchPredictor#parse(String)} takes them.
+     *
+     * @param args
+     *  The directory of the trace and the predictors.
+     * @throws Exception
+     *  If the trace cannot be read.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("usage: java BranchStream directory predictor... with predictors like static, 1bit/1024, "
+                               + "2bit/1024, gshare/4096/12, btb/512");
+            return;
+        }
+        BranchStream stream = read(new TraceReader(Paths.get(args[0])));
+        long start = System.nanoTime();
+        List<BranchPredictor> predictors = stream.sweep(Arrays.asList(args).subList(1, args.length));
+        System.out.println(predictors.stream().map(BranchPredictor::toString).collect(Collectors.joining(System.lineSeparator())));
+        System.out.printf("%d branches, %d predictors in %.1f ms%n", stream.size(), predictors.size(),
+                          (System.nanoTime() - start) / 1e6);
+    }
+}
@@ -0,0 +1,425 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * The breakpoints and watchpoints of a {@link Processor}. A breakpoint stops a run before the
+ * instruction at its address executes, optionally only when a register compares to a value. A
+ * watchpoint stops a run after a load reads or a store writes a cell of its range.
+ *
+ * <p>
+ * Each kind is a bitmap with a bit per address. The Processor marks the predecoded instructions
+ * that may stop, the instructions at a breakpoint and, while cells are watched, the loads or
+ * stores, and only those leave the fast interpreter loop to be checked against the bitmaps. Every
+ * change bumps a version, the Processor predecodes again when it sees a new one.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class Breakpoints {
+
+    private static final String[] OPERATORS = {"==", "!=", "<", "<=", ">", ">="};
+
+    private long[] breaks = new long[0];
+    private long[] reads = new long[0];
+    private long[] writes = new long[0];
+    // Conditions of the conditional breakpoints, by address.
+    private final Map<Integer, Condition> conditions = new TreeMap<>();
+    private boolean watchingReads;
+    private boolean watchingWrites;
+    private int version;
+    private String hit = "";
+
+    /**
+     * A register compared to a value.
+     */
+    private static final class Condition {
+
+        private final int register;
+        private final int operator;
+        private final int value;
+
+        private Condition(int register, int operator, int value) {
+            this.register = register;
+            this.operator = operator;
+            this.value = value;
+        }
+
+        private boolean holds(int[] reg) {
+            int left = reg[register];
+            switch (operator) {
+                case 0:
+                    return left == value;
+                case 1:
+                    return left != value;
+                case 2:
+                    return left < value;
+                case 3:
+                    return left <= value;
+                case 4:
+                    return left > value;
+                default:
+                    return left >= value;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "r" + register + " " + OPERATORS[operator] + " " + value;
+        }
+    }
+
+    /**
+     * Adds a breakpoint, replacing the condition of one already at the address.
+     *
+     * @param address
+     *  The address of the instruction to stop at.
+     */
+    public void addBreakpoint(int address) {
+        breaks = set(breaks, address, address);
+        conditions.remove(address);
+        version++;
+    }
+
+    /**
+     * Adds a breakpoint that only stops when a register compares to a value.
+     *
+     * @param address
+     *  The address of the instruction to stop at.
+     * @param register
+     *  The register compared, 0-7.
+     * @param operator
+     *  One of <code>== != &lt; &lt;= &gt; &gt;=</code>, the register being on the left.
+     * @param value
+     *  The value it is compared to.
+     * @throws IllegalArgumentException
+     *  Should the register or the operator not be valid.
+     */
+    public void addBreakpoint(int address, int register, String operator, int value) {
+        int index = Arrays.asList(OPERATORS).indexOf(operator);
+        if (register < 0 || register > 7 || index < 0) {
+            throw new IllegalArgumentException("expected a register 0-7 and one of " + String.join(" ", OPERATORS));
+        }
+        breaks = set(breaks, address, address);
+        conditions.put(address, new Condition(register, index, value));
+        version++;
+    }
+
+    /**
+     * Removes the breakpoint at an address.
+     *
+     * @param address
+     *  The address of the breakpoint.
+     * @return
+     *  <code>false</code> if there was none.
+     */
+    public boolean removeBreakpoint(int address) {
+        if (!isSet(breaks, address)) {
+            return false;
+        }
+        clear(breaks, address, address);
+        conditions.remove(address);
+        version++;
+        return true;
+    }
+
+    /**
+     * Watches a range of cells.
+     *
+     * @param from
+     *  The first cell.
+     * @param to
+     *  The last cell, included.
+     * @param read
+     *  <code>true</code> to stop after a load reads one of the cells.
+     * @param write
+     *  <code>true</code> to stop after a store writes one of the cells.
+     * @throws IllegalArgumentException
+     *  Should the range be empty or negative.
+     */
+    public void watch(int from, int to, boolean read, boolean write) {
+        if (from < 0 || to < from) {
+            throw new IllegalArgumentException("invalid range " + Memory.getHex(from) + "-" + Memory.getHex(to));
+        }
+        if (read) {
+            reads = set(reads, from, to);
+            watchingReads = true;
+        }
+        if (write) {
+            writes = set(writes, from, to);
+            watchingWrites = true;
+        }
+        version++;
+    }
+
+    /**
+     * Stops watching a range of cells, for reads and writes.
+     *
+     * @param from
+     *  The first cell.
+     * @param to
+     *  The last cell, included.
+     */
+    public void unwatch(int from, int to) {
+        clear(reads, from, to);
+        clear(writes, from, to);
+        watchingReads = any(reads);
+        watchingWrites = any(writes);
+        version++;
+    }
+
+    /**
+     * Removes every breakpoint and watchpoint.
+     */
+    public void clear() {
+        breaks = new long[0];
+        reads = new long[0];
+        writes = new long[0];
+        conditions.clear();
+        watchingReads = false;
+        watchingWrites = false;
+        version++;
+    }
+
+    /**
+     * Tells whether nothing can stop a run.
+     *
+     * @return
+     *  <code>true</code> without breakpoints and watchpoints.
+     */
+    public boolean isEmpty() {
+        return !watchingReads && !watchingWrites && !any(breaks);
+    }
+
+    private static long[] set(long[] bits, int from, int to) {
+        if (to >> 6 >= bits.length) {
+            bits = Arrays.copyOf(bits, Math.max((to >> 6) + 1, bits.length * 2));
+        }
+        for (int address = from; address <= to; address++) {
+            bits[address >> 6] |= 1L << address;
+        }
+        return bits;
+    }
+
+    private static void clear(long[] bits, int from, int to) {
+        for (int address = Math.max(from, 0); address <= to && address >> 6 < bits.length; address++) {
+            bits[address >> 6] &= ~(1L << address);
+        }
+    }
+
+    private static boolean isSet(long[] bits, int address) {
+        return address >= 0 && address >> 6 < bits.length && (bits[address >> 6] & 1L << address) != 0;
+    }
+
+    private static boolean any(long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the version of the breakpoints, bumped by every change.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Tells whether an instruction has to be checked before or after it executes.
+     *
+     * @param address
+     *  The address of the instruction.
+     * @param command
+     *  Its opcode.
+     */
+    boolean traps(int address, int command) {
+        return isSet(breaks, address) || command == 1 && watchingReads || command == 3 && watchingWrites;
+    }
+
+    /**
+     * Tells whether a breakpoint lies in a range of addresses, so the instructions there must
+     * not be fused.
+     */
+    boolean breaksIn(int from, int to) {
+        for (int address = from; address <= to; address++) {
+            if (isSet(breaks, address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the breakpoint at an instruction about to execute, and remembers the hit.
+     *
+     * @param pc
+     *  The address of the instruction.
+     * @param reg
+     *  The registers, for the condition.
+     * @return
+     *  <code>true</code> if the run must stop.
+     */
+    boolean stopsAt(int pc, int[] reg) {
+        if (!isSet(breaks, pc)) {
+            return false;
+        }
+        Condition condition = conditions.get(pc);
+        if (condition != null && !condition.holds(reg)) {
+            return false;
+        }
+        hit = "breakpoint at " + Memory.getHex(pc) + (condition != null ? " with " + condition : "");
+        return true;
+    }
+
+    /**
+     * Checks the watchpoints of a cell a load or store accessed, and remembers the hit.
+     *
+     * @param pc
+     *  The address of the load or store.
+     * @param address
+     *  The address of the cell.
+     * @param write
+     *  <code>true</code> for a store.
+     * @return
+     *  <code>true</code> if the run must stop.
+     */
+    boolean stopsAfter(int pc, int address, boolean write) {
+        if (!isSet(write ? writes : reads, address)) {
+            return false;
+        }
+        hit = (write ? "write of cell " : "read of cell ") + Memory.getHex(address) + " by the instruction at "
+              + Memory.getHex(pc);
+        return true;
+    }
+
+    /**
+     * Describes the breakpoint or watchpoint that stopped the last run stopped by one.
+     *
+     * @return
+     *  What was hit, empty before the first hit.
+     */
+    public String getHit() {
+        return hit;
+    }
+
+    /**
+     * Applies a command of the console, see {@link #usage()}. Addresses are in hexadecimal like in
+     * the memory dumps, the value of a condition in decimal or in hexadecimal with 0x.
+     *
+     * @param command
+     *  The command, starting with <code>break</code> or <code>watch</code>.
+     * @return
+     *  What was done, to show to the user.
+     * @throws IllegalArgumentException
+     *  Should the command not be valid.
+     */
+    public String edit(String command) {
+        String[] words = command.trim().split("\\s+");
+        try {
+            if (words[0].equals("break") && words.length == 2) {
+                int address = address(words[1]);
+                addBreakpoint(address);
+                return "breakpoint at " + Memory.getHex(address);
+            } else if (words[0].equals("break") && words.length == 5 && words[2].matches("[rR][0-7]")) {
+                int address = address(words[1]);
+                addBreakpoint(address, words[2].charAt(1) - '0', words[3], Integer.decode(words[4]));
+                return "breakpoint at " + Memory.getHex(address) + " when " + conditions.get(address);
+            } else if (words[0].equals("watch") && words.length == 3 && words[1].matches("read|write|access")) {
+                int[] range = range(words[2]);
+                watch(range[0], range[1], !words[1].equals("write"), !words[1].equals("read"));
+                return "watching " + (words[1].equals("access") ? "accesses" : words[1] + "s") + " of " + words[2];
+            } else if (words.length == 3 && words[1].equals("delete") && words[2].equals("all")) {
+                if (words[0].equals("break")) {
+                    for (int address : addresses(breaks)) {
+                        removeBreakpoint(address);
+                    }
+                } else {
+                    unwatch(0, Integer.MAX_VALUE);
+                }
+                return "deleted";
+            } else if (words[0].equals("break") && words.length == 3 && words[1].equals("delete")) {
+                return removeBreakpoint(address(words[2])) ? "deleted" : "no breakpoint at " + words[2];
+            } else if (words[0].equals("watch") && words.length == 3 && words[1].equals("delete")) {
+                int[] range = range(words[2]);
+                unwatch(range[0], range[1]);
+                return "deleted";
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid number in " + command.trim());
+        }
+        throw new IllegalArgumentException(usage());
+    }
+
+    /**
+     * Describes the commands {@link #edit(String)} takes.
+     *
+     * @return
+     *  The syntax of the commands.
+     */
+    public static String usage() {
+        return "usage: break X [rN op value] | break delete X|all | watch read|write|access X[-Y] | watch delete X[-Y]|all";
+    }
+
+    private static int address(String text) {
+        int address = Integer.parseInt(text.startsWith("0x") ? text.substring(2) : text, 16);
+        if (address < 0) {
+            throw new NumberFormatException(text);
+        }
+        return address;
+    }
+
+    private static int[] range(String text) {
+        int dash = text.indexOf('-');
+        int from = address(dash < 0 ? text : text.substring(0, dash));
+        return new int[] {from, dash < 0 ? from : address(text.substring(dash + 1))};
+    }
+
+    private static List<Integer> addresses(long[] bits) {
+        List<Integer> addresses = new ArrayList<>();
+        for (int word = 0; word < bits.length; word++) {
+            for (long rest = bits[word]; rest != 0; rest &= rest - 1) {
+                addresses.add(word << 6 | Long.numberOfTrailingZeros(rest));
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Lists the breakpoints and watchpoints, consecutive watched cells as ranges.
+     *
+     * @return
+     *  A line per breakpoint and per range of watched cells.
+     */
+    public List<String> list() {
+        List<String> lines = new ArrayList<>();
+        for (int address : addresses(breaks)) {
+            Condition condition = conditions.get(address);
+            lines.add("break " + Memory.getHex(address) + (condition != null ? " " + condition : ""));
+        }
+        TreeSet<Integer> watched = new TreeSet<>(addresses(reads));
+        watched.addAll(addresses(writes));
+        List<Integer> cells = new ArrayList<>(watched);
+        for (int i = 0; i < cells.size(); ) {
+            int from = cells.get(i);
+            boolean r = isSet(reads, from);
+            boolean w = isSet(writes, from);
+            int to = from;
+            while (i + 1 < cells.size() && cells.get(i + 1) == to + 1 && isSet(reads, to + 1) == r && isSet(writes, to + 1) == w) {
+                to = cells.get(++i);
+            }
+            i++;
+            lines.add("watch " + (r && w ? "access " : r ? "read " : "write ") + Memory.getHex(from)
+                      + (to > from ? "-" + Memory.getHex(to) : ""));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,324 @@
+import java.util.Arrays;
+
+/**
+ * One level of a simulated cache, see {@link CacheHierarchy}. The cache only tracks which lines
+ * it holds, the values always come from {@link Memory}. Sizes are counted in memory cells.
+ *
+ * <p>
+ * The cache is set associative: a line can go in any way of the set selected by its address.
+ * The tags, LRU stamps and dirty bits are flat arrays indexed by set * ways + way, so a lookup is
+ * a scan of a few ints. Write-back caches allocate a line on a write miss and write dirty lines
+ * to the next level when they are evicted, write-through caches pass every write on and do not
+ * allocate on a write miss.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class Cache {
+
+    /**
+     * How the line to evict from a full set is chosen.
+     */
+    public enum Replacement {
+        /** The line used least recently. */
+        LRU,
+        /** Any line, chosen by a pseudo-random generator. */
+        RANDOM
+    }
+
+    // Tag of an empty way, no line address is negative.
+    private static final int EMPTY = -1;
+
+    private final String name;
+    private final int lineBits;
+    private final int sets;
+    private final int ways;
+    private final boolean lru;
+    private final boolean writeBack;
+    private final Cache next;
+    // Line address held by each way, or EMPTY.
+    private final int[] tags;
+    // Last use of each way, for LRU.
+    private final long[] stamps;
+    private final boolean[] dirty;
+    private long clock;
+    // Way of the last line accessed, which most fetches hit again.
+    private int last;
+    private int random = 0x2545F491;
+
+    private long reads;
+    private long readMisses;
+    private long writes;
+    private long writeMisses;
+    private long writeBacks;
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param name
+     *  The name of the level in reports, such as L1D.
+     * @param cells
+     *  The capacity in memory cells, a power of 2.
+     * @param lineCells
+     *  The cells in a line, a power of 2.
+     * @param ways
+     *  The associativity, 1 for a direct-mapped cache.
+     * @param replacement
+     *  How lines are evicted.
+     * @param writeBack
+     *  <code>true</code> for a write-back cache, <code>false</code> for write-through.
+     * @param next
+     *  The next level, <code>null</code> if misses go to memory.
+     * @throws IllegalArgumentException
+     *  Should the sizes not be powers of 2 or not make at least one set.
+     */
+    public Cache(String name, int cells, int lineCells, int ways, Replacement replacement, boolean writeBack, Cache next) {
+        if (Integer.bitCount(cells) != 1 || Integer.bitCount(lineCells) != 1 || ways <= 0 || cells < lineCells * ways
+                || cells / lineCells % ways != 0) {
+            throw new IllegalArgumentException(name + ": invalid geometry " + cells + " cells, lines of " + lineCells
+                                               + ", " + ways + " ways");
+        }
+        this.name = name;
+        this.lineBits = Integer.numberOfTrailingZeros(lineCells);
+        this.ways = ways;
+        this.sets = cells / lineCells / ways;
+        if (Integer.bitCount(sets) != 1) {
+            throw new IllegalArgumentException(name + ": " + sets + " sets, the number of sets must be a power of 2");
+        }
+        this.lru = replacement == Replacement.LRU;
+        this.writeBack = writeBack;
+        this.next = next;
+        tags = new int[sets * ways];
+        stamps = new long[tags.length];
+        dirty = new boolean[tags.length];
+        Arrays.fill(tags, EMPTY);
+    }
+
+    /**
+     * Reads or writes a cell through the cache, going to the next levels on a miss.
+     *
+     * @param address
+     *  The address of the cell, not negative.
+     * @param write
+     *  <code>true</code> for a write.
+     * @return
+     *  <code>true</code> on a hit.
+     */
+    boolean access(int address, boolean write) {
+        int line = address >>> lineBits;
+        if (tags[last] == line && (!write || writeBack)) {
+            // Already the most recently used line of its set, its stamp can stay. Kept apart from
+            // the set lookup so that this path is small enough to be inlined into the caller.
+            if (write) {
+                writes++;
+                dirty[last] = true;
+            } else {
+                reads++;
+            }
+            return true;
+        }
+        return lookup(address, line, write);
+    }
+
+    /**
+     * Looks the line up in its set, after the last line accessed did not match.
+     */
+    private boolean lookup(int address, int line, boolean write) {
+        if (write) {
+            writes++;
+        } else {
+            reads++;
+        }
+        int base = (line & (sets - 1)) * ways;
+        clock++;
+        for (int way = base; way < base + ways; way++) {
+            if (tags[way] == line) {
+                stamps[way] = clock;
+                last = way;
+                if (write) {
+                    if (writeBack) {
+                        dirty[way] = true;
+                    } else if (next != null) {
+                        next.access(address, true);
+                    }
+                }
+                return true;
+            }
+        }
+        if (write) {
+            writeMisses++;
+            if (!writeBack) {
+                // No allocation on a write miss, the write goes on to the next level.
+                if (next != null) {
+                    next.access(address, true);
+                }
+                return false;
+            }
+        } else {
+            readMisses++;
+        }
+        int victim = victim(base);
+        if (dirty[victim]) {
+            writeBacks++;
+            if (next != null) {
+                next.access(tags[victim] << lineBits, true);
+            }
+        }
+        if (next != null) {
+            next.access(line << lineBits, false);
+        }
+        tags[victim] = line;
+        stamps[victim] = clock;
+        dirty[victim] = write;
+        last = victim;
+        return false;
+    }
+
+    /**
+     * Chooses the way to fill in a set: an empty one, else by the replacement policy.
+     */
+    private int victim(int base) {
+        int victim = base;
+        for (int way = base; way < base + ways; way++) {
+            if (tags[way] == EMPTY) {
+                return way;
+            }
+            if (stamps[way] < stamps[victim]) {
+                victim = way;
+            }
+        }
+        if (!lru) {
+            random ^= random << 13;
+            random ^= random >>> 17;
+            random ^= random << 5;
+            victim = base + (random & 0x7FFFFFFF) % ways;
+        }
+        return victim;
+    }
+
+    /**
+     * Empties the cache and clears its counters.
+     */
+    public void reset() {
+        Arrays.fill(tags, EMPTY);
+        Arrays.fill(stamps, 0);
+        Arrays.fill(dirty, false);
+        clock = 0;
+        last = 0;
+        reads = 0;
+        readMisses = 0;
+        writes = 0;
+        writeMisses = 0;
+        writeBacks = 0;
+    }
+
+    /**
+     * Gets the name of the level.
+     *
+     * @return
+     *  The name given to the constructor.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the level misses go to.
+     *
+     * @return
+     *  The next level, <code>null</code> for memory.
+     */
+    public Cache getNext() {
+        return next;
+    }
+
+    /**
+     * Gets the number of reads and writes.
+     *
+     * @return
+     *  The accesses to this level.
+     */
+    public long getAccesses() {
+        return reads + writes;
+    }
+
+    /**
+     * Gets the number of reads and writes that missed.
+     *
+     * @return
+     *  The misses of this level.
+     */
+    public long getMisses() {
+        return readMisses + writeMisses;
+    }
+
+    /**
+     * Gets the number of reads, line fills of the level above included.
+     *
+     * @return
+     *  The reads.
+     */
+    public long getReads() {
+        return reads;
+    }
+
+    /**
+     * Gets the number of reads that missed.
+     *
+     * @return
+     *  The read misses.
+     */
+    public long getReadMisses() {
+        return readMisses;
+    }
+
+    /**
+     * Gets the number of writes, write-backs of the level above included.
+     *
+     * @return
+     *  The writes.
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Gets the number of writes that missed.
+     *
+     * @return
+     *  The write misses.
+     */
+    public long getWriteMisses() {
+        return writeMisses;
+    }
+
+    /**
+     * Gets the number of dirty lines written to the next level when they were evicted.
+     *
+     * @return
+     *  The write-backs, always 0 for a write-through cache.
+     */
+    public long getWriteBacks() {
+        return writeBacks;
+    }
+
+    /**
+     * Gets the share of accesses that hit.
+     *
+     * @return
+     *  The hit rate between 0 and 1, 0 before the first access.
+     */
+    public double getHitRate() {
+        long accesses = getAccesses();
+        return accesses == 0 ? 0 : 1 - (double) getMisses() / accesses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d cells, %d-cell lines, %d-way, %s, %s", name, sets * ways << lineBits, 1 << lineBits,
+                             ways, lru ? "LRU" : "random", writeBack ? "write-back" : "write-through");
+    }
+}
@@ -0,0 +1,215 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cache levels a {@link Processor} fetches instructions and reads and writes data through, to see
+ * how cache-friendly the access pattern of a program is. The first level is either unified or
+ * split into an instruction cache and a data cache, the levels after it are unified. Besides the
+ * counters of every level, the hierarchy counts the first-level misses of every instruction. Only
+ * misses are counted by instruction, so a hit costs no more than the lookup in the first level.
+ *
+ * <p>
+ * A hierarchy is described by a line such as <code>split 1024/8/2/lru/wb 16384/16/8/lru/wb</code>:
+ * an optional <code>split</code>, then one level after the other as
+ * <code>cells/line cells/ways[/lru|random][/wb|wt]</code>. Replacement defaults to LRU and the write
+ * policy to write-back.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class CacheHierarchy {
+
+    // The same cache when the first level is unified.
+    private final Cache instructions;
+    private final Cache data;
+    // Every level, first level first.
+    private final List<Cache> levels;
+    // First-level misses of each instruction, fetches and data together.
+    private long[] misses = new long[Counters.INITIAL_SIZE];
+
+    /**
+     * Creates a hierarchy from its first-level caches.
+     *
+     * @param instructions
+     *  The cache instructions are fetched through.
+     * @param data
+     *  The cache loads and stores go through, the same one as <code>instructions</code> for a
+     *  unified first level. Both lead to the same next levels.
+     */
+    public CacheHierarchy(Cache instructions, Cache data) {
+        this.instructions = instructions;
+        this.data = data;
+        levels = new ArrayList<>();
+        if (instructions != data) {
+            levels.add(instructions);
+        }
+        for (Cache level = data; level != null; level = level.getNext()) {
+            levels.add(level);
+        }
+    }
+
+    /**
+     * Builds a hierarchy from its description, see the class comment.
+     *
+     * @param description
+     *  The levels, first level first.
+     * @return
+     *  The empty hierarchy.
+     * @throws IllegalArgumentException
+     *  Should the description not be valid.
+     */
+    public static CacheHierarchy parse(String description) {
+        List<String> specs = new ArrayList<>(Arrays.asList(description.trim().split("\\s+")));
+        boolean split = !specs.isEmpty() && specs.get(0).equalsIgnoreCase("split");
+        if (split) {
+            specs.remove(0);
+        }
+        if (specs.isEmpty() || specs.get(0).isEmpty()) {
+            throw new IllegalArgumentException("No cache level given");
+        }
+        Cache next = null;
+        for (int level = specs.size() - 1; level > 0; level--) {
+            next = level("L" + (level + 1), specs.get(level), next);
+        }
+        if (split) {
+            return new CacheHierarchy(level("L1I", specs.get(0), next), level("L1D", specs.get(0), next));
+        }
+        Cache first = level("L1", specs.get(0), next);
+        return new CacheHierarchy(first, first);
+    }
+
+    private static Cache level(String name, String spec, Cache next) {
+        String[] parts = spec.split("/");
+        if (parts.length < 3 || parts.length > 5) {
+            throw new IllegalArgumentException(name + ": expected cells/line cells/ways[/lru|random][/wb|wt], got " + spec);
+        }
+        Cache.Replacement replacement = Cache.Replacement.LRU;
+        boolean writeBack = true;
+        for (int i = 3; i < parts.length; i++) {
+            String option = parts[i].toLowerCase();
+            if (option.equals("lru") || option.equals("random")) {
+                replacement = Cache.Replacement.valueOf(option.toUpperCase());
+            } else if (option.equals("wb") || option.equals("wt")) {
+                writeBack = option.equals("wb");
+            } else {
+                throw new IllegalArgumentException(name + ": unknown option " + parts[i]);
+            }
+        }
+        try {
+            return new Cache(name, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]),
+                             replacement, writeBack, next);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + ": sizes must be numbers, got " + spec);
+        }
+    }
+
+    /**
+     * Fetches the words of an instruction.
+     *
+     * @param pc
+     *  The address of the instruction.
+     * @param words
+     *  2 for a loadc and its constant, 1 otherwise.
+     */
+    void fetch(int pc, int words) {
+        if (!instructions.access(pc, false)) {
+            missed(pc);
+        }
+        if (words == 2 && !instructions.access(pc + 1, false)) {
+            missed(pc);
+        }
+    }
+
+    /**
+     * Reads or writes a cell for an instruction, after {@link #fetch(int, int)}.
+     *
+     * @param pc
+     *  The address of the load or store.
+     * @param address
+     *  The address of the cell.
+     * @param write
+     *  <code>true</code> for a store.
+     */
+    void access(int pc, int address, boolean write) {
+        if (!data.access(address, write)) {
+            missed(pc);
+        }
+    }
+
+    /**
+     * Counts a first-level miss of an instruction.
+     */
+    private void missed(int pc) {
+        if (pc >= misses.length) {
+            misses = Counters.cover(misses, pc);
+        }
+        misses[pc]++;
+    }
+
+    /**
+     * Gets the levels of the hierarchy.
+     *
+     * @return
+     *  The caches, first level first and the instruction cache before the data cache.
+     */
+    public List<Cache> getLevels() {
+        return levels;
+    }
+
+    /**
+     * Gets the first-level misses of the instruction at an address.
+     *
+     * @param address
+     *  The address of the instruction.
+     * @return
+     *  The misses of its fetches and of its data access.
+     */
+    public long getMisses(int address) {
+        return address >= 0 && address < misses.length ? misses[address] : 0;
+    }
+
+    /**
+     * Empties every level and clears the counters.
+     */
+    public void reset() {
+        for (Cache level : levels) {
+            level.reset();
+        }
+        Arrays.fill(misses, 0);
+    }
+
+    /**
+     * Formats the hit and miss rates of every level and the instructions that missed the most,
+     * with their source lines when the program was assembled from text.
+     *
+     * @param program
+     *  The program that ran, or <code>null</code> to leave the source lines out.
+     * @return
+     *  The lines of the report.
+     */
+    public List<String> report(Program program) {
+        List<String> lines = new ArrayList<>();
+        for (Cache level : levels) {
+            lines.add(level.toString());
+            lines.add(String.format("  %d accesses, %.2f%% hits: %d reads (%d misses), %d writes (%d misses), %d write-backs",
+                                    level.getAccesses(), 100 * level.getHitRate(), level.getReads(), level.getReadMisses(),
+                                    level.getWrites(), level.getWriteMisses(), level.getWriteBacks()));
+        }
+        long total = 0;
+        for (long count : misses) {
+            total += count;
+        }
+        List<Integer> addresses = Counters.top(misses);
+        lines.add("first-level misses by instruction:" + (addresses.isEmpty() ? " none" : ""));
+        for (int address : addresses) {
+            lines.add(String.format("  %6s %-11s %10d misses, %6.2f%% of first-level misses", Memory.getHex(address),
+                                    Counters.line(program, address),
+                                    misses[address], 100.0 * misses[address] / total));
+        }
+        return lines;
+    }
+}
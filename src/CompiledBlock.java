@@ -0,0 +1,25 @@
+/**
+ * A basic block of Micro-1 instructions that {@link BlockCompiler} translated to JVM bytecode. 
+ * Implemented by the hidden classes the compiler defines at runtime. 
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+interface CompiledBlock {
+
+    /**
+     * Executes every instruction of the block. The registers are read into locals on entry and 
+     * written back before returning, so a fault while reading or writing memory (an 
+     * {@link IndexOutOfBoundsException}) leaves the registers and memory untouched. 
+     * 
+     * @param reg
+     *  The registers of the Processor. 
+     * @param memory
+     *  The memory the block loads from and stores to. 
+     * @return
+     *  The address of the next instruction to execute. 
+     */
+    int execute(int[] reg, Memory memory); 
+}
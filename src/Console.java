@@ -1,5 +1,7 @@
 import java.util.*;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
   Instances of this class represent console user interfaces to a
@@ -18,15 +20,47 @@ public class Console {
 	  Processor of the simulated computer
 	*/
 	private Processor cpu;
+	/**
+	  Program loaded by the last successful load, null before
+	*/
+	private Program program;
+	/**
+	  Assembler for programs split across several files, it keeps the
+	  chunks of the last link so that linking again is incremental
+	*/
+	private final ParallelAssembler linker = new ParallelAssembler();
+	/**
+	  Last snapshot taken or restored, the next snapshot only stores
+	  the pages written since, null before the first one
+	*/
+	private Snapshot snapshot;
+	/**
+	  Number of instructions the run command executes before giving up
+	  on a program that does not halt
+	*/
+	private static final long WATCHDOG = 10_000_000_000L;
 
     /**
        Constructs a memory with specified number of cells,
-       and constructs an associated processor.
+       and constructs an associated processor. Memories with more
+       than DENSE_LIMIT cells only allocate the pages that are used.
 
        @param cap  the sepcified amount of memory
     */
 	public Console(int cap) {
-		memory = new Memory(cap);
+		this(cap, cap > Memory.DENSE_LIMIT);
+	}
+
+    /**
+       Constructs a memory with specified number of cells,
+       and constructs an associated processor.
+
+       @param cap  the sepcified amount of memory
+       @param paged  true to allocate pages of memory as they are
+                     written instead of all of the memory at once
+    */
+	public Console(int cap, boolean paged) {
+		memory = paged ? new PagedMemory(cap) : new Memory(cap);
 		cpu = new Processor();
 		cpu.setMemory(memory);
 	}
@@ -46,53 +80,66 @@ public class Console {
     */
 	public void load(String fName) {
 		try {
-			boolean haltEncountered = false; 
-			File f = new File(fName);
-			Scanner scan  = new Scanner(f);
-			int address = 0;
-			String[] argLine = null; 
-			String translation = null; 
-			cpu.setPC(0);
-			if (Assembler.checkFile(f)) {
-				while (scan.hasNext()) {
-					argLine = scan.nextLine().split("[ ]+"); 
-					// System.out.println(Arrays.toString(argLine));
-					if (argLine.length == 1 && argLine[0].equalsIgnoreCase("halt")) {
-						translation = "00000000"; 
-						haltEncountered = true;  
-					} else if (haltEncountered) {
-						// Treat as hexadecimal constants after the first halt statement is encountered. 
-						while (scan.hasNext()) {
-							translation = scan.nextLine(); 
-							// Handles case where another halt statement is encountered. 
-							if (translation.equalsIgnoreCase("halt")) {
-								memory.write(address++, 0); 
-							} else {
-								memory.write(address++, Integer.parseInt(translation, 16));  
-							}							
-						}
-						break; 
-					} else if (argLine.length == 3) {
-						translation = Assembler.parseArguments(Assembler.parseCommand(argLine[0]), argLine[1], argLine[2]); 
-					} else if (argLine.length == 1) {
-						translation = Assembler.parseConstant(argLine[0]); 
-					} else {
-						translation = Assembler.parseArguments(Assembler.parseCommand(argLine[0]), argLine[1]);
-					}
+			Program loaded = AssemblyCache.getDefault().load(Paths.get(fName), memory);
+			if (loaded.getMemorySize() > memory.getCapacity()) {
+				System.out.println("warning: program expects " + loaded.getMemorySize() + " cells, memory has " + memory.getCapacity());
+			}
+			program = loaded;
+			cpu.setPC(program.getEntry());
+		} catch (AssemblyException e) {
+			System.out.println(fName + ", " + e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			System.out.println("cannot load " + fName + ": " + e.getMessage());
+		}
+	}
 
-					memory.write(address++, Integer.parseInt(translation, 16)); 
+    /**
+      Assembles the files of a program in parallel, links them into
+      memory starting at address 0 and resets PC to 0. Only the parts
+      of the files that changed since the last link are assembled again.
 
-				}
-			} else {
-				while(scan.hasNext()) {
-					memory.write(address++, scan.nextInt(16));
-				}
+      @param fNames the names of the files, in address order
+    */
+	public void link(String... fNames) {
+		try {
+			List<Path> files = new ArrayList<>();
+			for (String fName : fNames) {
+				files.add(Paths.get(fName));
 			}
-			
-			scan.close(); 
-		} catch(Exception e) {
+			Program linked = linker.assemble(files);
+			linked.load(memory);
+			program = linked;
+			cpu.setPC(program.getEntry());
+			System.out.println(program.getSize() + " words, " + linker.getTranslated() + " chunks assembled, "
+							   + linker.getReused() + " reused");
+		} catch (AssemblyException e) {
 			System.out.println(e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			System.out.println("cannot link: " + e.getMessage());
+		}
+	}
+
+    /**
+      Removes the instructions of the loaded program that cannot change
+      anything, loads the smaller program into memory and resets PC to
+      its entry. The cells freed at the end of the program are cleared.
+    */
+	public void optimize() {
+		if (program == null) {
+			System.out.println("no program loaded");
+			return;
+		}
+		Optimizer.Result result = Optimizer.optimize(program);
+		if (result.getRemoved() > 0) {
+			Program optimized = result.getProgram();
+			optimized.load(memory);
+			for (int i = optimized.getSize(); i < program.getSize() && i < memory.getCapacity(); i++) {
+				memory.write(i, 0);
+			}
+			program = optimized;
+			cpu.setPC(program.getEntry());
 		}
+		System.out.println(result);
 	}
 
     /**
@@ -100,9 +147,36 @@ public class Console {
     */
 	public void help() {
 		System.out.println("load fileName \t loads hex memory image into memory");
-		System.out.println("memory \t\t dumps memory to console");
+		System.out.println("link file... \t assembles the files of a program in parallel and loads them");
+		System.out.println("memory [all] \t dumps cells changed since the last dump (or all cells) to console");
 		System.out.println("registers \t dumps registers to console");
 		System.out.println("step N \t\t executes next N instructions or until halt");
+		System.out.println("run [N] \t executes until halt or until N instructions (default " + WATCHDOG + ") ran");
+		System.out.println("continue [N] \t runs on from a breakpoint or watchpoint, like run");
+		System.out.println("break [X [rN op value]] \t stops before the instruction at X, if rN op value holds, or lists breakpoints and watchpoints");
+		System.out.println("break delete X|all \t removes the breakpoint at X or all of them");
+		System.out.println("watch read|write|access X[-Y] \t stops after a load or store accesses a cell from X to Y");
+		System.out.println("watch delete X[-Y]|all \t stops watching the cells");
+		System.out.println("undo N \t\t keeps the last N instructions so they can be undone, 0 turns it off");
+		System.out.println("back N \t\t undoes the last N instructions");
+		System.out.println("trace dir|off \t records every instruction to trace files in dir, read them with TraceReader");
+		System.out.println("profile on|off|report|reset \t counts instructions, branches and loops, and reports the hottest");
+		System.out.println("pipeline on|noforward|off|report|reset \t counts cycles on a 5-stage pipeline, with or without forwarding");
+		System.out.println("caches levels|off|report|reset \t simulates caches, levels like split 1024/8/2/lru/wb 16384/16/8/random/wt");
+		System.out.println("predict model|off|report|reset \t predicts each if with static, 1bit/N, 2bit/N, gshare/N/history or btb/N");
+		System.out.println("branches on|off|sweep model... \t records the ifs, then tries many predictors on them in parallel");
+		System.out.println("optimize \t removes instructions of the loaded program that change nothing");
+		System.out.println("jit on|off \t compiles hot blocks of the program to JVM bytecode");
+		System.out.println("fusion on|off|report \t fuses common instruction sequences or shows how often they ran");
+		System.out.println("image fileName \t saves the loaded program as a binary .m1 image");
+		System.out.println("export fileName \t saves the loaded program as hex text");
+		System.out.println("snapshot [file] \t saves registers and memory, to a file if given");
+		System.out.println("restore [file] \t restores the last snapshot, or the one in a file");
+		System.out.println("save fileName \t saves memory as an image file");
+		System.out.println("map fileName \t uses an image file as memory, changes are written to the file");
+		System.out.println("pages \t\t displays how much of a paged memory is allocated");
+		System.out.println("metrics \t displays instructions, runs, faults and assembly times counted since start");
+		System.out.println("cache \t\t displays hits and misses of the cache of assembled programs");
 		System.out.println("help \t\t displays this message");
 		System.out.println("quit \t\t terminate console");
 	}
@@ -115,8 +189,8 @@ public class Console {
          4) displays the result
       Commands include quit, help, load (a program from a file),
       memory (display contents of memory), registers (display
-      contents of registers), and step N (execute the next N
-      instructions.
+      contents of registers), step N (execute the next N
+      instructions) and run (execute until halt).
     */
 	public void controlLoop() {
 		System.out.println("type \"help\" for commands");
@@ -130,28 +204,302 @@ public class Console {
 			} else if (cmmd.equals("load")) {
 				load(kbd.next());
 				System.out.println("done");
+			} else if (cmmd.equals("link")) {
+				String files = kbd.nextLine().trim();
+				if (files.isEmpty()) {
+					System.out.println("usage: link file...");
+				} else {
+					link(files.split("\\s+"));
+					System.out.println("done");
+				}
 			} else if (cmmd.equals("memory")) {
-				memory.dump();
+				// Only the cells changed since the last dump, unless all of them are asked for.
+				boolean all = kbd.nextLine().trim().equals("all");
+				if (all) {
+					memory.collectChanges();
+				}
+				for (String line : all ? memory.dump() : memory.dumpChanges()) {
+					System.out.println(line);
+				}
 			} else if (cmmd.equals("registers")) {
 				cpu.dump();
 			} else if (cmmd.equals("step")) {
-				int num;
-				if (!kbd.hasNextInt()) {
-					num = 0;
+				if (!kbd.hasNextLong()) {
 					kbd.nextLine();
 					System.out.println("invalid number of steps");
 				} else {
-					num = kbd.nextInt();
-					boolean halt = false;
-					for(int i = 0; i < num && !halt; i++) {
-						if (!halt) halt = cpu.step();
-						if (halt) {
-							System.out.println("program terminated");
-							break;
+					report(cpu.run(kbd.nextLong()));
+					System.out.println("done");
+				}
+			} else if (cmmd.equals("run") || cmmd.equals("continue")) {
+				long budget = WATCHDOG;
+				if (kbd.hasNextLong()) {
+					budget = kbd.nextLong();
+				}
+				RunResult result = cpu.run(budget);
+				if (result.getReason() == ExitReason.STEP_LIMIT) {
+					System.out.println("watchdog expired after " + result.getSteps() + " steps");
+				} else {
+					report(result);
+				}
+				System.out.println("done");
+			} else if (cmmd.equals("break") || cmmd.equals("watch")) {
+				String args = kbd.nextLine().trim();
+				Breakpoints breakpoints = cpu.getBreakpoints();
+				if (args.isEmpty()) {
+					List<String> lines = breakpoints.list();
+					System.out.println(lines.isEmpty() ? "no breakpoints or watchpoints" : String.join("\n", lines));
+				} else {
+					try {
+						System.out.println(breakpoints.edit(cmmd + " " + args));
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage());
+					}
+				}
+			} else if (cmmd.equals("undo") || cmmd.equals("back")) {
+				if (!kbd.hasNextInt()) {
+					kbd.nextLine();
+					System.out.println("usage: " + cmmd + " N");
+				} else if (cmmd.equals("undo")) {
+					cpu.setUndoDepth(kbd.nextInt());
+					System.out.println("undo depth " + cpu.getUndoDepth());
+				} else if (cpu.getUndoDepth() == 0) {
+					kbd.nextLine();
+					System.out.println("nothing recorded, turn recording on with undo N");
+				} else {
+					System.out.println(cpu.stepBack(kbd.nextInt()) + " instructions undone");
+				}
+			} else if (cmmd.equals("trace")) {
+				String dir = kbd.next();
+				TraceRecorder recorder = cpu.getTrace();
+				cpu.setTrace(null);
+				if (recorder != null) {
+					recorder.close();
+					System.out.println(recorder.getRecorded() + " instructions recorded to " + recorder.getDirectory());
+				}
+				if (!dir.equals("off")) {
+					try {
+						cpu.setTrace(new TraceRecorder(Paths.get(dir)));
+						System.out.println("recording to " + dir);
+					} catch (IOException e) {
+						System.out.println(e.getMessage());
+					}
+				}
+			} else if (cmmd.equals("profile")) {
+				String mode = kbd.next();
+				Profiler profiler = cpu.getProfiler();
+				if (mode.equals("on")) {
+					if (profiler == null) {
+						cpu.setProfiler(new Profiler());
+					}
+					System.out.println("profile on");
+				} else if (mode.equals("off")) {
+					cpu.setProfiler(null);
+					System.out.println("profile off");
+				} else if (!mode.equals("report") && !mode.equals("reset")) {
+					System.out.println("usage: profile on|off|report|reset");
+				} else if (profiler == null) {
+					System.out.println("not profiling, turn profiling on with profile on");
+				} else if (mode.equals("reset")) {
+					profiler.reset();
+					System.out.println("done");
+				} else {
+					for (String line : profiler.report(program)) {
+						System.out.println(line);
+					}
+				}
+			} else if (cmmd.equals("pipeline")) {
+				String mode = kbd.next();
+				PipelineModel pipeline = cpu.getPipeline();
+				if (mode.equals("on") || mode.equals("noforward")) {
+					cpu.setPipeline(new PipelineModel(mode.equals("on")));
+					System.out.println("pipeline " + (mode.equals("on") ? "with" : "without") + " forwarding");
+				} else if (mode.equals("off")) {
+					cpu.setPipeline(null);
+					System.out.println("pipeline off");
+				} else if (!mode.equals("report") && !mode.equals("reset")) {
+					System.out.println("usage: pipeline on|noforward|off|report|reset");
+				} else if (pipeline == null) {
+					System.out.println("no pipeline, turn it on with pipeline on");
+				} else if (mode.equals("reset")) {
+					pipeline.reset();
+					System.out.println("done");
+				} else {
+					for (String line : pipeline.report(program)) {
+						System.out.println(line);
+					}
+				}
+			} else if (cmmd.equals("caches")) {
+				String mode = kbd.nextLine().trim();
+				CacheHierarchy caches = cpu.getCaches();
+				if (mode.equals("off")) {
+					cpu.setCaches(null);
+					System.out.println("caches off");
+				} else if (mode.equals("report") || mode.equals("reset")) {
+					if (caches == null) {
+						System.out.println("no caches, give their levels with caches");
+					} else if (mode.equals("reset")) {
+						caches.reset();
+						System.out.println("done");
+					} else {
+						for (String line : caches.report(program)) {
+							System.out.println(line);
 						}
 					}
+				} else {
+					try {
+						caches = CacheHierarchy.parse(mode);
+						cpu.setCaches(caches);
+						for (Cache level : caches.getLevels()) {
+							System.out.println(level);
+						}
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage());
+						System.out.println("usage: caches [split] cells/line/ways[/lru|random][/wb|wt]...|off|report|reset");
+					}
+				}
+			} else if (cmmd.equals("predict")) {
+				String mode = kbd.next();
+				BranchPredictor predictor = cpu.getPredictor();
+				if (mode.equals("off")) {
+					cpu.setPredictor(null);
+					System.out.println("predict off");
+				} else if (mode.equals("report") || mode.equals("reset")) {
+					if (predictor == null) {
+						System.out.println("no predictor, choose one with predict");
+					} else if (mode.equals("reset")) {
+						predictor.reset();
+						System.out.println("done");
+					} else {
+						for (String line : predictor.report(program)) {
+							System.out.println(line);
+						}
+					}
+				} else {
+					try {
+						cpu.setPredictor(BranchPredictor.parse(mode));
+						System.out.println("predicting with " + mode);
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage());
+					}
+				}
+			} else if (cmmd.equals("branches")) {
+				String[] args = kbd.nextLine().trim().split("\\s+");
+				BranchStream branches = cpu.getBranches();
+				if (args[0].equals("on")) {
+					cpu.setBranches(new BranchStream());
+					System.out.println("recording branches");
+				} else if (args[0].equals("off")) {
+					cpu.setBranches(null);
+					System.out.println("branches off");
+				} else if (!args[0].equals("sweep") || args.length < 2) {
+					System.out.println("usage: branches on|off|sweep model...");
+				} else if (branches == null) {
+					System.out.println("no branches recorded, record them with branches on");
+				} else {
+					try {
+						for (BranchPredictor predictor : branches.sweep(Arrays.asList(args).subList(1, args.length))) {
+							System.out.println(predictor);
+						}
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage());
+					}
+				}
+			} else if (cmmd.equals("optimize")) {
+				optimize();
+			} else if (cmmd.equals("jit")) {
+				String mode = kbd.next();
+				if (mode.equals("on") || mode.equals("off")) {
+					cpu.setJit(mode.equals("on"));
+					System.out.println("jit " + mode);
+				} else {
+					System.out.println("usage: jit on|off");
+				}
+			} else if (cmmd.equals("fusion")) {
+				String mode = kbd.next();
+				if (mode.equals("report")) {
+					for (String line : cpu.fusionReport()) {
+						System.out.println(line);
+					}
+				} else if (mode.equals("on") || mode.equals("off")) {
+					cpu.setFusion(mode.equals("on"));
+					System.out.println("fusion " + mode);
+				} else {
+					System.out.println("usage: fusion on|off|report");
+				}
+			} else if (cmmd.equals("image") || cmmd.equals("export")) {
+				String fName = kbd.next();
+				if (program == null) {
+					System.out.println("no program loaded");
+					continue;
+				}
+				try {
+					if (cmmd.equals("image")) {
+						program.setMemorySize(memory.getCapacity());
+						program.save(Paths.get(fName));
+					} else {
+						program.exportText(Paths.get(fName));
+					}
 					System.out.println("done");
-			} } else {
+				} catch (IOException e) {
+					System.out.println(e.getMessage());
+				}
+			} else if (cmmd.equals("snapshot") || cmmd.equals("restore")) {
+				String fName = kbd.nextLine().trim();
+				try {
+					if (cmmd.equals("snapshot")) {
+						try {
+							snapshot = snapshot == null ? cpu.snapshot() : cpu.snapshot(snapshot);
+						} catch (IllegalArgumentException e) {
+							// The memory was replaced since the last snapshot.
+							snapshot = cpu.snapshot();
+						}
+						if (!fName.isEmpty()) {
+							snapshot.save(Paths.get(fName));
+						}
+						System.out.println(snapshot);
+					} else {
+						Snapshot restored = fName.isEmpty() ? snapshot : Snapshot.read(Paths.get(fName));
+						if (restored == null) {
+							System.out.println("no snapshot taken");
+							continue;
+						}
+						cpu.restore(restored);
+						snapshot = restored;
+						System.out.println("done");
+					}
+				} catch (IOException | IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+				}
+			} else if (cmmd.equals("save")) {
+				try {
+					DirectMemory.save(memory, new File(kbd.next()).toPath());
+					System.out.println("done");
+				} catch (IOException e) {
+					System.out.println(e.getMessage());
+				}
+			} else if (cmmd.equals("map")) {
+				try {
+					memory = DirectMemory.map(new File(kbd.next()).toPath(), -1);
+					cpu.setMemory(memory);
+					cpu.setPC(0);
+					System.out.println(memory.getCapacity() + " cells mapped");
+				} catch (IOException e) {
+					System.out.println(e.getMessage());
+				}
+			} else if (cmmd.equals("metrics")) {
+				System.out.println(SimulatorMetrics.get());
+			} else if (cmmd.equals("cache")) {
+				System.out.println(AssemblyCache.getDefault());
+			} else if (cmmd.equals("pages")) {
+				if (memory instanceof PagedMemory) {
+					PagedMemory paged = (PagedMemory) memory;
+					System.out.println(paged.getResidentPages() + " resident pages, "
+									   + paged.getResidentBytes() + " bytes");
+				} else {
+					System.out.println("memory is not paged, " + memory.getCapacity() * 4L + " bytes");
+				}
+			} else {
 				System.out.println("unrecognized command: " + cmmd);
 				if (kbd.hasNext()) kbd.nextLine();
 			}
@@ -159,12 +507,28 @@ public class Console {
 		System.out.println("bye");
 	}
 
+    /**
+      Displays why a run of the processor ended, unless it simply
+      executed all of the requested steps, and what breakpoint or
+      watchpoint stopped it.
+
+      @param result the result returned by the processor
+    */
+	private void report(RunResult result) {
+		if (result.getReason() == ExitReason.BREAKPOINT || result.getReason() == ExitReason.WATCHPOINT) {
+			System.out.println(result + ", " + cpu.getBreakpoints().getHit());
+		} else if (result.getReason() != ExitReason.STEP_LIMIT) {
+			System.out.println(result);
+		}
+	}
+
     /**
     Creates a console (with memory and CPU), then starts the
-    console's control loop.
+    console's control loop. The number of memory cells can be
+    given as the first argument, it defaults to 256.
     */
 	public static void main(String[] args) {
-		Console console = new Console();
+		Console console = args.length > 0 ? new Console(Integer.parseInt(args[0])) : new Console();
 		console.controlLoop();
 	}
 
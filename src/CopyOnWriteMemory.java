@@ -0,0 +1,120 @@
+import java.util.Objects;
+
+/**
+ * A {@link PagedMemory} that starts out sharing the pages of a read-only program image with other 
+ * memories. A page is copied the first time it is written, so thousands of runs of the same 
+ * program only pay for the pages they change. 
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public class CopyOnWriteMemory extends PagedMemory {
+
+    // Marks the pages this memory copied (or allocated) and may write to. 
+    private final boolean[] owned; 
+
+    /**
+     * Creates a memory on top of a shared image. 
+     * 
+     * @param cap
+     *  The number of addressable cells. 
+     * @param image
+     *  The shared pages, as built by {@link #share(Memory)}. A <code>null</code> page reads as 0. 
+     *  The pages are never written to. 
+     */
+    public CopyOnWriteMemory(int cap, int[][] image) {
+        super(cap, image.clone()); 
+        this.owned = new boolean[pages.length]; 
+    }
+
+    /**
+     * Copies the contents of a memory into pages that can be shared by copy-on-write memories. 
+     * Pages that only contain 0 are left out. 
+     * 
+     * @param memory
+     *  The memory to copy, usually one a program was just loaded into. 
+     * @return
+     *  The shared pages. 
+     */
+    public static int[][] share(Memory memory) {
+        int cap = memory.getCapacity(); 
+        int[][] image = new int[pageCount(cap)][]; 
+        for (int page = 0; page < image.length; page++) {
+            int[] cells = new int[PAGE_SIZE]; 
+            boolean empty = true; 
+            for (int i = 0; i < PAGE_SIZE && (page << PAGE_BITS) + i < cap; i++) {
+                cells[i] = memory.read((page << PAGE_BITS) + i); 
+                empty &= cells[i] == 0; 
+            }
+            image[page] = empty ? null : cells; 
+        }
+        return image; 
+    }
+
+    @Override
+    public void write(int address, int data) {
+        int index = Objects.checkIndex(address, getCapacity()) >>> PAGE_BITS; 
+        int[] page = pages[index]; 
+        if (!owned[index]) {
+            page = page == null ? new int[PAGE_SIZE] : page.clone(); 
+            pages[index] = page; 
+            owned[index] = true; 
+        }
+        page[address & PAGE_MASK] = data; 
+        written(address); 
+    }
+
+    @Override
+    protected int[] writablePage(int index) {
+        if (!owned[index]) {
+            pages[index] = pages[index] == null ? new int[PAGE_SIZE] : pages[index].clone(); 
+            owned[index] = true; 
+        }
+        return pages[index]; 
+    }
+
+    /**
+     * Shares the page with the snapshot instead of copying it. The page is no longer owned, so 
+     * the next write to it copies it first and the snapshot never sees the write. 
+     */
+    @Override
+    int[] copyPage(int index) {
+        owned[index] = false; 
+        return pages[index]; 
+    }
+
+    /**
+     * Shares the page of the snapshot instead of copying it, the page is copied again the next 
+     * time it is written. Pages that already are the page of the snapshot are left alone, so 
+     * restoring a memory forked from a snapshot only costs the pages it wrote. 
+     */
+    @Override
+    void restorePage(int index, int[] page) {
+        if (pages[index] == page) {
+            return; 
+        }
+        pages[index] = page; 
+        owned[index] = false; 
+        int from = index << PAGE_BITS; 
+        written(from, Math.min(from + PAGE_SIZE, getCapacity())); 
+    }
+
+    /**
+     * Gets the number of pages this memory had to copy or allocate. Shared pages are not counted. 
+     * 
+     * @return
+     *  The number of private pages. 
+     */
+    @Override
+    public int getResidentPages() {
+        int count = 0; 
+        for (boolean page : owned) {
+            if (page) {
+                count++; 
+            }
+        }
+        return count; 
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Helpers for the counters by address of the {@link Profiler}, {@link BranchPredictor},
+ * {@link CacheHierarchy} and {@link PipelineModel}: plain arrays indexed by address that grow with
+ * the highest address counted, and the rows their reports show.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+final class Counters {
+
+    // Counters to start with, before the first address beyond them.
+    static final int INITIAL_SIZE = 256;
+    // Rows of each section of a report.
+    static final int TOP = 10;
+
+    private Counters() {
+    }
+
+    /**
+     * Gets the size counters grow to so they cover an address, the next power of two above it.
+     */
+    private static int size(int address) {
+        return Math.max(Integer.highestOneBit(address) << 1, address + 1);
+    }
+
+    /**
+     * Grows counters to cover an address.
+     *
+     * @param counters
+     *  The counters.
+     * @param address
+     *  The address to count.
+     * @return
+     *  The same counters if they cover the address, a longer copy otherwise.
+     */
+    static long[] cover(long[] counters, int address) {
+        return address < counters.length ? counters : Arrays.copyOf(counters, size(address));
+    }
+
+    /**
+     * Grows counters to cover an address.
+     *
+     * @param counters
+     *  The counters.
+     * @param address
+     *  The address to count.
+     * @return
+     *  The same counters if they cover the address, a longer copy otherwise.
+     */
+    static int[] cover(int[] counters, int address) {
+        return address < counters.length ? counters : Arrays.copyOf(counters, size(address));
+    }
+
+    /**
+     * Gets the addresses with the largest non-zero counts.
+     *
+     * @param counts
+     *  The counts by address.
+     * @return
+     *  Up to {@link #TOP} addresses, largest count first.
+     */
+    static List<Integer> top(long[] counts) {
+        List<Integer> addresses = new ArrayList<>();
+        for (int address = 0; address < counts.length; address++) {
+            if (counts[address] != 0) {
+                addresses.add(address);
+            }
+        }
+        addresses.sort((a, b) -> Long.compare(counts[b], counts[a]));
+        return addresses.subList(0, Math.min(TOP, addresses.size()));
+    }
+
+    /**
+     * Labels an address with its source line for a report.
+     *
+     * @param program
+     *  The program that ran, or <code>null</code> to leave the source line out.
+     * @param address
+     *  The address.
+     * @return
+     *  See {@link Program#getLineLabel(int)}, empty without a program.
+     */
+    static String line(Program program, int address) {
+        return program == null ? "" : program.getLineLabel(address);
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * A {@link Memory} whose cells live outside of the Java heap, either in direct buffers or in a 
+ * memory-mapped file. A mapped memory is a persistent image: every write goes to the file, and 
+ * an image saved with {@link #save(Memory, Path)} is loaded again by simply mapping it. 
+ * 
+ * <p>
+ * Image files hold the cells as raw little-endian 32-bit words, cell 0 first. Cells are stored 
+ * in chunks of at most 1 GiB, so memories larger than a single buffer are supported. 
+ * </p>
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public class DirectMemory extends Memory {
+
+    // Number of cells in a chunk, as a power of 2. 
+    static final int CHUNK_BITS = 28; 
+    static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1; 
+
+    private final IntBuffer[] chunks; 
+    private final MappedByteBuffer[] mapped; 
+
+    private DirectMemory(int cap, IntBuffer[] chunks, MappedByteBuffer[] mapped) {
+        super(cap, false); 
+        this.chunks = chunks; 
+        this.mapped = mapped; 
+    }
+
+    /**
+     * Allocates a memory outside of the heap. Every cell starts as 0. 
+     * 
+     * @param cap
+     *  The number of cells to allocate. 
+     * @return
+     *  The off-heap memory. 
+     */
+    public static DirectMemory allocate(int cap) {
+        IntBuffer[] chunks = new IntBuffer[chunkCount(cap)]; 
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(chunkSize(cap, i) * Integer.BYTES) 
+                                  .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer(); 
+        }
+        return new DirectMemory(cap, chunks, null); 
+    }
+
+    /**
+     * Maps an image file as memory. The file is created or grown (with cells reading as 0) when 
+     * it is smaller than the requested capacity. 
+     * 
+     * @param file
+     *  The image file. 
+     * @param cap
+     *  The number of cells, or a negative number to use the size of the existing file. 
+     * @return
+     *  The memory backed by the file. 
+     * @throws IOException
+     *  Should the file not be readable or writable. 
+     */
+    public static DirectMemory map(Path file, int cap) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+                                                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (cap < 0) {
+                long cells = channel.size() / Integer.BYTES; 
+                if (cells > Integer.MAX_VALUE) {
+                    throw new IOException("Image too large: " + file); 
+                }
+                cap = (int) cells; 
+            }
+            IntBuffer[] chunks = new IntBuffer[chunkCount(cap)]; 
+            MappedByteBuffer[] mapped = new MappedByteBuffer[chunks.length]; 
+            for (int i = 0; i < chunks.length; i++) {
+                // Mapping past the end of the file grows it. 
+                mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, ((long) i << CHUNK_BITS) * Integer.BYTES, 
+                                        (long) chunkSize(cap, i) * Integer.BYTES); 
+                mapped[i].order(ByteOrder.LITTLE_ENDIAN); 
+                chunks[i] = mapped[i].asIntBuffer(); 
+            }
+            return new DirectMemory(cap, chunks, mapped); 
+        }
+    }
+
+    /**
+     * Writes the contents of a memory as an image file that {@link #map(Path, int)} can load. 
+     * 
+     * @param memory
+     *  The memory to save. 
+     * @param file
+     *  The image file, replaced if it exists. 
+     * @throws IOException
+     *  Should the file not be writable. 
+     */
+    public static void save(Memory memory, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN); 
+            int cap = memory.getCapacity(); 
+            for (int i = 0; i < cap; i++) {
+                if (!buffer.hasRemaining()) {
+                    buffer.flip(); 
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer); 
+                    }
+                    buffer.clear(); 
+                }
+                buffer.putInt(memory.read(i)); 
+            }
+            buffer.flip(); 
+            while (buffer.hasRemaining()) {
+                channel.write(buffer); 
+            }
+        }
+    }
+
+    private static int chunkCount(int cap) {
+        return (int) ((cap + (long) CHUNK_MASK) >>> CHUNK_BITS); 
+    }
+
+    private static int chunkSize(int cap, int chunk) {
+        return (int) Math.min(1L << CHUNK_BITS, cap - ((long) chunk << CHUNK_BITS)); 
+    }
+
+    @Override
+    public int read(int address) {
+        return chunks[address >>> CHUNK_BITS].get(address & CHUNK_MASK); 
+    }
+
+    @Override
+    public void write(int address, int data) {
+        chunks[address >>> CHUNK_BITS].put(address & CHUNK_MASK, data); 
+        written(address); 
+    }
+
+    @Override
+    public void write(int address, IntBuffer data) {
+        Objects.checkFromIndexSize(address, data.remaining(), getCapacity()); 
+        int end = address + data.remaining(); 
+        for (int next = address; next < end; ) {
+            int length = Math.min(end - next, CHUNK_MASK + 1 - (next & CHUNK_MASK)); 
+            chunks[next >>> CHUNK_BITS].put(next & CHUNK_MASK, data, data.position(), length); 
+            data.position(data.position() + length); 
+            next += length; 
+        }
+        written(address, end); 
+    }
+
+    /**
+     * Checks if the memory is backed by a file. 
+     * 
+     * @return
+     *  <code>true</code> if the memory was created by {@link #map(Path, int)}. 
+     */
+    public boolean isMapped() {
+        return mapped != null; 
+    }
+
+    /**
+     * Forces the writes made to a mapped memory out to its file. Does nothing for memories that 
+     * are not mapped. 
+     */
+    public void flush() {
+        if (mapped != null) {
+            for (MappedByteBuffer buffer : mapped) {
+                buffer.force(); 
+            }
+        }
+    }
+}
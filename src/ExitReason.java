@@ -0,0 +1,40 @@
+/**
+ * The reasons a call to {@link Processor#run(long)} can return for. 
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public enum ExitReason {
+    /** A halt instruction was executed. */
+    HALT("program terminated"), 
+    /** The instruction could not be decoded (for example a register outside of the range 0-7). */
+    UNKNOWN_OPCODE("unrecognized instruction"), 
+    /** A div instruction tried to divide by 0. The destination register is left unchanged. */
+    DIVIDE_BY_ZERO("cannot divide by 0"), 
+    /** The maximum number of steps was executed without reaching a halt. */
+    STEP_LIMIT("step limit reached"), 
+    /** The PC or a load/store address pointed outside of the memory. */
+    ADDRESS_OUT_OF_RANGE("address out of range"), 
+    /** A breakpoint was reached, the instruction at the PC has not executed yet. */
+    BREAKPOINT("breakpoint reached"), 
+    /** A load or store accessed a watched cell, the instruction has executed. */
+    WATCHPOINT("watchpoint hit"); 
+
+    private final String message; 
+
+    private ExitReason(String message) {
+        this.message = message; 
+    }
+
+    /**
+     * Gets a short description of the reason that can be shown to the user. 
+     * 
+     * @return
+     *  The description of the reason. 
+     */
+    public String getMessage() {
+        return message; 
+    }
+}
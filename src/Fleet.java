@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs one program image many times with different inputs, each run on its own 
+ * {@link Processor} and {@link CopyOnWriteMemory}, spread over the cores with a work-stealing 
+ * {@link ForkJoinPool}. The program image is shared read-only between all runs. Runs either start 
+ * at address 0 of a freshly loaded program or are forked from a {@link Snapshot} of a simulation 
+ * that already ran for a while. 
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public class Fleet {
+
+    // Runs handed to a single task before it stops splitting its range. 
+    private static final int BATCH = 16; 
+
+    private final int[][] image; 
+    private final int capacity; 
+    // State the runs are forked from, null to start them at address 0. 
+    private final Snapshot start; 
+    private final ForkJoinPool pool; 
+
+    /**
+     * Creates a fleet for the program stored in a memory, using the common pool. 
+     * 
+     * @param program
+     *  The memory the program (and its data) was loaded into. It is copied, so it can be 
+     *  reused afterwards. 
+     */
+    public Fleet(Memory program) {
+        this(program, ForkJoinPool.commonPool()); 
+    }
+
+    /**
+     * Creates a fleet for the program stored in a memory. 
+     * 
+     * @param program
+     *  The memory the program (and its data) was loaded into. 
+     * @param pool
+     *  The pool the runs are executed on. 
+     */
+    public Fleet(Memory program, ForkJoinPool pool) {
+        this.image = CopyOnWriteMemory.share(program); 
+        this.capacity = program.getCapacity(); 
+        this.start = null; 
+        this.pool = pool; 
+    }
+
+    /**
+     * Creates a fleet whose runs continue from a snapshot, using the common pool. 
+     * 
+     * @param start
+     *  The snapshot every run is forked from, its pages are shared rather than copied. 
+     */
+    public Fleet(Snapshot start) {
+        this(start, ForkJoinPool.commonPool()); 
+    }
+
+    /**
+     * Creates a fleet whose runs continue from a snapshot. 
+     * 
+     * @param start
+     *  The snapshot every run is forked from. 
+     * @param pool
+     *  The pool the runs are executed on. 
+     */
+    public Fleet(Snapshot start, ForkJoinPool pool) {
+        this.image = null; 
+        this.capacity = start.getCapacity(); 
+        this.start = start; 
+        this.pool = pool; 
+    }
+
+    /**
+     * Input of a single run: values written into the memory before the run starts, usually into 
+     * the data section after the halt. 
+     */
+    public static final class Patch {
+        private final int address; 
+        private final int[] values; 
+
+        /**
+         * Creates a patch. 
+         * 
+         * @param address
+         *  The address of the first value. 
+         * @param values
+         *  The values written to consecutive cells. 
+         */
+        public Patch(int address, int... values) {
+            this.address = address; 
+            this.values = values.clone(); 
+        }
+
+        /**
+         * Gets the address the patch starts at. 
+         */
+        public int getAddress() {
+            return address; 
+        }
+
+        /**
+         * Gets the values written from the address on. 
+         */
+        public int[] getValues() {
+            return values.clone(); 
+        }
+    }
+
+    /**
+     * Outcome of a single run. 
+     */
+    public static final class Result {
+        private final RunResult run; 
+        private final int[] registers; 
+        private final int pc; 
+        private final Memory memory; 
+
+        private Result(RunResult run, Processor cpu, Memory memory) {
+            this.run = run; 
+            this.registers = new int[8]; 
+            for (int i = 0; i < registers.length; i++) {
+                registers[i] = cpu.getRegister(i); 
+            }
+            this.pc = cpu.getPC(); 
+            this.memory = memory; 
+        }
+
+        /**
+         * Gets why the run stopped and how many steps it executed. 
+         */
+        public RunResult getRun() {
+            return run; 
+        }
+
+        /**
+         * Gets the registers at the end of the run. 
+         */
+        public int[] getRegisters() {
+            return registers.clone(); 
+        }
+
+        /**
+         * Gets the PC at the end of the run. 
+         */
+        public int getPC() {
+            return pc; 
+        }
+
+        /**
+         * Gets the memory at the end of the run. It only holds copies of the pages the run wrote. 
+         */
+        public Memory getMemory() {
+            return memory; 
+        }
+
+        @Override
+        public String toString() {
+            return run + " " + Arrays.toString(registers) + " PC = " + Memory.getHex(pc); 
+        }
+    }
+
+    /**
+     * Runs the program once per patch, starting each run at address 0 or from the snapshot. 
+     * 
+     * @param patches
+     *  The input of each run. 
+     * @param maxSteps
+     *  The maximum number of instructions a single run may execute. 
+     * @return
+     *  The results, in the same order as the patches. 
+     */
+    public List<Result> run(List<Patch> patches, long maxSteps) {
+        Result[] results = new Result[patches.size()]; 
+        pool.invoke(new Runs(patches, results, 0, results.length, maxSteps)); 
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(results))); 
+    }
+
+    /**
+     * Executes a single run on the calling thread. 
+     */
+    private Result runOne(Patch patch, long maxSteps) {
+        Processor cpu; 
+        if (start != null) {
+            cpu = start.fork(); 
+        } else {
+            cpu = new Processor(); 
+            cpu.setMemory(new CopyOnWriteMemory(capacity, image)); 
+            cpu.setPC(0); 
+        }
+        Memory memory = cpu.getMemory(); 
+        for (int i = 0; i < patch.values.length; i++) {
+            memory.write(patch.address + i, patch.values[i]); 
+        }
+        RunResult run = cpu.run(maxSteps); 
+        // The result keeps the memory, detached so the Processor and its decoded instructions can go. 
+        memory.attach(null); 
+        return new Result(run, cpu, memory); 
+    }
+
+    /**
+     * Splits a range of runs in half until it is small enough to execute, so idle workers can 
+     * steal the other halves. 
+     */
+    private final class Runs extends RecursiveAction {
+        private static final long serialVersionUID = 1L; 
+
+        private final List<Patch> patches; 
+        private final Result[] results; 
+        private final int from; 
+        private final int to; 
+        private final long maxSteps; 
+
+        Runs(List<Patch> patches, Result[] results, int from, int to, long maxSteps) {
+            this.patches = patches; 
+            this.results = results; 
+            this.from = from; 
+            this.to = to; 
+            this.maxSteps = maxSteps; 
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                for (int i = from; i < to; i++) {
+                    results[i] = runOne(patches.get(i), maxSteps); 
+                }
+            } else {
+                int middle = (from + to) >>> 1; 
+                invokeAll(new Runs(patches, results, from, middle, maxSteps), 
+                          new Runs(patches, results, middle, to, maxSteps)); 
+            }
+        }
+    }
+}
@@ -1,3 +1,7 @@
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
 /**
  * The Memory class simulates the Micro-1 Computer's memory. This allows
  * for values to be stored in the computers memory (with an initial capacity set to 256). 
@@ -16,12 +20,29 @@ public class Memory {
     
     private int[] cell; 
     private int cap = 256; 
+    // Processor whose predecoded instructions must be dropped when a cell is overwritten. 
+    private Processor cpu; 
+    // Cells written since the last call to collectChanges, one bit per cell. The bitmap is split 
+    // into blocks of DIRTY_BLOCK cells that are only allocated once one of their cells is written. 
+    private long[][] dirty; 
+    private static final int DIRTY_BITS = 12; 
+    // Largest memory that forCapacity allocates as a single array, larger memories are paged. 
+    static final int DENSE_LIMIT = 1 << 20; 
+    private static final int DIRTY_BLOCK = 1 << DIRTY_BITS; 
+    private static final int[] ZERO_PAGE = new int[PagedMemory.PAGE_SIZE]; 
+    // Pages of PagedMemory.PAGE_SIZE cells written since the last snapshot. A flag per page 
+    // rather than a bit, so that marking a page is a single store. 
+    private boolean[] touched; 
+    // Snapshot the touched pages are relative to, null before the first snapshot. 
+    private Snapshot checkpoint; 
 
     /**
      * Constructor that sets an initial capacity of 256
      */
     public Memory() {
         this.cell = new int[cap]; 
+        this.dirty = new long[dirtyBlocks(cap)][]; 
+        this.touched = new boolean[PagedMemory.pageCount(cap)]; 
     }
 
     /**
@@ -33,6 +54,42 @@ public class Memory {
     public Memory(int cap) {
         this.cap = cap; 
         this.cell = new int[cap]; 
+        this.dirty = new long[dirtyBlocks(cap)][]; 
+        this.touched = new boolean[PagedMemory.pageCount(cap)]; 
+    }
+
+    /**
+     * Constructor for memories that store their cells in some other way than a single array. 
+     * Such memories override {@link #read(int)}, {@link #write(int, int)} and call 
+     * {@link #written(int)} after every write. 
+     * 
+     * @param cap
+     *  The number of addressable cells. 
+     * @param allocate
+     *  <code>false</code> to skip allocating the array of cells. 
+     */
+    protected Memory(int cap, boolean allocate) {
+        this.cap = cap; 
+        this.cell = allocate ? new int[cap] : null; 
+        this.dirty = new long[dirtyBlocks(cap)][]; 
+        this.touched = new boolean[PagedMemory.pageCount(cap)]; 
+    }
+
+    /**
+     * Creates the kind of memory best suited for the capacity: a single array for small memories 
+     * and a {@link PagedMemory} that only allocates the pages in use for large ones. 
+     * 
+     * @param cap
+     *  The amount of memory to allocate. 
+     * @return
+     *  A new memory with every cell set to 0. 
+     */
+    public static Memory forCapacity(int cap) {
+        return cap > DENSE_LIMIT ? new PagedMemory(cap) : new Memory(cap); 
+    }
+
+    private static int dirtyBlocks(int cap) {
+        return (int) ((cap + (long) DIRTY_BLOCK - 1) >>> DIRTY_BITS); 
     }
 
     /**
@@ -56,6 +113,236 @@ public class Memory {
      */
     public void write(int address, int data) {
         cell[address] = data; 
+        written(address); 
+    }
+
+    /**
+     * Writes the remaining words of a buffer to consecutive cells, as a single bulk copy where 
+     * the memory allows it. 
+     * 
+     * @param address
+     *  The address of the cell receiving the first word. 
+     * @param data
+     *  The words to write, the buffer's position is moved past them. 
+     * @throws IndexOutOfBoundsException
+     *  If the words do not all fit in the memory, nothing is written in that case. 
+     */
+    public void write(int address, IntBuffer data) {
+        int length = data.remaining(); 
+        Objects.checkFromIndexSize(address, length, cap); 
+        if (cell != null) {
+            data.get(cell, address, length); 
+            written(address, address + length); 
+        } else {
+            for (int i = 0; i < length; i++) {
+                write(address + i, data.get()); 
+            }
+        }
+    }
+
+    /**
+     * Marks the cell at the address as changed and tells the attached Processor about it. Must be 
+     * called by every write so that predecoded and compiled instructions stay in sync with the 
+     * memory. 
+     * 
+     * @param address
+     *  The address of the cell that was written. 
+     */
+    protected final void written(int address) {
+        long[] block = dirty[address >>> DIRTY_BITS]; 
+        if (block == null) {
+            block = new long[DIRTY_BLOCK / Long.SIZE]; 
+            dirty[address >>> DIRTY_BITS] = block; 
+        }
+        block[(address & (DIRTY_BLOCK - 1)) >>> 6] |= 1L << address; 
+        touched[address >>> PagedMemory.PAGE_BITS] = true; 
+        if (cpu != null) {
+            cpu.invalidate(address); 
+        }
+    }
+
+    /**
+     * Marks a range of cells as changed after a bulk write, like {@link #written(int)} does for 
+     * a single cell. 
+     * 
+     * @param from
+     *  The first address written. 
+     * @param to
+     *  The address after the last one written. 
+     */
+    protected final void written(int from, int to) {
+        for (int address = from; address < to; ) {
+            long[] block = dirty[address >>> DIRTY_BITS]; 
+            if (block == null) {
+                block = new long[DIRTY_BLOCK / Long.SIZE]; 
+                dirty[address >>> DIRTY_BITS] = block; 
+            }
+            if ((address & 63) == 0 && to - address >= 64) {
+                block[(address & (DIRTY_BLOCK - 1)) >>> 6] = -1L; 
+                address += 64; 
+            } else {
+                block[(address & (DIRTY_BLOCK - 1)) >>> 6] |= 1L << address; 
+                address++; 
+            }
+        }
+        if (from < to) {
+            Arrays.fill(touched, from >>> PagedMemory.PAGE_BITS, ((to - 1) >>> PagedMemory.PAGE_BITS) + 1, true); 
+        }
+        if (cpu != null && from < to) {
+            cpu.invalidate(from, to); 
+        }
+    }
+
+    /**
+     * Gets the addresses of the cells written since the last call and starts tracking changes 
+     * anew. A cell written several times (or with the value it already held) is listed once. 
+     * 
+     * @return
+     *  The addresses of the changed cells in increasing order. 
+     */
+    public int[] collectChanges() {
+        int count = 0; 
+        int[] changes = new int[16]; 
+        for (int b = 0; b < dirty.length; b++) {
+            long[] block = dirty[b]; 
+            if (block == null) {
+                continue; 
+            }
+            dirty[b] = null; 
+            for (int w = 0; w < block.length; w++) {
+                long bits = block[w]; 
+                while (bits != 0) {
+                    if (count == changes.length) {
+                        changes = Arrays.copyOf(changes, count * 2); 
+                    }
+                    changes[count++] = (b << DIRTY_BITS) + (w << 6) + Long.numberOfTrailingZeros(bits); 
+                    bits &= bits - 1; 
+                }
+            }
+        }
+        return Arrays.copyOf(changes, count); 
+    }
+
+    /**
+     * Gets the pages written since the last snapshot and starts tracking them anew. Unlike 
+     * {@link #collectChanges()}, which tracks cells for the displays, this tracks pages of 
+     * {@link PagedMemory#PAGE_SIZE} cells for {@link Snapshot}. 
+     * 
+     * @return
+     *  The indexes of the written pages in increasing order. 
+     */
+    int[] collectTouchedPages() {
+        int count = 0; 
+        int[] pages = new int[16]; 
+        for (int page = 0; page < touched.length; page++) {
+            if (touched[page]) {
+                if (count == pages.length) {
+                    pages = Arrays.copyOf(pages, count * 2); 
+                }
+                pages[count++] = page; 
+                touched[page] = false; 
+            }
+        }
+        return Arrays.copyOf(pages, count); 
+    }
+
+    /**
+     * Gets the snapshot this memory was last taken as or restored from, which later snapshots 
+     * of the memory can be deltas of. 
+     */
+    Snapshot getCheckpoint() {
+        return checkpoint; 
+    }
+
+    void setCheckpoint(Snapshot checkpoint) {
+        this.checkpoint = checkpoint; 
+    }
+
+    /**
+     * Copies the cells of a page for a {@link Snapshot}. 
+     * 
+     * @param index
+     *  The index of the page, pages hold {@link PagedMemory#PAGE_SIZE} cells. 
+     * @return
+     *  A new array of {@link PagedMemory#PAGE_SIZE} cells, cells past the capacity read as 0, or 
+     *  <code>null</code> if every cell of the page is 0. 
+     */
+    int[] copyPage(int index) {
+        int from = index << PagedMemory.PAGE_BITS; 
+        int length = Math.min(PagedMemory.PAGE_SIZE, cap - from); 
+        int[] page = new int[PagedMemory.PAGE_SIZE]; 
+        if (cell != null) {
+            System.arraycopy(cell, from, page, 0, length); 
+        } else {
+            for (int i = 0; i < length; i++) {
+                page[i] = read(from + i); 
+            }
+        }
+        return Arrays.mismatch(page, ZERO_PAGE) < 0 ? null : page; 
+    }
+
+    /**
+     * Overwrites the cells of a page with the contents of a snapshot page, as a bulk write. 
+     * 
+     * @param index
+     *  The index of the page. 
+     * @param page
+     *  The cells, as returned by {@link #copyPage(int)}, <code>null</code> for a page of 0. The 
+     *  array is never written to, memories may keep it as long as they copy it before writing. 
+     */
+    void restorePage(int index, int[] page) {
+        int from = index << PagedMemory.PAGE_BITS; 
+        int length = Math.min(PagedMemory.PAGE_SIZE, cap - from); 
+        write(from, IntBuffer.wrap(page != null ? page : ZERO_PAGE, 0, length)); 
+    }
+
+    /**
+     * Dump the contents of the cells written since the last call to {@link #collectChanges()} or 
+     * this method, in the same format as {@link #dump()}. 
+     * 
+     * @return
+     *  One line per changed cell. 
+     */
+    public String[] dumpChanges() {
+        int[] changes = collectChanges(); 
+        String[] cellContents = new String[changes.length]; 
+        for (int i = 0; i < changes.length; i++) {
+            cellContents[i] = format(changes[i]); 
+        }
+        return cellContents; 
+    }
+
+    /**
+     * Formats a single cell the way it is shown in the memory dump. 
+     * 
+     * @param address
+     *  The address of the cell. 
+     * @return
+     *  The address and contents of the cell in hexadecimal. 
+     */
+    public String format(int address) {
+        return "Cell[" + getHex(address) + "] = " + getHex(read(address)); 
+    }
+
+    /**
+     * Get the number of cells in the memory. 
+     * 
+     * @return
+     *  The amount of memory allocated. 
+     */
+    public int getCapacity() {
+        return cap; 
+    }
+
+    /**
+     * Registers the Processor that caches decoded instructions from this memory so that 
+     * writes to a code cell can invalidate its cached decoding. 
+     * 
+     * @param cpu
+     *  The Processor executing out of this memory or <code>null</code> to detach it. 
+     */
+    void attach(Processor cpu) {
+        this.cpu = cpu; 
     }
 
     /**
@@ -64,9 +351,9 @@ public class Memory {
      * 
      */
     public String[] dump() {
-        String[] cellContents = new String[cell.length]; 
-        for (int i = 0; i < cell.length; i++) {
-            cellContents[i] = "Cell[" + getHex(i) + "] = " + getHex(cell[i]); 
+        String[] cellContents = new String[cap]; 
+        for (int i = 0; i < cap; i++) {
+            cellContents[i] = format(i); 
         }
         return cellContents; 
     }
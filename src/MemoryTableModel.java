@@ -0,0 +1,201 @@
+import java.util.Arrays;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model that shows a {@link Memory} one cell per row. Rows are formatted on demand when 
+ * the table paints them, so only the visible rows cost anything no matter how large the memory 
+ * is. The model also remembers which cells were written since the previous refresh so the view 
+ * can highlight them. 
+ * 
+ * <p>
+ * While a program runs in the background the memory is only read by the thread running it: 
+ * between two chunks that thread takes a {@link Copy} of the rows in view and of the cells 
+ * written, and the table is drawn from the last copy until the run ends. 
+ * </p>
+ * 
+ * @author Noeleen Silva
+ */
+public class MemoryTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L; 
+    private static final String[] COLUMNS = {"Address", "Value"}; 
+
+    // Rows shown before the view tells which ones are visible. 
+    private static final int DEFAULT_WINDOW = 64; 
+
+    private final Memory memory; 
+    // Addresses written before the last refresh, in increasing order. 
+    private int[] recent = new int[0]; 
+    // First and last rows visible, set on the event thread and read by the thread running the 
+    // program. 
+    private volatile int[] window = {0, DEFAULT_WINDOW - 1}; 
+    // Values the rows are drawn from during a run, null to read the memory itself. 
+    private Copy shown; 
+
+    /**
+     * Values of the memory taken between two chunks of a run: the rows that were visible and the 
+     * cells written since the previous copy. 
+     */
+    public static final class Copy {
+
+        private final int first; 
+        private final int[] window; 
+        private final int[] changes; 
+        private final int[] values; 
+
+        private Copy(int first, int[] window, int[] changes, int[] values) {
+            this.first = first; 
+            this.window = window; 
+            this.changes = changes; 
+            this.values = values; 
+        }
+
+        /**
+         * Gets the value of a cell, if it was copied. 
+         */
+        private String format(int row) {
+            if (row >= first && row - first < window.length) {
+                return Memory.getHex(window[row - first]); 
+            }
+            int index = Arrays.binarySearch(changes, row); 
+            // Scrolled to rows that were not visible yet, they are filled in by the next copy. 
+            return index >= 0 ? Memory.getHex(values[index]) : ""; 
+        }
+    }
+
+    /**
+     * Creates a model showing the memory. 
+     * 
+     * @param memory
+     *  The memory to show. 
+     */
+    public MemoryTableModel(Memory memory) {
+        this.memory = memory; 
+    }
+
+    @Override
+    public int getRowCount() {
+        return memory.getCapacity(); 
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length; 
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column]; 
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0) {
+            return Memory.getHex(row); 
+        }
+        return shown == null ? Memory.getHex(memory.read(row)) : shown.format(row); 
+    }
+
+    /**
+     * Sets the rows the view shows, those a {@link Copy} holds. 
+     * 
+     * @param first
+     *  The first visible row. 
+     * @param last
+     *  The last visible row. 
+     */
+    public void setWindow(int first, int last) {
+        window = new int[] {first, last}; 
+    }
+
+    /**
+     * Copies the visible rows and the cells written. Only the thread running the Processor may 
+     * call it, while the Processor is not executing. 
+     * 
+     * @param changes
+     *  The addresses written, in increasing order, as returned by {@link Memory#collectChanges()}. 
+     * @return
+     *  The values for {@link #refresh(Copy)}. 
+     */
+    public Copy copy(int[] changes) {
+        int[] rows = window; 
+        int first = Math.max(0, rows[0]); 
+        int last = Math.min(memory.getCapacity() - 1, rows[1]); 
+        int[] visible = new int[Math.max(0, last - first + 1)]; 
+        for (int i = 0; i < visible.length; i++) {
+            visible[i] = memory.read(first + i); 
+        }
+        int[] values = new int[changes.length]; 
+        for (int i = 0; i < changes.length; i++) {
+            values[i] = memory.read(changes[i]); 
+        }
+        return new Copy(first, visible, changes, values); 
+    }
+
+    /**
+     * Checks if a cell was written before the last refresh. 
+     * 
+     * @param row
+     *  The address of the cell. 
+     * @return
+     *  <code>true</code> if the cell was recently written. 
+     */
+    public boolean isRecent(int row) {
+        return Arrays.binarySearch(recent, row) >= 0; 
+    }
+
+    /**
+     * Collects the cells written since the previous refresh and repaints those rows, along with 
+     * the rows that were highlighted before. The rows are read from the memory again, so it must 
+     * not be called while a program runs. 
+     */
+    public void refresh() {
+        if (shown != null) {
+            fireRows(shown.first, shown.first + shown.window.length - 1); 
+            shown = null; 
+        }
+        refresh(memory.collectChanges()); 
+    }
+
+    /**
+     * Draws the rows from a copy taken by the thread running the program, and repaints the cells 
+     * written along with the rows that were highlighted before. 
+     * 
+     * @param copy
+     *  The values copied, see {@link #copy(int[])}. 
+     */
+    public void refresh(Copy copy) {
+        Copy previous = shown; 
+        shown = copy; 
+        if (previous == null || previous.first != copy.first || previous.window.length != copy.window.length) {
+            fireRows(copy.first, copy.first + copy.window.length - 1); 
+        }
+        refresh(copy.changes); 
+    }
+
+    private void fireRows(int first, int last) {
+        if (first <= last) {
+            fireTableRowsUpdated(first, last); 
+        }
+    }
+
+    /**
+     * Repaints the rows of cells written, along with the rows that were highlighted before. 
+     */
+    private void refresh(int[] changes) {
+        int[] previous = recent; 
+        recent = changes; 
+        int first = Integer.MAX_VALUE; 
+        int last = -1; 
+        for (int[] rows : new int[][] {previous, recent}) {
+            if (rows.length > 0) {
+                first = Math.min(first, rows[0]); 
+                last = Math.max(last, rows[rows.length - 1]); 
+            }
+        }
+        if (last >= 0) {
+            // A single event, the table only repaints the part of the range that is visible. 
+            fireTableRowsUpdated(first, last); 
+        }
+    }
+}
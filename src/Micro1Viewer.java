@@ -1,10 +1,15 @@
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner; 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 
 /**
@@ -18,8 +23,38 @@ public class Micro1Viewer extends JFrame {
     private Memory memory; 
     private boolean fileLoaded = false; 
     private final String EXT = "m1"; 
+    // Instructions executed between checks for pause, stop and a due frame. 
+    private static final long CHUNK = 1 << 20; 
+    // Minimum time between two frames while the program runs, about 30 frames per second. 
+    private static final long FRAME_NANOS = 33_000_000L; 
+    // Instructions the Back button can undo while the history is recorded. 
+    private static final int UNDO_DEPTH = 1 << 16; 
+
+    private JTextField cpuField; 
+    private JTextField irField; 
+    private JLabel speedLabel; 
+    private MemoryTableModel memoryModel; 
+    private AbstractButton[] idleButtons; 
+    private JButton runButton; 
+    private JButton pauseButton; 
+    private JButton stopButton; 
+    private Runner runner; 
+    // Program loaded last, for the source lines of the profile. 
+    private Program program; 
+    // Keeps the chunks of the last program linked from several files. 
+    private final ParallelAssembler linker = new ParallelAssembler(); 
 
     public Micro1Viewer() {
+        this(256); 
+    }
+
+    /**
+     * Creates the viewer with a memory of the given size. 
+     * 
+     * @param cap
+     *  The number of memory cells, large memories only allocate the pages that are used. 
+     */
+    public Micro1Viewer(int cap) {
         // Setting Frame Up. 
         super("Micro1 Simulator");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -31,51 +66,99 @@ public class Micro1Viewer extends JFrame {
             registerFields[i] = new JTextField(10);
             registerFields[i].setEditable(false);
         }
-        JTextField cpuField = new JTextField(10); 
+        cpuField = new JTextField(10); 
         cpuField.setEditable(false); 
-        JTextField irField = new JTextField(10); 
+        irField = new JTextField(10); 
         irField.setEditable(false);
-        JTextArea memoryArea = new JTextArea(10, 10); 
-        memoryArea.setLineWrap(true); 
-        memoryArea.setEditable(false); 
-        JScrollPane memoryScroll = new JScrollPane(memoryArea, 
-                                                   JScrollPane.VERTICAL_SCROLLBAR_ALWAYS, 
-                                                   JScrollPane.HORIZONTAL_SCROLLBAR_NEVER
-        );
+        speedLabel = new JLabel("Idle"); 
         
         // Variables needed to get the register and memory information. 
-        memory = new Memory(256); 
+        memory = Memory.forCapacity(cap); 
         cpu = new Processor(); 
         cpu.setMemory(memory); 
 
+        // Memory is shown in a table that only formats the rows that are visible. 
+        memoryModel = new MemoryTableModel(memory); 
+        JTable memoryTable = new JTable(memoryModel); 
+        memoryTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION); 
+        memoryTable.setDefaultRenderer(Object.class, new DefaultTableCellRenderer() {
+            @Override
+            public Component getTableCellRendererComponent(JTable table, Object value, boolean selected, 
+                                                           boolean focused, int row, int column) {
+                super.getTableCellRendererComponent(table, value, selected, focused, row, column); 
+                if (!selected) {
+                    // Highlight the cells written since the last refresh. 
+                    setBackground(memoryModel.isRecent(row) ? Color.YELLOW : table.getBackground()); 
+                }
+                return this; 
+            }
+        });
+        JScrollPane memoryScroll = new JScrollPane(memoryTable, 
+                                                   JScrollPane.VERTICAL_SCROLLBAR_ALWAYS, 
+                                                   JScrollPane.HORIZONTAL_SCROLLBAR_NEVER
+        );
+        memoryScroll.setPreferredSize(new Dimension(600, 250)); 
+        // A run copies the rows in view for the table to draw. 
+        memoryScroll.getViewport().addChangeListener(e -> {
+            Rectangle view = memoryTable.getVisibleRect(); 
+            int first = memoryTable.rowAtPoint(view.getLocation()); 
+            int last = memoryTable.rowAtPoint(new Point(view.x, view.y + view.height - 1)); 
+            if (first >= 0) {
+                memoryModel.setWindow(first, last < 0 ? memoryModel.getRowCount() - 1 : last); 
+            }
+        });
+
+        // Go to address controls 
+        JTextField addressField = new JTextField(10); 
+        JButton goButton = new JButton("Go to Address"); 
+        goButton.addActionListener((ActionEvent e) -> {
+            try {
+                int row = Integer.parseInt(addressField.getText().trim(), 16); 
+                if (row < 0 || row >= memoryModel.getRowCount()) {
+                    throw new IllegalArgumentException("Address out of range: " + addressField.getText()); 
+                }
+                memoryTable.setRowSelectionInterval(row, row); 
+                memoryTable.scrollRectToVisible(memoryTable.getCellRect(row, 0, true)); 
+            } catch (NumberFormatException x) {
+                JOptionPane.showMessageDialog(this, "Error: enter the address in hexadecimal"); 
+            } catch (IllegalArgumentException x) {
+                JOptionPane.showMessageDialog(this, x.getMessage()); 
+            }
+        });
+        addressField.addActionListener((ActionEvent e) -> goButton.doClick()); 
+
         // Create buttons for console commands
         JButton stepButton = new JButton("Step");
+        JButton backButton = new JButton("Back"); 
+        // Recording the history for Back makes runs execute one instruction at a time, it is off 
+        // unless asked for. 
+        JCheckBox historyBox = new JCheckBox("History"); 
         JButton loadButton = new JButton("Load");
         JButton memoryButton = new JButton("Memory");
         JButton registersButton = new JButton("Registers");
+        JButton profileButton = new JButton("Profile"); 
+        JButton breakButton = new JButton("Breakpoints"); 
+        runButton = new JButton("Run"); 
+        pauseButton = new JButton("Pause"); 
+        stopButton = new JButton("Stop"); 
+        pauseButton.setEnabled(false); 
+        stopButton.setEnabled(false); 
+        // Buttons that touch the Processor directly, they are disabled while it runs. 
+        idleButtons = new AbstractButton[] {stepButton, backButton, historyBox, loadButton, memoryButton, registersButton, 
+                                            profileButton, breakButton}; 
 
-    
         stepButton.addActionListener((ActionEvent e) -> {
             // Step through the file or load one if it wasn't previously loaded. 
             if (!fileLoaded) {
                 loadButton.doClick(); 
            } else {
                 try {
-                    int num = Integer.parseInt(JOptionPane.showInputDialog("Enter Step Number:")); 
+                    long num = Long.parseLong(JOptionPane.showInputDialog("Enter Step Number:")); 
                     if (num <= 0) {
                         throw new IllegalArgumentException("Invalid Number. Must be greater than 0."); 
                     }
-                    boolean halt = false; 
-                    for (int i = 0; i < num && !halt; i++) { 
-                        if (!halt) {
-                            halt = cpu.step(); 
-                        }
-
-                        if (halt) {
-                            JOptionPane.showMessageDialog(this, "Program terminated"); 
-                            break; 
-                        }
-                    }
+                    // Large step counts run in the background like the Run button. 
+                    start(num); 
                 } catch (NumberFormatException x) {
                         // When it cannot translate the String to a number. 
                         JOptionPane.showMessageDialog(this, "Error: " + x.getMessage()); 
@@ -87,74 +170,77 @@ public class Micro1Viewer extends JFrame {
            
         });
 
+        historyBox.addActionListener((ActionEvent e) -> cpu.setUndoDepth(historyBox.isSelected() ? UNDO_DEPTH : 0)); 
+
+        backButton.addActionListener((ActionEvent e) -> {
+            // Undo the last instructions, as far as the undo log goes back. 
+            if (!historyBox.isSelected()) {
+                JOptionPane.showMessageDialog(this, "Turn on History to record the instructions Back can undo"); 
+                return; 
+            }
+            String input = JOptionPane.showInputDialog("Enter Number of Steps Back:"); 
+            if (input == null) {
+                return; 
+            }
+            try {
+                int num = Integer.parseInt(input.trim()); 
+                if (num <= 0) {
+                    throw new IllegalArgumentException("Invalid Number. Must be greater than 0."); 
+                }
+                int undone = cpu.stepBack(num); 
+                showRegisters(cpu.dump()); 
+                memoryModel.refresh(); 
+                if (undone < num) {
+                    JOptionPane.showMessageDialog(this, "Only " + undone + " instructions could be undone"); 
+                }
+            } catch (NumberFormatException x) {
+                JOptionPane.showMessageDialog(this, "Error: " + x.getMessage()); 
+            } catch (IllegalArgumentException x) {
+                JOptionPane.showMessageDialog(this, x.getMessage()); 
+            }
+        });
+
         loadButton.addActionListener((ActionEvent e) -> {
           // Handles getting the file that the user chooses. 
           JFileChooser chooser = new JFileChooser("C:\\"); 
           // Only allow asm or m1 files. 
           chooser.setFileFilter(new FileNameExtensionFilter("M1 Processor Files", "asm", "m1")); 
+          // Programs split across several files are linked in the order of their names. 
+          chooser.setMultiSelectionEnabled(true); 
           int result = chooser.showOpenDialog(null); 
           File fileToCompile = null; 
           File translatedFile = null; 
-          Scanner fileToRead = null; 
           // Start compiling the file when user chooses it. 
           if (result == JFileChooser.APPROVE_OPTION) {
-            fileToCompile = chooser.getSelectedFile(); 
+            File[] selected = chooser.getSelectedFiles(); 
+            Arrays.sort(selected); 
+            fileToCompile = selected[0]; 
             translatedFile = new File(fileToCompile.getName().replace("asm", EXT)); 
             try {
-                fileToRead = new Scanner(fileToCompile); 
-                boolean haltEncountered = false; 
-                int address = 0; 
-                String[] argLine = null; 
-                String translation = null; 
-                cpu.setPC(0); 
-                if (Assembler.checkFile(fileToCompile)) {
-                    while (fileToRead.hasNext()) {
-                        argLine = fileToRead.nextLine().split("[ ]+"); 
-                        if (argLine.length == 0) {
-                            // Skip empty lines. 
-                            continue; 
-                        } else if (argLine.length == 1 && argLine[0].equalsIgnoreCase("halt")) {
-                            // Halts are all 0s
-                            translation = "00000000"; 
-                            haltEncountered = true; 
-                        } else if (haltEncountered) {
-                            // Continously translate and then write to memory and m1 file until we reach end of file. 
-                            while (fileToRead.hasNext()) { 
-                                translation = fileToRead.nextLine(); 
-    
-                                if (translation.equalsIgnoreCase("halt")) { 
-                                    memory.write(address++, 0); 
-                                } else {
-                                    memory.write(address++, Integer.parseInt(translation, 16)); 
-                                }
-                            }
-                            break; 
-                        } else if (argLine.length == 3) { 
-                            translation = Assembler.parseArguments(Assembler.parseCommand(argLine[0]), argLine[1], argLine[2]); 
-                        } else if (argLine.length == 1) { 
-                            translation = Assembler.parseConstant(argLine[0]); 
-                        } else { 
-                            translation = Assembler.parseArguments(Assembler.parseCommand(argLine[0]), argLine[1]); 
-                        }
-                       
-                        // End off with writing the translated assembly code into the memory and file. 
-                        Assembler.writeToFile(translatedFile, translation + "\n"); 
-                        memory.write(address++, Integer.parseInt(translation, 16)); 
+                if (selected.length > 1) {
+                    List<Path> files = new ArrayList<>(); 
+                    for (File file : selected) {
+                        files.add(file.toPath()); 
                     }
-                    
+                    program = linker.assemble(files); 
+                    program.load(memory); 
                 } else {
-                    // If file chosen is already in hexadecimal format. 
-                    while (fileToRead.hasNext()) {
-                        memory.write(address++, fileToRead.nextInt(16)); 
-                    }
+                    program = AssemblyCache.getDefault().load(fileToCompile.toPath(), memory); 
+                }
+                cpu.setPC(program.getEntry()); 
+                if (Assembler.checkFile(fileToCompile)) {
+                    // Keep a binary image of the translated program next to it. 
+                    program.setMemorySize(memory.getCapacity()); 
+                    program.save(translatedFile.toPath()); 
                 }
-                
-                fileToRead.close(); 
                 JOptionPane.showMessageDialog(this, "File successfully loaded");
                 // Show the register and memory content after loading file. 
                 fileLoaded = true; 
-              } catch (FileNotFoundException x) { 
-                JOptionPane.showMessageDialog(null, x.getMessage()); 
+              } catch (AssemblyException x) { 
+                // Errors of linked programs already name the file. 
+                JOptionPane.showMessageDialog(this, (x.getFile() == null ? fileToCompile.getName() + ", " : "") + x.getMessage()); 
+              } catch (IOException | IllegalArgumentException x) { 
+                JOptionPane.showMessageDialog(this, x.getMessage()); 
               } 
               registersButton.doClick(); 
               memoryButton.doClick(); 
@@ -171,12 +257,8 @@ public class Micro1Viewer extends JFrame {
             if (!fileLoaded) {
                 loadButton.doClick(); 
             } else {
-                memoryArea.setText(""); 
-                String[] cellContent = memory.dump(); 
-                for (int i = 0; i < cellContent.length; i++) {
-                    memoryArea.append(cellContent[i] + "\n"); 
-                }
-                memoryArea.setCaretPosition(0); // Set it to the top of the page. 
+                // Rows are formatted when painted, only the changed rows need repainting. 
+                memoryModel.refresh(); 
             }
             
         });
@@ -186,24 +268,103 @@ public class Micro1Viewer extends JFrame {
            if (!fileLoaded) {
               loadButton.doClick(); 
            } else {
-              String[] registerContent = cpu.dump(); 
-              // Register Content
-              for (int i = 0; i < 8; i++) {
-                registerFields[i].setText(registerContent[i]); 
+              showRegisters(cpu.dump()); 
+            }
+           
+        });
+
+        profileButton.addActionListener((ActionEvent e) -> {
+            // The first click starts counting, the next ones show what was counted so far. 
+            Profiler profiler = cpu.getProfiler(); 
+            if (profiler == null) {
+                cpu.setProfiler(new Profiler()); 
+                JOptionPane.showMessageDialog(this, "Profiling on, click Profile again for the report"); 
+                return; 
+            }
+            JTextArea report = new JTextArea(String.join("\n", profiler.report(program)), 24, 64); 
+            report.setEditable(false); 
+            report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12)); 
+            String[] options = {"Close", "Reset", "Stop Profiling"}; 
+            int choice = JOptionPane.showOptionDialog(this, new JScrollPane(report), "Profile", JOptionPane.DEFAULT_OPTION, 
+                                                      JOptionPane.PLAIN_MESSAGE, null, options, options[0]); 
+            if (choice == 1) {
+                profiler.reset(); 
+            } else if (choice == 2) {
+                cpu.setProfiler(null); 
+            }
+        });
+
+        breakButton.addActionListener((ActionEvent e) -> {
+            // Lists the breakpoints and watchpoints and takes the same commands as the console. 
+            Breakpoints breakpoints = cpu.getBreakpoints(); 
+            JTextField command = new JTextField(40); 
+            String[] options = {"Apply", "Delete All", "Close"}; 
+            int choice; 
+            do {
+                List<String> lines = breakpoints.list(); 
+                JTextArea list = new JTextArea(lines.isEmpty() ? "No breakpoints or watchpoints" : String.join("\n", lines), 8, 40); 
+                list.setEditable(false); 
+                list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12)); 
+                Object[] message = {new JScrollPane(list), "break X [rN op value] | break delete X", 
+                                    "watch read|write|access X[-Y] | watch delete X[-Y]", command}; 
+                choice = JOptionPane.showOptionDialog(this, message, "Breakpoints", JOptionPane.DEFAULT_OPTION, 
+                                                      JOptionPane.PLAIN_MESSAGE, null, options, options[0]); 
+                if (choice == 0 && !command.getText().isBlank()) {
+                    try {
+                        breakpoints.edit(command.getText()); 
+                        command.setText(""); 
+                    } catch (IllegalArgumentException x) {
+                        JOptionPane.showMessageDialog(this, x.getMessage()); 
+                    }
+                } else if (choice == 1) {
+                    breakpoints.clear(); 
                 }
+            } while (choice == 0 || choice == 1); 
+        });
 
-              cpuField.setText(registerContent[8]); 
-              irField.setText(registerContent[9]); 
+        runButton.addActionListener((ActionEvent e) -> {
+            // Resume a paused run, otherwise run until the program stops or the user stops it. 
+            if (runner != null) {
+                runner.setPaused(false); 
+                runButton.setEnabled(false); 
+                pauseButton.setEnabled(true); 
+            } else if (!fileLoaded) {
+                loadButton.doClick(); 
+            } else {
+                start(Long.MAX_VALUE); 
+            }
+        });
+
+        pauseButton.addActionListener((ActionEvent e) -> {
+            if (runner != null) {
+                runner.setPaused(true); 
+                runButton.setEnabled(true); 
+                pauseButton.setEnabled(false); 
+                speedLabel.setText("Paused"); 
+            }
+        });
+
+        stopButton.addActionListener((ActionEvent e) -> {
+            // The Processor keeps its state, the program can be stepped or run again afterwards. 
+            if (runner != null) {
+                runner.stop(); 
             }
-           
         });
 
         // Create panel for buttons
         JPanel buttonPanel = new JPanel();
         buttonPanel.add(stepButton);
+        buttonPanel.add(backButton); 
+        buttonPanel.add(historyBox); 
         buttonPanel.add(loadButton);
         buttonPanel.add(memoryButton);
         buttonPanel.add(registersButton);
+        buttonPanel.add(profileButton); 
+        buttonPanel.add(breakButton); 
+        buttonPanel.add(runButton); 
+        buttonPanel.add(pauseButton); 
+        buttonPanel.add(stopButton); 
+        buttonPanel.add(speedLabel); 
 
         // Create panel for register fields
         JPanel registerPanel = new JPanel(new GridLayout(0, 2));
@@ -218,12 +379,184 @@ public class Micro1Viewer extends JFrame {
         getContentPane().setLayout(new BorderLayout());
         getContentPane().add(buttonPanel, BorderLayout.NORTH);
         getContentPane().add(registerPanel, BorderLayout.CENTER);
-        getContentPane().add(memoryScroll, BorderLayout.SOUTH); 
+        JPanel memoryPanel = new JPanel(new BorderLayout()); 
+        JPanel addressPanel = new JPanel(); 
+        addressPanel.add(addressField); 
+        addressPanel.add(goButton); 
+        memoryPanel.add(addressPanel, BorderLayout.NORTH); 
+        memoryPanel.add(memoryScroll, BorderLayout.CENTER); 
+        getContentPane().add(memoryPanel, BorderLayout.SOUTH); 
+    }
+
+    /**
+     * Shows the content of the registers. 
+     * 
+     * @param registerContent
+     *  The registers as given by {@link Processor#dump()}. 
+     */
+    private void showRegisters(String[] registerContent) {
+        for (int i = 0; i < 8; i++) {
+            registerFields[i].setText(registerContent[i]); 
+        }
+        cpuField.setText(registerContent[8]); 
+        irField.setText(registerContent[9]); 
+    }
+
+    /**
+     * Starts running the program in the background. 
+     * 
+     * @param budget
+     *  The most instructions to execute. 
+     */
+    private void start(long budget) {
+        for (AbstractButton button : idleButtons) {
+            button.setEnabled(false); 
+        }
+        runButton.setEnabled(false); 
+        pauseButton.setEnabled(true); 
+        stopButton.setEnabled(true); 
+        speedLabel.setText("Running"); 
+        // Nothing runs yet, the table can be drawn from a copy from now on. 
+        memoryModel.refresh(memoryModel.copy(memory.collectChanges())); 
+        runner = new Runner(budget); 
+        runner.execute(); 
+    }
+
+    /**
+     * State of the Processor taken by the {@link Runner} between two chunks, while nothing is 
+     * executing. 
+     */
+    private static final class Frame {
+
+        private final String[] registers; 
+        private final MemoryTableModel.Copy memory; 
+        private final double speed; 
+
+        private Frame(String[] registers, MemoryTableModel.Copy memory, double speed) {
+            this.registers = registers; 
+            this.memory = memory; 
+            this.speed = speed; 
+        }
+    }
+
+    /**
+     * Runs the program off the event thread. The Processor executes in chunks of {@link #CHUNK} 
+     * instructions, between chunks the worker checks for pause and stop, and publishes a 
+     * {@link Frame} when the last one is older than {@link #FRAME_NANOS}. Frames are taken on 
+     * the worker so the registers and memory are never read halfway through a chunk, and the 
+     * worker is the only one reading the memory while it runs. 
+     */
+    private final class Runner extends SwingWorker<RunResult, Frame> {
+
+        private final long budget; 
+        private boolean paused; 
+        private boolean stopped; 
+
+        private Runner(long budget) {
+            this.budget = budget; 
+        }
+
+        /**
+         * Pauses or resumes the run at the next chunk. 
+         * 
+         * @param paused
+         *  <code>true</code> to pause. 
+         */
+        private synchronized void setPaused(boolean paused) {
+            this.paused = paused; 
+            notifyAll(); 
+        }
+
+        /**
+         * Stops the run at the next chunk. The worker is not cancelled, so {@link #done()} only 
+         * runs once the Processor is no longer executing. 
+         */
+        private synchronized void stop() {
+            stopped = true; 
+            notifyAll(); 
+        }
+
+        @Override
+        protected RunResult doInBackground() throws InterruptedException {
+            long done = 0; 
+            long frameSteps = 0; 
+            long frameTime = System.nanoTime(); 
+            ExitReason reason = ExitReason.STEP_LIMIT; 
+            while (done < budget) {
+                synchronized (this) {
+                    while (paused && !stopped) {
+                        wait(); 
+                        // A paused run does not count towards the speed. 
+                        frameTime = System.nanoTime(); 
+                        frameSteps = done; 
+                    }
+                    if (stopped) {
+                        break; 
+                    }
+                }
+                RunResult result = cpu.run(Math.min(CHUNK, budget - done)); 
+                done += result.getSteps(); 
+                reason = result.getReason(); 
+                if (reason != ExitReason.STEP_LIMIT) {
+                    break; 
+                }
+                long now = System.nanoTime(); 
+                if (now - frameTime >= FRAME_NANOS) {
+                    publish(new Frame(cpu.dump(), memoryModel.copy(memory.collectChanges()), (done - frameSteps) * 1e9 / (now - frameTime))); 
+                    frameTime = now; 
+                    frameSteps = done; 
+                }
+            }
+            return new RunResult(reason, done); 
+        }
+
+        @Override
+        protected void process(List<Frame> frames) {
+            if (runner != this) {
+                // Frames delivered after done() would draw the memory from an old copy again. 
+                return; 
+            }
+            // Frames that queued up while the event thread was busy still carry memory changes. 
+            for (Frame frame : frames) {
+                memoryModel.refresh(frame.memory); 
+            }
+            Frame last = frames.get(frames.size() - 1); 
+            showRegisters(last.registers); 
+            speedLabel.setText(String.format("%,.0f instructions/sec", last.speed)); 
+        }
+
+        @Override
+        protected void done() {
+            runner = null; 
+            for (AbstractButton button : idleButtons) {
+                button.setEnabled(true); 
+            }
+            runButton.setEnabled(true); 
+            pauseButton.setEnabled(false); 
+            stopButton.setEnabled(false); 
+            speedLabel.setText("Idle"); 
+            // The worker has finished, the Processor can be read directly. 
+            showRegisters(cpu.dump()); 
+            memoryModel.refresh(); 
+            try {
+                RunResult result = get(); 
+                if (stopped) {
+                    JOptionPane.showMessageDialog(Micro1Viewer.this, "Program stopped by the user after " + result.getSteps() + " steps"); 
+                } else if (result.getReason() == ExitReason.BREAKPOINT || result.getReason() == ExitReason.WATCHPOINT) {
+                    // Run or Step carries on from there. 
+                    JOptionPane.showMessageDialog(Micro1Viewer.this, "Program stopped: " + result + ", " + cpu.getBreakpoints().getHit()); 
+                } else if (result.getReason() != ExitReason.STEP_LIMIT) {
+                    JOptionPane.showMessageDialog(Micro1Viewer.this, "Program stopped: " + result); 
+                }
+            } catch (InterruptedException | ExecutionException x) {
+                JOptionPane.showMessageDialog(Micro1Viewer.this, "Error: " + x.getMessage()); 
+            }
+        }
     }
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
-            new Micro1Viewer().setVisible(true);
+            new Micro1Viewer(args.length > 0 ? Integer.parseInt(args[0]) : 256).setVisible(true);
         });
     }
 }
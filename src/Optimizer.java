@@ -0,0 +1,744 @@
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Peephole optimizer for assembled programs. It propagates the constants held by the registers
+ * through the basic blocks, following the jumps from block to block, and removes the instructions
+ * that cannot change anything: a <code>loadc</code> of the value the register already holds,
+ * arithmetic with a neutral operand (such as <code>add r z</code> where <code>z</code> is known to
+ * be 0), an <code>if</code> whose condition is known to be 0, and instructions writing a register
+ * that is written again in the same block before it is read.
+ *
+ * <p>
+ * Removing instructions moves every later cell to a lower address, so the constants used as
+ * addresses must be moved with them. Jump targets and load or store addresses are only known
+ * when they come straight from a <code>loadc</code>, whose constant is then moved. When a jump
+ * target is not known, an address that may point to a moved cell cannot be traced back to its
+ * <code>loadc</code>, or a constant used as such an address is also used as a number, the program
+ * is left as it is and the result tells why. Registers that still hold a moved address at the
+ * final halt keep the new address.
+ * </p>
+ *
+ * <p>
+ * {@link #main(String[])} reports the instructions removed and the instructions executed before
+ * and after optimizing each file given to it.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class Optimizer {
+
+    private static final int HALT = 0;
+    private static final int LOAD = 1;
+    private static final int LOADC = 2;
+    private static final int STORE = 3;
+    private static final int DIV = 7;
+    private static final int NOT = 10;
+    private static final int RSHIFT = 12;
+    private static final int IF = 15;
+
+    // How a loadc constant is used, a constant may be used in several ways.
+    private static final int ADDRESS = 1;
+    private static final int NUMBER = 2;
+    // Meets another value in a live register where blocks join, so its later uses are not known.
+    private static final int ESCAPES = 4;
+
+    /**
+     * Result of optimizing a program.
+     */
+    public static final class Result {
+
+        private final Program program;
+        private final int removed;
+        private final int removedCells;
+        private final String refusal;
+
+        private Result(Program program, int removed, int removedCells, String refusal) {
+            this.program = program;
+            this.removed = removed;
+            this.removedCells = removedCells;
+            this.refusal = refusal;
+        }
+
+        /**
+         * Gets the optimized program.
+         *
+         * @return
+         *  The optimized program, or the original one if nothing could be removed.
+         */
+        public Program getProgram() {
+            return program;
+        }
+
+        /**
+         * Gets the number of instructions removed.
+         *
+         * @return
+         *  The number of instructions, a <code>loadc</code> and its constant count as one.
+         */
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Gets the number of memory cells the program shrank by.
+         *
+         * @return
+         *  The number of cells removed.
+         */
+        public int getRemovedCells() {
+            return removedCells;
+        }
+
+        /**
+         * Gets the reason the program could not be optimized.
+         *
+         * @return
+         *  The reason, or <code>null</code> if the program was optimized or nothing could be removed.
+         */
+        public String getRefusal() {
+            return refusal;
+        }
+
+        @Override
+        public String toString() {
+            if (refusal != null) {
+                return "not optimized: " + refusal;
+            }
+            return removed + " instructions (" + removedCells + " cells) removed";
+        }
+    }
+
+    /**
+     * What is known about the registers at some point of the code.
+     */
+    private static final class State {
+
+        private final boolean[] known = new boolean[8];
+        private final int[] value = new int[8];
+        // The address of the loadc each register got its value from, or COMPUTED or MIXED.
+        private final int[] origin = new int[8];
+
+        private State() {
+            Arrays.fill(origin, COMPUTED);
+        }
+
+        private State copy() {
+            State copy = new State();
+            System.arraycopy(known, 0, copy.known, 0, 8);
+            System.arraycopy(value, 0, copy.value, 0, 8);
+            System.arraycopy(origin, 0, copy.origin, 0, 8);
+            return copy;
+        }
+
+        /**
+         * Keeps what this state and another one agree on. The loadc constants in live registers
+         * that no longer tell where they came from are marked as escaping.
+         *
+         * @return
+         *  Whether this state changed.
+         */
+        private boolean merge(State other, int live, int[] uses) {
+            boolean changed = false;
+            for (int r = 0; r < 8; r++) {
+                int[] marks = (live & 1 << r) != 0 ? uses : null;
+                if (known[r] && (!other.known[r] || other.value[r] != value[r])) {
+                    known[r] = false;
+                    changed = true;
+                }
+                if (origin[r] != other.origin[r] && origin[r] != COMPUTED) {
+                    int merged = other.origin[r] == COMPUTED ? COMPUTED : MIXED;
+                    escape(origin[r], marks);
+                    escape(other.origin[r], marks);
+                    changed |= origin[r] != merged;
+                    origin[r] = merged;
+                } else if (origin[r] != other.origin[r]) {
+                    escape(other.origin[r], marks);
+                }
+            }
+            return changed;
+        }
+
+        private static void escape(int origin, int[] uses) {
+            if (origin >= 0 && uses != null) {
+                uses[origin] |= ESCAPES;
+            }
+        }
+    }
+
+    // Origins of registers that do not hold a loadc constant, or hold one of several.
+    private static final int COMPUTED = -1;
+    private static final int MIXED = -2;
+
+    private final int[] words;
+    private final int codeEnd;
+    private final int entry;
+    // Marks the cells holding the constant of a loadc.
+    private final boolean[] constant;
+    private final boolean[] leader;
+    private final boolean[] removed;
+    // What is known when each basic block starts, null for blocks that are never reached.
+    private final State[] states;
+    // Ways each loadc constant is used, by the address of the loadc.
+    private final int[] uses;
+    // Target of each if that was reached, or -1.
+    private final int[] targets;
+    // Registers that may be read before being written again, by address.
+    private final byte[] live;
+    // Marks the loadc whose constant is read by a load.
+    private final boolean[] read;
+    private int firstRemoved;
+    // Blocks whose start state changed since they were last followed.
+    private int[] work = new int[16];
+    private int pending;
+
+    private Optimizer(Program program) {
+        this.words = program.toArray();
+        this.codeEnd = program.getCodeEnd();
+        this.entry = program.getEntry();
+        this.constant = new boolean[codeEnd];
+        this.leader = new boolean[codeEnd + 1];
+        this.removed = new boolean[codeEnd];
+        this.states = new State[codeEnd];
+        this.uses = new int[codeEnd];
+        this.read = new boolean[codeEnd];
+        this.targets = new int[codeEnd];
+        this.live = new byte[codeEnd + 1];
+    }
+
+    /**
+     * Optimizes a program. Only the code up to the first halt is changed, the data after it moves
+     * down by the number of cells removed.
+     *
+     * @param program
+     *  The program to optimize, it is not changed.
+     * @return
+     *  The optimized program and what was done.
+     */
+    public static Result optimize(Program program) {
+        Optimizer optimizer = new Optimizer(program);
+        String refusal = optimizer.decode();
+        if (refusal == null) {
+            refusal = optimizer.propagate(false);
+        }
+        if (refusal != null) {
+            return new Result(program, 0, 0, refusal);
+        }
+        optimizer.removeNeutral();
+        optimizer.removeDead();
+        int count = 0;
+        int cells = 0;
+        for (int i = 0; i < optimizer.codeEnd; i++) {
+            if (optimizer.removed[i]) {
+                cells++;
+                count += optimizer.constant[i] ? 0 : 1;
+            }
+        }
+        if (count == 0) {
+            return new Result(program, 0, 0, null);
+        }
+        while (!optimizer.removed[optimizer.firstRemoved]) {
+            optimizer.firstRemoved++;
+        }
+        optimizer.liveness();
+        refusal = optimizer.propagate(true);
+        if (refusal == null) {
+            refusal = optimizer.checkConstants();
+        }
+        if (refusal != null) {
+            return new Result(program, 0, 0, refusal);
+        }
+        return new Result(optimizer.relocate(program), count, cells, null);
+    }
+
+    private static int op(int word) {
+        return word >> 8;
+    }
+
+    private static int arg1(int word) {
+        return (word >> 4) & 0xF;
+    }
+
+    private static int arg2(int word) {
+        return word & 0xF;
+    }
+
+    private static String hex(int address) {
+        return Integer.toHexString(address);
+    }
+
+    /**
+     * Finds the loadc constants and the blocks starting at the entry and after every if and halt.
+     * The blocks starting at jump targets are found by {@link #propagate(boolean)}.
+     *
+     * @return
+     *  The reason the code cannot be optimized, or <code>null</code>.
+     */
+    private String decode() {
+        if (entry < 0 || entry >= codeEnd) {
+            return "the entry " + hex(entry) + " is not in the code";
+        }
+        leader[entry] = true;
+        for (int i = 0; i < codeEnd; i++) {
+            int word = words[i];
+            if (word < 0 || word > 0xFFF || arg1(word) > 7 || arg2(word) > 7) {
+                return "cell " + hex(i) + " of the code is not an instruction";
+            }
+            if (op(word) == LOADC) {
+                if (i + 1 >= codeEnd) {
+                    return "loadc at " + hex(i) + " has no constant";
+                }
+                constant[++i] = true;
+            } else if (op(word) == IF || op(word) == HALT) {
+                leader[i + 1] = true;
+            }
+        }
+        if (constant[entry]) {
+            return "the entry " + hex(entry) + " is the constant of a loadc";
+        }
+        return null;
+    }
+
+    /**
+     * Computes what is known about the registers when each basic block starts, following the
+     * jumps from the entry until nothing changes. A jump to an instruction that does not start a
+     * block yet splits its block and starts over.
+     *
+     * @param trace
+     *  Whether to skip the removed cells and record how the loadc constants are used.
+     * @return
+     *  The reason the program cannot be optimized, or <code>null</code>.
+     */
+    private String propagate(boolean trace) {
+        int[] marks = trace ? uses : null;
+        boolean split = true;
+        while (split) {
+            split = false;
+            Arrays.fill(states, null);
+            Arrays.fill(uses, 0);
+            Arrays.fill(read, false);
+            Arrays.fill(targets, -1);
+            pending = 0;
+            states[entry] = new State();
+            work[pending++] = entry;
+            while (pending > 0) {
+                int start = work[--pending];
+                State state = states[start].copy();
+                int i = start;
+                while (i < codeEnd) {
+                    int word = words[i];
+                    int size = op(word) == LOADC ? 2 : 1;
+                    if (!removed[i]) {
+                        String refusal = trace ? trace(state, i) : null;
+                        if (refusal != null) {
+                            return refusal;
+                        }
+                        if (op(word) == HALT) {
+                            break;
+                        }
+                        if (op(word) == IF) {
+                            int a = arg1(word);
+                            int b = arg2(word);
+                            boolean taken = !state.known[a] || state.value[a] != 0;
+                            boolean skipped = !state.known[a] || state.value[a] == 0;
+                            if (taken) {
+                                if (!state.known[b]) {
+                                    return "the target of the if at " + hex(i) + " is not known";
+                                }
+                                int target = state.value[b];
+                                targets[i] = target;
+                                if (target < 0 || target >= codeEnd || constant[target]) {
+                                    return "the if at " + hex(i) + " jumps to " + hex(target) + ", outside of the instructions";
+                                }
+                                if (!leader[target]) {
+                                    leader[target] = true;
+                                    split = true;
+                                }
+                                flow(target, state, marks);
+                            }
+                            if (!skipped) {
+                                break;
+                            }
+                        } else {
+                            step(state, i);
+                        }
+                    }
+                    i += size;
+                    if (i < codeEnd && leader[i]) {
+                        flow(i, state, marks);
+                        break;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the registers that may be read before being written again at each cell of the
+     * optimized code, following the jumps found by {@link #propagate(boolean)} until nothing
+     * changes. Registers are not read after the program halts.
+     */
+    private void liveness() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = codeEnd - 1; i >= 0; i--) {
+                if (constant[i]) {
+                    continue;
+                }
+                int word = words[i];
+                int op = op(word);
+                int a = arg1(word);
+                int b = arg2(word);
+                int next = live[i + (op == LOADC ? 2 : 1)] & 0xFF;
+                int in;
+                if (removed[i]) {
+                    in = next;
+                } else if (op == HALT) {
+                    in = 0;
+                } else if (op == IF) {
+                    in = next | (targets[i] >= 0 ? live[targets[i]] & 0xFF : 0) | 1 << a | 1 << b;
+                } else if (op == LOADC || op == LOAD) {
+                    in = next & ~(1 << a) | (op == LOAD ? 1 << b : 0);
+                } else if (op == STORE) {
+                    in = next | 1 << a | 1 << b;
+                } else {
+                    boolean reads = op < NOT || op > RSHIFT;
+                    in = next & ~(1 << a) | (reads ? 1 << a : 0) | 1 << b;
+                }
+                if ((byte) in != live[i]) {
+                    live[i] = (byte) in;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Passes the state at the end of a block on to a block it continues with.
+     */
+    private void flow(int start, State state, int[] marks) {
+        if (states[start] == null) {
+            states[start] = state.copy();
+        } else if (!states[start].merge(state, live[start] & 0xFF, marks)) {
+            return;
+        }
+        if (pending == work.length) {
+            work = Arrays.copyOf(work, pending * 2);
+        }
+        work[pending++] = start;
+    }
+
+    /**
+     * Updates the registers for an instruction other than if and halt.
+     */
+    private void step(State state, int i) {
+        int word = words[i];
+        int op = op(word);
+        int a = arg1(word);
+        int b = arg2(word);
+        switch (op) {
+            case HALT:
+            case STORE:
+            case IF:
+                break;
+            case LOADC:
+                state.known[a] = true;
+                state.value[a] = words[i + 1];
+                state.origin[a] = i;
+                break;
+            case LOAD:
+                state.known[a] = false;
+                state.origin[a] = COMPUTED;
+                break;
+            default:
+                boolean reads = op < NOT || op > RSHIFT;
+                if (state.known[b] && (state.known[a] || !reads) && !(op == DIV && state.value[b] == 0)) {
+                    state.value[a] = evaluate(op, state.value[a], state.value[b]);
+                    state.known[a] = true;
+                } else {
+                    state.known[a] = false;
+                }
+                state.origin[a] = COMPUTED;
+        }
+    }
+
+    /**
+     * Computes the result of an instruction that writes its first register.
+     */
+    private static int evaluate(int op, int a, int b) {
+        switch (op) {
+            case 4: return a + b;
+            case 5: return a * b;
+            case 6: return a - b;
+            case 7: return a / b;
+            case 8: return a != 0 && b != 0 ? 1 : 0;
+            case 9: return a != 0 || b != 0 ? 1 : 0;
+            case 10: return b != 0 ? 0 : 1;
+            case 11: return b << 1;
+            case 12: return b >> 1;
+            case 13: return a & b;
+            default: return a | b;
+        }
+    }
+
+    /**
+     * Checks if an instruction leaves its first register as it is whatever its value, given the
+     * value of its second register.
+     */
+    private static boolean neutral(int op, int b) {
+        switch (op) {
+            case 4: case 6: case 14: return b == 0;
+            case 5: case 7: return b == 1;
+            case 13: return b == -1;
+            default: return false;
+        }
+    }
+
+    /**
+     * Removes the instructions that leave every register and memory cell as they were, starting
+     * each basic block with what is known when it starts.
+     */
+    private void removeNeutral() {
+        State state = new State();
+        for (int i = 0; i < codeEnd; i++) {
+            if (leader[i]) {
+                // Blocks that are never reached keep all their instructions.
+                state = states[i] != null ? states[i].copy() : new State();
+            }
+            int word = words[i];
+            int op = op(word);
+            int a = arg1(word);
+            int b = arg2(word);
+            boolean[] known = state.known;
+            int[] value = state.value;
+            if (op == LOADC) {
+                if (known[a] && value[a] == words[i + 1]) {
+                    removed[i] = true;
+                    removed[i + 1] = true;
+                }
+            } else if (op == IF) {
+                removed[i] = known[a] && value[a] == 0;
+            } else if (op > STORE && known[b]) {
+                // A division that may fault must stay.
+                removed[i] = neutral(op, value[b])
+                             || known[a] && !(op == DIV && value[b] == 0) && evaluate(op, value[a], value[b]) == value[a];
+            }
+            step(state, i);
+            if (op == LOADC) {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Removes the instructions writing a register that is written again in the same basic block
+     * before being read. Every register is considered read at the end of a block.
+     */
+    private void removeDead() {
+        int live = 0xFF;
+        for (int i = codeEnd - 1; i >= 0; i--) {
+            if (leader[i + 1]) {
+                live = 0xFF;
+            }
+            if (constant[i] || removed[i]) {
+                continue;
+            }
+            int word = words[i];
+            int op = op(word);
+            int a = arg1(word);
+            int b = arg2(word);
+            switch (op) {
+                case HALT:
+                    live = 0xFF;
+                    break;
+                case LOAD:
+                    // A load may fault, so it stays even when its register is dead.
+                    live = live & ~(1 << a) | 1 << b;
+                    break;
+                case LOADC:
+                    if ((live & 1 << a) == 0) {
+                        removed[i] = true;
+                        removed[i + 1] = true;
+                    }
+                    live &= ~(1 << a);
+                    break;
+                case STORE:
+                case IF:
+                    live |= 1 << a | 1 << b;
+                    break;
+                default:
+                    if ((live & 1 << a) == 0 && op != DIV) {
+                        removed[i] = true;
+                    } else {
+                        boolean reads = op < NOT || op > RSHIFT;
+                        live = live & ~(1 << a) | (reads ? 1 << a : 0) | 1 << b;
+                    }
+            }
+        }
+    }
+
+    /**
+     * Records how an instruction of the optimized code uses the loadc constants held by its
+     * registers, and checks that every address that may point to a moved cell comes straight
+     * from a loadc whose constant can be moved along.
+     *
+     * @return
+     *  The reason the program cannot be relocated, or <code>null</code>.
+     */
+    private String trace(State state, int i) {
+        int word = words[i];
+        int op = op(word);
+        int a = arg1(word);
+        int b = arg2(word);
+        String where = " at " + hex(i);
+        switch (op) {
+            case HALT:
+            case LOADC:
+                // Registers are not used after the program halts.
+                return null;
+            case LOAD:
+            case STORE:
+            case IF: {
+                int address = op == STORE ? a : b;
+                if (!state.known[address]) {
+                    return "the address used by the " + Assembler.CMDS[op] + where + " is not known";
+                }
+                int target = state.value[address];
+                boolean code = target >= 0 && target < codeEnd;
+                if (op == STORE && code) {
+                    return "the store" + where + " changes the code";
+                }
+                if (op == LOAD && code && target >= firstRemoved) {
+                    return "the load" + where + " reads moved code";
+                }
+                if (op == LOAD && code && constant[target]) {
+                    read[target - 1] = true;
+                }
+                if (moves(target)) {
+                    if (state.origin[address] < 0) {
+                        return "the address used by the " + Assembler.CMDS[op] + where
+                               + (state.origin[address] == MIXED ? " comes from several loadc" : " is computed");
+                    }
+                    uses[state.origin[address]] |= ADDRESS;
+                }
+                if (op != LOAD) {
+                    use(state, op == STORE ? b : a);
+                }
+                return null;
+            }
+            default:
+                if (op < NOT || op > RSHIFT) {
+                    use(state, a);
+                }
+                use(state, b);
+                return null;
+        }
+    }
+
+    private void use(State state, int register) {
+        if (state.origin[register] >= 0) {
+            uses[state.origin[register]] |= NUMBER;
+        }
+    }
+
+    /**
+     * Checks that the loadc constants used as addresses of moved cells are not used in any other
+     * way. The constants never used as addresses are numbers and stay as they are.
+     *
+     * @return
+     *  The reason the program cannot be relocated, or <code>null</code>.
+     */
+    private String checkConstants() {
+        for (int i = 0; i < codeEnd; i++) {
+            if (constant[i] || removed[i] || (uses[i] & ADDRESS) == 0) {
+                continue;
+            }
+            String which = "the address " + hex(words[i + 1]) + " at " + hex(i + 1);
+            if ((uses[i] & NUMBER) != 0) {
+                return which + " is also used as a number";
+            }
+            if ((uses[i] & ESCAPES) != 0) {
+                return which + " meets other values where blocks join";
+            }
+            if (read[i]) {
+                return which + " is read by a load";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if an address points to a cell that moves when the removed cells are dropped.
+     */
+    private boolean moves(int address) {
+        // Cells past the program stay where they are.
+        return address > firstRemoved && address < words.length;
+    }
+
+    /**
+     * Builds the program without the removed cells, moving the loadc constants used as addresses.
+     */
+    private Program relocate(Program program) {
+        // New address of every cell of the program, removed cells map to the next kept cell.
+        int[] map = new int[words.length + 1];
+        int next = 0;
+        for (int i = 0; i < words.length; i++) {
+            map[i] = next;
+            if (i >= codeEnd || !removed[i]) {
+                next++;
+            }
+        }
+        map[words.length] = next;
+        int[] optimized = new int[next];
+        int[] lines = new int[next];
+        for (int i = 0; i < words.length; i++) {
+            if (i < codeEnd && removed[i]) {
+                continue;
+            }
+            int word = words[i];
+            if (i < codeEnd && constant[i] && uses[i - 1] == ADDRESS) {
+                word = map[word];
+            }
+            optimized[map[i]] = word;
+            lines[map[i]] = program.getLine(i);
+        }
+        Program result = Program.of(optimized, lines, map[codeEnd]);
+        result.setEntry(program.getEntry() >= 0 && program.getEntry() <= words.length ? map[program.getEntry()] : program.getEntry());
+        result.setMemorySize(program.getMemorySize());
+        return result;
+    }
+
+    /**
+     * Optimizes the programs given on the command line and reports, for each of them, the
+     * instructions removed and the instructions executed until halt before and after.
+     *
+     * @param args
+     *  The program files.
+     * @throws Exception
+     *  If a file cannot be read or assembled.
+     */
+    public static void main(String[] args) throws Exception {
+        for (String name : args) {
+            Path file = Paths.get(name);
+            Program original = Assembler.assemble(file);
+            Result result = optimize(original);
+            System.out.println(file.getFileName() + ": " + result + ", executed " + execute(original)
+                               + " -> " + execute(result.getProgram()));
+        }
+    }
+
+    private static RunResult execute(Program program) {
+        Memory memory = new Memory(Math.max(256, program.getMemorySize()));
+        program.load(memory);
+        Processor cpu = new Processor();
+        cpu.setMemory(memory);
+        cpu.setPC(program.getEntry());
+        return cpu.run(10_000_000L);
+    }
+}
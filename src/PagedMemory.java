@@ -0,0 +1,148 @@
+import java.nio.IntBuffer;
+import java.util.Objects;
+
+/**
+ * A {@link Memory} for very large address spaces that are only sparsely used. The cells are 
+ * split into fixed-size pages that are only allocated the first time one of their cells is 
+ * written. Cells of pages that were never written read as 0. 
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public class PagedMemory extends Memory {
+
+    // Number of cells in a page, as a power of 2. 
+    static final int PAGE_BITS = 10; 
+    static final int PAGE_SIZE = 1 << PAGE_BITS; 
+    static final int PAGE_MASK = PAGE_SIZE - 1; 
+
+    protected final int[][] pages; 
+
+    /**
+     * Creates a memory without any pages allocated. 
+     * 
+     * @param cap
+     *  The number of addressable cells. 
+     */
+    public PagedMemory(int cap) {
+        this(cap, new int[pageCount(cap)][]); 
+    }
+
+    /**
+     * Creates a memory using the given page table. 
+     * 
+     * @param cap
+     *  The number of addressable cells. 
+     * @param pages
+     *  The page table, with one entry per page and <code>null</code> for pages not allocated yet. 
+     */
+    protected PagedMemory(int cap, int[][] pages) {
+        super(cap, false); 
+        this.pages = pages; 
+    }
+
+    /**
+     * Gets the number of pages needed to hold a number of cells. 
+     * 
+     * @param cap
+     *  The number of cells. 
+     * @return
+     *  The number of pages. 
+     */
+    static int pageCount(int cap) {
+        return (int) ((cap + (long) PAGE_MASK) >>> PAGE_BITS); 
+    }
+
+    @Override
+    public int read(int address) {
+        int[] page = pages[Objects.checkIndex(address, getCapacity()) >>> PAGE_BITS]; 
+        return page == null ? 0 : page[address & PAGE_MASK]; 
+    }
+
+    @Override
+    public void write(int address, int data) {
+        int index = Objects.checkIndex(address, getCapacity()) >>> PAGE_BITS; 
+        int[] page = pages[index]; 
+        if (page == null) {
+            page = new int[PAGE_SIZE]; 
+            pages[index] = page; 
+        }
+        page[address & PAGE_MASK] = data; 
+        written(address); 
+    }
+
+    @Override
+    public void write(int address, IntBuffer data) {
+        Objects.checkFromIndexSize(address, data.remaining(), getCapacity()); 
+        int end = address + data.remaining(); 
+        for (int next = address; next < end; ) {
+            int length = Math.min(end - next, PAGE_SIZE - (next & PAGE_MASK)); 
+            data.get(writablePage(next >>> PAGE_BITS), next & PAGE_MASK, length); 
+            next += length; 
+        }
+        written(address, end); 
+    }
+
+    /**
+     * Gets a page that can be written to, allocating it if needed. Used by bulk writes. 
+     * 
+     * @param index
+     *  The index of the page. 
+     * @return
+     *  The cells of the page. 
+     */
+    protected int[] writablePage(int index) {
+        int[] page = pages[index]; 
+        if (page == null) {
+            page = new int[PAGE_SIZE]; 
+            pages[index] = page; 
+        }
+        return page; 
+    }
+
+    @Override
+    int[] copyPage(int index) {
+        int[] page = pages[index]; 
+        return page == null ? null : page.clone(); 
+    }
+
+    @Override
+    void restorePage(int index, int[] page) {
+        if (page != null) {
+            super.restorePage(index, page); 
+        } else if (pages[index] != null) {
+            // A page of 0 is simply dropped. 
+            pages[index] = null; 
+            int from = index << PAGE_BITS; 
+            written(from, Math.min(from + PAGE_SIZE, getCapacity())); 
+        }
+    }
+
+    /**
+     * Gets the number of pages that are currently allocated. 
+     * 
+     * @return
+     *  The number of resident pages. 
+     */
+    public int getResidentPages() {
+        int count = 0; 
+        for (int[] page : pages) {
+            if (page != null) {
+                count++; 
+            }
+        }
+        return count; 
+    }
+
+    /**
+     * Gets the number of bytes used by the allocated pages and the page table. 
+     * 
+     * @return
+     *  The number of bytes held by this memory. 
+     */
+    public long getResidentBytes() {
+        return (long) getResidentPages() * PAGE_SIZE * Integer.BYTES + (long) pages.length * Long.BYTES; 
+    }
+}
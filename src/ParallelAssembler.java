@@ -0,0 +1,351 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * Assembles programs split across many files, or held in very large files, on a
+ * {@link ForkJoinPool}. Files are cut into chunks at line ends, the chunks are translated in
+ * parallel and then linked into a single {@link Program} that is identical to the one
+ * {@link Assembler#assemble(List)} produces for the same files.
+ *
+ * <p>
+ * The assembler keeps the chunks of its last build. Building again only translates the chunks
+ * whose content changed, chunks are found by a checksum and compared byte for byte. Chunk
+ * boundaries depend on the content of the lines around them, so inserting lines into a large file
+ * only changes the chunks near the edit.
+ * </p>
+ *
+ * <p>
+ * Whether a chunk is code or data depends on the chunks before it: the first halt of the program
+ * starts its data. Chunks are first translated as code, then the chunks after the first halt are
+ * translated again as data, which usually fails fast on the first data line when done as code.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class ParallelAssembler {
+
+    // Chunks are cut at the first suitable line end after MIN_CHUNK bytes and at the latest
+    // after MAX_CHUNK bytes. A line end is suitable when the top CUT_BITS bits of the hash of the
+    // last WINDOW lines are clear.
+    static final int MIN_CHUNK = 1 << 18;
+    static final int MAX_CHUNK = 1 << 21;
+    private static final int CUT_BITS = 13;
+    private static final int WINDOW = 4;
+    // Bytes before MIN_CHUNK whose lines are hashed, so the window is full at MIN_CHUNK.
+    private static final int HASHED = 1 << 10;
+
+    private final ForkJoinPool pool;
+    // Translations of the last build, by content and mode. Only touched between tasks.
+    private Map<String, Translation> translations = new HashMap<>();
+    private final AtomicInteger translated = new AtomicInteger();
+    private final AtomicInteger reused = new AtomicInteger();
+
+    /**
+     * Creates an assembler running on the common pool.
+     */
+    public ParallelAssembler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates an assembler running on a given pool.
+     *
+     * @param pool
+     *  The pool translating the chunks.
+     */
+    public ParallelAssembler(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * A part of a file, starting at a line.
+     */
+    private static final class Chunk {
+
+        private final String file;
+        private final boolean source;
+        private final byte[] bytes;
+        private final int from;
+        private final int to;
+        // The number of lines of the file before the chunk.
+        private final int lineOffset;
+        private String hash;
+        // Translations as code and as data, filled in by the tasks.
+        private Translation code;
+        private Translation data;
+
+        private Chunk(String file, boolean source, byte[] bytes, int from, int to, int lineOffset) {
+            this.file = file;
+            this.source = source;
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            this.lineOffset = lineOffset;
+        }
+
+        private String key(boolean asData) {
+            // Files that are not source are data either way.
+            return hash + (source ? asData ? ":d" : ":c" : ":x");
+        }
+
+        private boolean matches(Translation translation) {
+            return Arrays.equals(bytes, from, to, translation.bytes, translation.from, translation.to);
+        }
+    }
+
+    /**
+     * Result of translating a chunk: either its words or the error it contains. The content of
+     * the chunk is kept to tell chunks apart whose hashes collide.
+     */
+    private static final class Translation {
+
+        private final byte[] bytes;
+        private final int from;
+        private final int to;
+        private final Program program;
+        private final AssemblyException error;
+
+        private Translation(Chunk chunk, Program program, AssemblyException error) {
+            this.bytes = chunk.bytes;
+            this.from = chunk.from;
+            this.to = chunk.to;
+            this.program = program;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Assembles the files of a program.
+     *
+     * @param files
+     *  The files of the program, in address order.
+     * @return
+     *  The translated program.
+     * @throws IOException
+     *  If a file cannot be read.
+     * @throws AssemblyException
+     *  If a line cannot be translated, the exception names the file.
+     */
+    public synchronized Program assemble(List<Path> files) throws IOException, AssemblyException {
+        long start = System.nanoTime();
+        try {
+            return build(files);
+        } finally {
+            SimulatorMetrics.get().assembled(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Splits, translates and joins the files, see {@link #assemble(List)}.
+     */
+    private Program build(List<Path> files) throws IOException, AssemblyException {
+        List<Chunk> chunks = new ArrayList<>();
+        for (Path file : files) {
+            split(file.toString(), Assembler.checkFile(file.toFile()), Files.readAllBytes(file), chunks);
+        }
+        Map<String, Translation> previous = translations;
+        Map<String, Translation> current = new ConcurrentHashMap<>();
+        translated.set(0);
+        reused.set(0);
+
+        // Translate every chunk as code, except chunks of data files.
+        pool.invoke(new Translate(chunks, 0, chunks.size(), false, previous, current));
+
+        // The chunks after the first halt (or after the first error) do not need their code.
+        int first = 0;
+        while (first < chunks.size() && chunks.get(first).code.error == null
+               && !chunks.get(first).code.program.hasCodeEnd()) {
+            first++;
+        }
+        if (first < chunks.size() && chunks.get(first).code.error != null) {
+            // An error before any halt is an error of the program.
+            translations = new HashMap<>(current);
+            throw rebase(chunks.get(first), chunks.get(first).code.error);
+        }
+        pool.invoke(new Translate(chunks, first + 1, chunks.size(), true, previous, current));
+        translations = new HashMap<>(current);
+
+        int size = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Translation translation = i <= first ? chunks.get(i).code : chunks.get(i).data;
+            if (translation.error != null) {
+                throw rebase(chunks.get(i), translation.error);
+            }
+            size = Math.addExact(size, translation.program.getSize());
+        }
+        int[] words = new int[size];
+        int[] lines = new int[size];
+        int codeEnd = -1;
+        int offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Program part = (i <= first ? chunks.get(i).code : chunks.get(i).data).program;
+            part.copyTo(words, lines, offset, chunks.get(i).lineOffset);
+            if (i == first) {
+                codeEnd = offset + part.getCodeEnd();
+            }
+            offset += part.getSize();
+        }
+        return Program.of(words, lines, codeEnd);
+    }
+
+    /**
+     * Gets the number of chunks the last build had to translate. A chunk after the first halt
+     * that changed counts twice, once as code and once as data.
+     *
+     * @return
+     *  The number of translations done.
+     */
+    public int getTranslated() {
+        return translated.get();
+    }
+
+    /**
+     * Gets the number of chunk translations the last build took from the build before it.
+     *
+     * @return
+     *  The number of translations reused.
+     */
+    public int getReused() {
+        return reused.get();
+    }
+
+    /**
+     * Cuts the content of a file into chunks at line ends.
+     */
+    private static void split(String file, boolean source, byte[] bytes, List<Chunk> chunks) {
+        int start = 0;
+        int lines = 0;
+        int startLine = 0;
+        int lineStart = 0;
+        long[] window = new long[WINDOW];
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            lines++;
+            int length = i + 1 - start;
+            boolean cut = length >= MAX_CHUNK;
+            // Only the lines close to the minimum size can decide where the chunk ends.
+            if (!cut && length >= MIN_CHUNK - HASHED) {
+                window[lines % WINDOW] = lineHash(bytes, lineStart, i);
+                if (length >= MIN_CHUNK) {
+                    long hash = 0;
+                    // Oldest line first, whatever the number of the line.
+                    for (int k = 1; k <= WINDOW; k++) {
+                        hash = (hash + window[(lines + k) % WINDOW]) * 0x9E3779B97F4A7C15L;
+                    }
+                    cut = (hash >>> (Long.SIZE - CUT_BITS)) == 0;
+                }
+            }
+            lineStart = i + 1;
+            if (cut) {
+                chunks.add(new Chunk(file, source, bytes, start, i + 1, startLine));
+                start = i + 1;
+                startLine = lines;
+                Arrays.fill(window, 0);
+            }
+        }
+        if (start < bytes.length || start == 0) {
+            chunks.add(new Chunk(file, source, bytes, start, bytes.length, startLine));
+        }
+    }
+
+    private static long lineHash(byte[] bytes, int from, int to) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ bytes[i]) * 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    private static AssemblyException rebase(Chunk chunk, AssemblyException error) {
+        return new AssemblyException(chunk.file, error.getLine() + chunk.lineOffset, error.getDetail());
+    }
+
+    /**
+     * Translates a range of chunks, splitting it in halves until a single chunk is left.
+     */
+    private final class Translate extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Chunk> chunks;
+        private final int from;
+        private final int to;
+        private final boolean asData;
+        private final Map<String, Translation> previous;
+        private final Map<String, Translation> current;
+
+        private Translate(List<Chunk> chunks, int from, int to, boolean asData,
+                          Map<String, Translation> previous, Map<String, Translation> current) {
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.asData = asData;
+            this.previous = previous;
+            this.current = current;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Translate(chunks, from, middle, asData, previous, current),
+                          new Translate(chunks, middle, to, asData, previous, current));
+            } else if (to > from) {
+                Chunk chunk = chunks.get(from);
+                if (chunk.hash == null) {
+                    chunk.hash = hash(chunk);
+                }
+                Translation translation = translate(chunk, asData || !chunk.source);
+                if (asData) {
+                    chunk.data = translation;
+                } else {
+                    chunk.code = translation;
+                }
+            }
+        }
+
+        private Translation translate(Chunk chunk, boolean data) {
+            String key = chunk.key(data);
+            Translation translation = current.get(key);
+            if (translation != null && chunk.matches(translation)) {
+                return translation;
+            }
+            translation = previous.get(key);
+            if (translation != null && chunk.matches(translation)) {
+                reused.incrementAndGet();
+            } else {
+                try {
+                    translation = new Translation(chunk, Assembler.assemble(chunk.bytes, chunk.from, chunk.to, chunk.source, data), null);
+                } catch (AssemblyException e) {
+                    translation = new Translation(chunk, null, e);
+                }
+                translated.incrementAndGet();
+            }
+            current.put(key, translation);
+            return translation;
+        }
+    }
+
+    private static String hash(Chunk chunk) {
+        // A cheap checksum is enough, translations are only reused when the content is equal.
+        CRC32C crc = new CRC32C();
+        crc.update(chunk.bytes, chunk.from, chunk.to - chunk.from);
+        return Long.toHexString(crc.getValue()) + "/" + (chunk.to - chunk.from);
+    }
+}
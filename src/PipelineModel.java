@@ -0,0 +1,258 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Timing model of a classic 5-stage pipeline (fetch, decode, execute, memory, write back) fed by
+ * the instructions a {@link Processor} executes. The model only counts cycles, the functional
+ * results come from the Processor as always.
+ *
+ * <p>
+ * Every instruction takes a cycle per stage, and every source register is needed at the start of
+ * execute. A result can be used by the next instruction's execute when forwarding is on, except
+ * the result of a load, which comes out of the memory stage one cycle later (the load-use
+ * hazard). Without forwarding, results are read back from the register file, written in the
+ * first half of write back and read in the second half of decode. Branches are predicted not
+ * taken and resolved in execute, so a taken <code>if</code> flushes the two instructions fetched
+ * behind it. A loadc fetches its constant with the instruction.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class PipelineModel {
+
+    // Cycles from fetch to execute of the first instruction, and from execute to write back.
+    private static final int FILL = 2;
+    private static final int DRAIN = 2;
+    // Instructions fetched behind a branch by the time it is resolved.
+    private static final int BRANCH_PENALTY = 2;
+
+    private final boolean forwarding;
+    // Cycle each register can be used from by an instruction in execute.
+    private final long[] ready = new long[8];
+    // Cycle the last instruction was in execute, and the earliest cycle the next one can be.
+    private long lastExecute;
+    private long nextExecute;
+    // Register written by the previous instruction if it was a load, -1 otherwise.
+    private int lastLoad;
+    private long instructions;
+    private long dataStalls;
+    private long loadUseStalls;
+    private long flushes;
+    private long taken;
+    private long[] stalls = new long[Counters.INITIAL_SIZE];
+    private long[] flushed = new long[Counters.INITIAL_SIZE];
+    private long[] counts = new long[Counters.INITIAL_SIZE];
+
+    /**
+     * Creates a model of an empty pipeline.
+     *
+     * @param forwarding
+     *  <code>true</code> to forward results to the next instructions, <code>false</code> to wait
+     *  for them to be written back.
+     */
+    public PipelineModel(boolean forwarding) {
+        this.forwarding = forwarding;
+        reset();
+    }
+
+    /**
+     * Tells whether results are forwarded.
+     *
+     * @return
+     *  <code>true</code> if the model forwards results.
+     */
+    public boolean isForwarding() {
+        return forwarding;
+    }
+
+    /**
+     * Adds an executed instruction to the pipeline.
+     *
+     * @param pc
+     *  The address of the instruction.
+     * @param command
+     *  The opcode, 0-15.
+     * @param arg1
+     *  The first register argument.
+     * @param arg2
+     *  The second register argument.
+     * @param jumped
+     *  <code>true</code> for an if whose condition held.
+     */
+    void issue(int pc, int command, int arg1, int arg2, boolean jumped) {
+        if (pc >= counts.length) {
+            grow(pc);
+        }
+        long execute = nextExecute;
+        // Registers read: both for stores, ifs and the operations that update arg1, only arg2 for
+        // load, not and the shifts, none for loadc and halt.
+        boolean readsFirst = command == 3 || command == 15 || (command >= 4 && command <= 9) || command == 13 || command == 14;
+        boolean readsSecond = command != 0 && command != 2;
+        if (readsFirst) {
+            execute = Math.max(execute, ready[arg1]);
+        }
+        if (readsSecond) {
+            execute = Math.max(execute, ready[arg2]);
+        }
+        long stalled = execute - nextExecute;
+        if (stalled > 0) {
+            dataStalls += stalled;
+            stalls[pc] += stalled;
+            if (readsFirst && arg1 == lastLoad || readsSecond && arg2 == lastLoad) {
+                loadUseStalls += stalled;
+            }
+        }
+        lastLoad = -1;
+        if (command != 0 && command != 3 && command != 15) {
+            // Every other instruction writes arg1.
+            ready[arg1] = execute + (!forwarding ? 3 : command == 1 ? 2 : 1);
+            if (command == 1) {
+                lastLoad = arg1;
+            }
+        }
+        counts[pc]++;
+        instructions++;
+        lastExecute = execute;
+        nextExecute = execute + 1;
+        if (jumped) {
+            taken++;
+            flushes += BRANCH_PENALTY;
+            flushed[pc] += BRANCH_PENALTY;
+            nextExecute += BRANCH_PENALTY;
+        }
+    }
+
+    private void grow(int pc) {
+        stalls = Counters.cover(stalls, pc);
+        flushed = Counters.cover(flushed, pc);
+        counts = Counters.cover(counts, pc);
+    }
+
+    /**
+     * Gets the number of instructions that went through the pipeline.
+     *
+     * @return
+     *  The instructions modeled.
+     */
+    public long getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * Gets the number of cycles from the fetch of the first instruction to the write back of the
+     * last one.
+     *
+     * @return
+     *  The cycles, 0 before the first instruction.
+     */
+    public long getCycles() {
+        return instructions == 0 ? 0 : lastExecute + DRAIN;
+    }
+
+    /**
+     * Gets the average number of cycles per instruction.
+     *
+     * @return
+     *  The CPI, 0 before the first instruction.
+     */
+    public double getCPI() {
+        return instructions == 0 ? 0 : (double) getCycles() / instructions;
+    }
+
+    /**
+     * Gets the cycles lost waiting for a register written by an earlier instruction.
+     *
+     * @return
+     *  The data hazard stall cycles.
+     */
+    public long getDataStalls() {
+        return dataStalls;
+    }
+
+    /**
+     * Gets the cycles lost waiting for the result of the load just before.
+     *
+     * @return
+     *  The load-use stall cycles, part of {@link #getDataStalls()}.
+     */
+    public long getLoadUseStalls() {
+        return loadUseStalls;
+    }
+
+    /**
+     * Gets the cycles lost to the instructions flushed behind taken branches.
+     *
+     * @return
+     *  The flushed cycles.
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    /**
+     * Gets the stall cycles of the instruction at an address, data hazards and flushes.
+     *
+     * @param address
+     *  The address of the instruction.
+     * @return
+     *  The cycles lost waiting for its registers or flushed after it.
+     */
+    public long getStalls(int address) {
+        return address >= 0 && address < counts.length ? stalls[address] + flushed[address] : 0;
+    }
+
+    /**
+     * Empties the pipeline and clears every counter.
+     */
+    public void reset() {
+        Arrays.fill(ready, 0);
+        Arrays.fill(stalls, 0);
+        Arrays.fill(flushed, 0);
+        Arrays.fill(counts, 0);
+        lastExecute = 0;
+        nextExecute = FILL + 1;
+        lastLoad = -1;
+        instructions = 0;
+        dataStalls = 0;
+        loadUseStalls = 0;
+        flushes = 0;
+        taken = 0;
+    }
+
+    /**
+     * Formats the totals, the breakdown of the stalls and the instructions that lost the most
+     * cycles, with their source lines when the program was assembled from text.
+     *
+     * @param program
+     *  The program that ran, or <code>null</code> to leave the source lines out.
+     * @return
+     *  The lines of the report.
+     */
+    public List<String> report(Program program) {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("%d instructions, %d cycles, CPI %.3f (%s)", instructions, getCycles(), getCPI(),
+                                forwarding ? "forwarding" : "no forwarding"));
+        if (instructions == 0) {
+            return lines;
+        }
+        lines.add(String.format("  pipeline fill and drain %d cycles", FILL + DRAIN));
+        lines.add(String.format("  data hazard stalls      %d cycles, %d of them load-use", dataStalls, loadUseStalls));
+        lines.add(String.format("  branch flushes          %d cycles, %d taken ifs", flushes, taken));
+        long[] lost = new long[counts.length];
+        for (int address = 0; address < lost.length; address++) {
+            lost[address] = stalls[address] + flushed[address];
+        }
+        List<Integer> addresses = Counters.top(lost);
+        lines.add("stalls by instruction, data / flushed:" + (addresses.isEmpty() ? " none" : ""));
+        for (int address : addresses) {
+            lines.add(String.format("  %6s %-11s %10d / %-10d in %d executions", Memory.getHex(address),
+                                    Counters.line(program, address),
+                                    stalls[address], flushed[address], counts[address]));
+        }
+        return lines;
+    }
+}
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * Class to simulate processor of Micro-1 chip. This manipulates the values 
  * stored in the {@link Memory} class and assigns them to the appropriate
@@ -21,6 +23,71 @@ public class Processor {
     private int IR; 
     private Memory memory; 
 
+    // Smallest predecode table allocated, tables grow by doubling up to the memory capacity. 
+    private static final int MIN_DECODED = 256; 
+    // Set in every decoded entry so that an all-zero entry means "not decoded yet". 
+    private static final long DECODED = 1L << 12; 
+    // Set in the entries of the instructions that may hit a breakpoint or watchpoint. 
+    private static final long TRAP = 1L << 13; 
+    // What a trapped instruction does, see trap. 
+    private static final int NO_STOP = 0; 
+    private static final int STOP_BEFORE = 1; 
+    private static final int STOP_AFTER = 2; 
+
+    // Predecoded instructions indexed by address. Each entry packs the opcode (bits 8-11), 
+    // both register arguments (bits 4-7 and 0-3) and, in the upper 32 bits, the value the 
+    // instruction leaves in the IR: the inline constant for loadc, otherwise the instruction word. 
+    private long[] decoded; 
+    // Words of the instructions fused with the one at the same index: the first follower in 
+    // bits 0-11 and, for triples, the second follower in bits 12-23. 
+    private int[] fused; 
+    // Bits 16-19 of a decoded entry hold the kind of superinstruction starting there, 0 for none. 
+    private static final long FUSION_BITS = 0b1111L << 16; 
+    // Fused sequences never run into the last steps of a run, so they always fit the budget. 
+    private static final int MAX_FUSED_STEPS = 3; 
+    private static final int LOAD_ADD_ADD = 1; 
+    private static final int LOAD_ADD = 2; 
+    private static final int LOADC_ADD = 3; 
+    private static final int LOADC_SUB = 4; 
+    private static final int LOADC_MUL = 5; 
+    private static final int ADD_ADD = 6; 
+    private static final int ADD_IF = 7; 
+    private static final int SUB_IF = 8; 
+    private static final String[] FUSION_NAMES = {null, "load add add", "load add", "loadc add", "loadc sub", 
+                                                  "loadc mul", "add add", "add if", "sub if"}; 
+    private static final int[] FUSION_STEPS = {0, 3, 2, 2, 2, 2, 2, 2, 2}; 
+    private boolean fusion = true; 
+    // Number of times each kind of superinstruction was executed. 
+    private final long[] fusionCounts = new long[FUSION_NAMES.length]; 
+    // Number of instructions executed by the last call to execute. 
+    private long lastSteps; 
+    // Number of loads and stores among them, for the metrics. 
+    private long lastLoads; 
+    private long lastStores; 
+    // JIT tier used by run, null while the JIT is disabled or there is no memory yet. 
+    private BlockCompiler jit; 
+    private boolean jitEnabled; 
+    // Old values overwritten by each instruction, for stepBack. Null while disabled, which keeps 
+    // run on the fused and compiled paths. 
+    private UndoLog undo; 
+    // Binary trace of every executed instruction, null while not recording. 
+    private TraceRecorder trace; 
+    // Execution counters, null while not profiling. 
+    private Profiler profiler; 
+    // Pipeline timing model, null while cycles are not counted. 
+    private PipelineModel pipeline; 
+    // Simulated caches in front of memory, null while not simulated. 
+    private CacheHierarchy caches; 
+    // Branch predictor trained on the executed ifs, and the ifs recorded for later, null while off. 
+    private BranchPredictor predictor; 
+    private BranchStream branches; 
+    // Breakpoints and watchpoints, and the version the predecoded instructions were marked for. 
+    private final Breakpoints breakpoints = new Breakpoints(); 
+    private int breakpointsVersion; 
+    // Address of the breakpoint the last run stopped at, which the next run executes first 
+    // instead of stopping there again, -1 for none. 
+    private int resume = -1; 
+
 
     public Processor() {
         this.reg = new int[8]; 
@@ -34,7 +101,313 @@ public class Processor {
      *  The amount of memory allocated for the Processor. 
      */
     public void setMemory(Memory memory) {
+        if (this.memory != null) {
+            this.memory.attach(null); 
+        }
         this.memory = memory; 
+        memory.attach(this); 
+        if (undo != null) {
+            undo.clear(); 
+        }
+        decoded = new long[Math.min(memory.getCapacity(), MIN_DECODED)]; 
+        fused = new int[decoded.length]; 
+        if (jitEnabled) {
+            jit = new BlockCompiler(this, memory.getCapacity()); 
+        }
+    }
+
+    /**
+     * Enables or disables the JIT tier. While enabled, {@link #run(long)} compiles the basic blocks 
+     * it executes often to JVM bytecode and runs those instead of interpreting them. The JIT can 
+     * be enabled before the memory is set, the compiler is created along with the memory then. 
+     * 
+     * @param enabled
+     *  <code>true</code> to compile hot blocks, <code>false</code> to only interpret. 
+     */
+    public void setJit(boolean enabled) {
+        jitEnabled = enabled; 
+        if (!enabled) {
+            jit = null; 
+        } else if (jit == null && memory != null) {
+            jit = new BlockCompiler(this, memory.getCapacity()); 
+        }
+    }
+
+    /**
+     * Enables or disables superinstructions. While enabled, {@link #run(long)} executes common 
+     * sequences of two or three instructions (such as <code>load 3 0; add 1 3; add 0 2</code> or a 
+     * loadc followed by arithmetic) with a single dispatch. The results are identical either way, 
+     * a jump into the middle of a sequence simply executes the remaining instructions one by one. 
+     * 
+     * @param enabled
+     *  <code>true</code> to fuse instruction sequences, <code>false</code> to execute them one by one. 
+     */
+    public void setFusion(boolean enabled) {
+        fusion = enabled; 
+        if (decoded != null) {
+            Arrays.fill(decoded, 0); 
+        }
+    }
+
+    /**
+     * Sets how many instructions {@link #stepBack(int)} can undo. While enabled, every instruction 
+     * records the PC, IR and the register or memory cell it overwrites into a buffer allocated 
+     * here, and {@link #run(long)} executes instructions one at a time instead of fusing or 
+     * compiling them. 
+     * 
+     * @param depth
+     *  The number of instructions to keep, 0 to disable the log at no cost to execution. 
+     */
+    public void setUndoDepth(int depth) {
+        if (depth <= 0) {
+            undo = null; 
+        } else if (undo == null || undo.getDepth() != depth) {
+            undo = new UndoLog(depth); 
+        }
+    }
+
+    /**
+     * Gets how many instructions can be undone at most. 
+     * 
+     * @return
+     *  The depth of the undo log, 0 while it is disabled. 
+     */
+    public int getUndoDepth() {
+        return undo == null ? 0 : undo.getDepth(); 
+    }
+
+    /**
+     * Undoes the last instructions executed, restoring the registers, memory cells, PC and IR 
+     * they changed. Instructions executed before the log was enabled, before the memory or PC was 
+     * set, or before the oldest entry of a full log cannot be undone. 
+     * 
+     * @param steps
+     *  The number of instructions to undo. 
+     * @return
+     *  The number of instructions undone, less than asked for when the log runs out. 
+     */
+    public int stepBack(int steps) {
+        int undone = 0; 
+        while (undone < steps && undo != null) {
+            int slot = undo.pop(); 
+            if (slot < 0) {
+                break; 
+            }
+            int target = undo.getTarget(slot); 
+            if (target >= 0) {
+                memory.write(target, undo.getOld(slot)); 
+            } else if (target != UndoLog.NONE) {
+                reg[-1 - target] = undo.getOld(slot); 
+            }
+            PC = undo.getPC(slot); 
+            IR = undo.getIR(slot); 
+            undone++; 
+        }
+        if (undone > 0) {
+            // Back before the breakpoint the last run stopped at, the next run stops there again. 
+            resume = -1; 
+        }
+        return undone; 
+    }
+
+    /**
+     * Lists how often each kind of superinstruction was executed and how many dispatches that saved. 
+     * 
+     * @return
+     *  One line per kind of superinstruction followed by the total number of dispatches saved. 
+     */
+    public String[] fusionReport() {
+        String[] lines = new String[FUSION_NAMES.length]; 
+        long saved = 0; 
+        for (int kind = 1; kind < FUSION_NAMES.length; kind++) {
+            long count = fusionCounts[kind]; 
+            saved += count * (FUSION_STEPS[kind] - 1); 
+            lines[kind - 1] = FUSION_NAMES[kind] + ": " + count + " times, " 
+                              + count * (FUSION_STEPS[kind] - 1) + " dispatches saved"; 
+        }
+        lines[lines.length - 1] = "total dispatches saved: " + saved; 
+        return lines; 
+    }
+
+    /**
+     * Starts or stops recording every executed instruction. Like the caches, recording makes 
+     * {@link #run(long)} execute instructions one at a time without superinstructions or the JIT. 
+     * The recorder is not closed when it is 
+     * replaced or removed. 
+     * 
+     * @param recorder
+     *  The trace to append to, <code>null</code> to stop recording. 
+     */
+    public void setTrace(TraceRecorder recorder) {
+        trace = recorder; 
+    }
+
+    /**
+     * Gets the trace being recorded. 
+     * 
+     * @return
+     *  The recorder or <code>null</code> if no trace is being recorded. 
+     */
+    public TraceRecorder getTrace() {
+        return trace; 
+    }
+
+    /**
+     * Starts or stops profiling. While a profiler is set, {@link #run(long)} executes instructions 
+     * one at a time and counts each of them, without one execution costs nothing extra. 
+     * 
+     * @param profiler
+     *  The counters to add to, <code>null</code> to stop profiling. 
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler; 
+    }
+
+    /**
+     * Gets the profiler counting executed instructions. 
+     * 
+     * @return
+     *  The profiler or <code>null</code> if profiling is off. 
+     */
+    public Profiler getProfiler() {
+        return profiler; 
+    }
+
+    /**
+     * Starts or stops counting cycles. While a timing model is set, {@link #run(long)} executes 
+     * instructions one at a time and feeds each of them to the model, the results are the same 
+     * either way. Without one execution costs nothing extra. 
+     * 
+     * @param model
+     *  The pipeline to feed, <code>null</code> to stop counting cycles. 
+     */
+    public void setPipeline(PipelineModel model) {
+        pipeline = model; 
+    }
+
+    /**
+     * Gets the pipeline timing model. 
+     * 
+     * @return
+     *  The model or <code>null</code> if cycles are not counted. 
+     */
+    public PipelineModel getPipeline() {
+        return pipeline; 
+    }
+
+    /**
+     * Starts or stops simulating caches. While a hierarchy is set, {@link #run(long)} executes 
+     * instructions one at a time without superinstructions or the JIT, fetching each of them and 
+     * reading or writing its data through the caches. The values still come from memory, so the 
+     * results are the same either way. 
+     * 
+     * @param hierarchy
+     *  The caches to go through, <code>null</code> to stop simulating them. 
+     */
+    public void setCaches(CacheHierarchy hierarchy) {
+        caches = hierarchy; 
+    }
+
+    /**
+     * Gets the simulated caches. 
+     * 
+     * @return
+     *  The cache hierarchy or <code>null</code> if caches are not simulated. 
+     */
+    public CacheHierarchy getCaches() {
+        return caches; 
+    }
+
+    /**
+     * Starts or stops training a branch predictor. While a predictor is set, {@link #run(long)} 
+     * executes instructions one at a time and each executed if is predicted, then trained on. 
+     * 
+     * @param model
+     *  The predictor, <code>null</code> to stop predicting. 
+     */
+    public void setPredictor(BranchPredictor model) {
+        predictor = model; 
+    }
+
+    /**
+     * Gets the branch predictor. 
+     * 
+     * @return
+     *  The predictor or <code>null</code> if branches are not predicted. 
+     */
+    public BranchPredictor getPredictor() {
+        return predictor; 
+    }
+
+    /**
+     * Starts or stops recording the executed ifs, to try predictors on them later. While a stream 
+     * is set, {@link #run(long)} executes instructions one at a time. 
+     * 
+     * @param stream
+     *  The stream to append to, <code>null</code> to stop recording. 
+     */
+    public void setBranches(BranchStream stream) {
+        branches = stream; 
+    }
+
+    /**
+     * Gets the stream the executed ifs are recorded to. 
+     * 
+     * @return
+     *  The stream or <code>null</code> if branches are not recorded. 
+     */
+    public BranchStream getBranches() {
+        return branches; 
+    }
+
+    /**
+     * Gets the breakpoints and watchpoints. Changes to them apply from the next call to 
+     * {@link #run(long)} or {@link #step()}. While none are set, execution costs nothing extra. 
+     * 
+     * @return
+     *  The breakpoints of the Processor. 
+     */
+    public Breakpoints getBreakpoints() {
+        return breakpoints; 
+    }
+
+    /**
+     * Predecodes the instructions again if the breakpoints changed since they were marked. 
+     */
+    private void syncBreakpoints() {
+        if (breakpoints.getVersion() != breakpointsVersion) {
+            breakpointsVersion = breakpoints.getVersion(); 
+            if (decoded != null) {
+                Arrays.fill(decoded, 0); 
+            }
+        }
+    }
+
+    /**
+     * Tells whether an instrument (undo log, profiler, timing model or branch models) needs every 
+     * instruction to go through {@link #executeStepwise(long)}. A trace and the caches on their own 
+     * go through {@link #executeObserved(long)} instead. 
+     */
+    private boolean instrumented() {
+        return undo != null || profiler != null || pipeline != null || predictor != null || branches != null; 
+    }
+
+    /**
+     * Tells whether a trace or the caches need every instruction to go through 
+     * {@link #executeObserved(long)}, when nothing needs {@link #executeStepwise(long)}. 
+     */
+    private boolean observed() {
+        return trace != null || caches != null; 
+    }
+
+    /**
+     * Gets the JIT tier of the Processor. 
+     * 
+     * @return
+     *  The block compiler or <code>null</code> if the JIT is disabled. 
+     */
+    BlockCompiler getJit() {
+        return jit; 
     }
 
 
@@ -45,6 +418,11 @@ public class Processor {
      */
     public void setPC(int address) {
         this.PC = address; 
+        resume = -1; 
+        if (undo != null) {
+            // Execution continues somewhere else, there is nothing left to go back to. 
+            undo.clear(); 
+        }
     }
 
 
@@ -53,101 +431,902 @@ public class Processor {
      * 
      * @return
      *  Boolean value representing if the halt command or unknown command was reached.  
-     * @throws
-     *  ArithmeticException should there be a divison by 0. 
      */
     public boolean step() {
-        IR = memory.read(PC++); // Get the address of the instruction set. 
-        int command = (IR & 0b111100000000) >> 8; 
-        int arg1 = (IR & 0b000011110000) >> 4;
-        int arg2 = (IR & 0b000000001111);
-        switch (command) {
-            case 0: 
-                // Halt program. Does not have to deal with possibility that this is to load a value into a register. 
-                // HANDLED BY case 2 block. 
-                return true; 
-            case 1: 
-                // load a b = reg[a] = cell[reg[b]]
-                reg[arg1] = memory.read(reg[arg2]); 
-                return false;  
-            case 2: 
-                // loadc a
-                reg[arg1] = (IR = memory.read(PC++)); 
-                // Goes back to the next logical unit. 
+        syncBreakpoints(); 
+        // A single step always executes the instruction, even at a breakpoint. 
+        resume = PC; 
+        ExitReason reason = instrumented() ? executeStepwise(1) : observed() ? executeObserved(1) : execute(1, false); 
+        SimulatorMetrics.get().ran(reason, lastSteps, lastLoads, lastStores, 0); 
+        switch (reason) {
+            case STEP_LIMIT: 
                 return false; 
-            case 3: 
-                // store a b = cell[reg[a]] = reg[b] 
-                memory.write(reg[arg1], reg[arg2]);  
+            case DIVIDE_BY_ZERO: 
+                // The div is skipped and the program can carry on. 
+                System.out.println("Cannot divide by 0. ");
                 return false; 
-            case 4: 
-                // add a b = reg[a] = reg[a] + reg[b]
-                reg[arg1] += reg[arg2]; 
-                return false; 
-            case 5: 
-                // mul a b = reg[a] = reg[a] * reg[b]
-                reg[arg1] *= reg[arg2]; 
+            case HALT: 
+                return true; 
+            case WATCHPOINT: 
+                System.out.println(breakpoints.getHit()); 
                 return false; 
-            case 6:
-                // sub a b = reg[a] = reg[a] - reg[b]
-                reg[arg1] -= reg[arg2]; 
-                return false;
-            case 7: 
-                // div a b = reg[a] = reg[a] - reg[b]; 
+            default: 
+                System.out.println(reason.getMessage() + " at " + Memory.getHex(PC));
+                return true; 
+        }
+    }
+
+    /**
+     * Executes instructions until a halt, a fault or until the maximum number of steps have been executed. 
+     * The PC, IR and registers are kept in locals while running and only written back when the run ends. 
+     * 
+     * @param maxSteps
+     *  The maximum number of instructions to execute. 
+     * @return
+     *  Why the Processor stopped and how many instructions it executed. 
+     */
+    public RunResult run(long maxSteps) {
+        RunEvent event = new RunEvent(); 
+        event.begin(); 
+        long start = System.nanoTime(); 
+        syncBreakpoints(); 
+        // Compiled blocks do not stop at breakpoints. 
+        ExitReason reason = instrumented() ? executeStepwise(maxSteps) : observed() ? executeObserved(maxSteps) 
+                            : jit != null && breakpoints.isEmpty() ? executeJit(maxSteps) : execute(maxSteps, false); 
+        SimulatorMetrics.get().ran(reason, lastSteps, lastLoads, lastStores, System.nanoTime() - start); 
+        if (event.shouldCommit()) {
+            event.steps = lastSteps; 
+            event.reads = lastLoads; 
+            event.writes = lastStores; 
+            event.reason = reason.name(); 
+            event.commit(); 
+        }
+        return new RunResult(reason, lastSteps); 
+    }
+
+    /**
+     * The interpreter loop behind {@link #step()} and {@link #run(long)}. A halt or div counts as an 
+     * executed step (the div by 0 leaves its register unchanged), while an instruction that faults 
+     * is not executed and the PC is left pointing at it. 
+     * 
+     * @param maxSteps
+     *  The maximum number of instructions to execute. 
+     * @param blockOnly
+     *  <code>true</code> to also stop (with {@link ExitReason#STEP_LIMIT}) after an if or store, 
+     *  meaning the end of a basic block. 
+     * @return
+     *  Why the Processor stopped. The number of steps executed is stored in {@link #lastSteps}. 
+     */
+    private ExitReason execute(long maxSteps, boolean blockOnly) {
+        final int[] r = reg; 
+        final Memory mem = memory; 
+        final int cap = mem.getCapacity(); 
+        final long[] fusedRuns = fusionCounts; 
+        long[] table = decoded; 
+        int[] followers = fused; 
+        int pc = PC; 
+        int ir = IR; 
+        int skip = resume; 
+        resume = -1; 
+        // Steps the run may take, cut short by a watchpoint. 
+        long budget = maxSteps; 
+        boolean watched = false; 
+        long steps = 0; 
+        long loads = 0; 
+        long stores = 0; 
+        ExitReason reason = ExitReason.STEP_LIMIT; 
+        try {
+            loop: 
+            while (steps < budget) {
+                long entry; 
+                if (pc < 0 || pc >= table.length || (entry = table[pc]) == 0) {
+                    if (pc < 0 || pc >= cap) {
+                        reason = ExitReason.ADDRESS_OUT_OF_RANGE; 
+                        break; 
+                    }
+                    if (pc + 1 >= cap && (mem.read(pc) & 0b111100000000) == 0x200) {
+                        // loadc without room for its constant. 
+                        reason = ExitReason.ADDRESS_OUT_OF_RANGE; 
+                        break; 
+                    }
+                    entry = decode(pc); 
+                    table = decoded; 
+                    followers = fused; 
+                }
+                int arg1 = (int) (entry & 0b000011110000) >> 4; 
+                int arg2 = (int) (entry & 0b000000001111); 
+                int address; 
+                if ((entry & (TRAP | FUSION_BITS)) != 0) {
+                    if ((entry & TRAP) != 0) {
+                        // Trapped instructions are never fused, they go on to the switch unless they stop. 
+                        int stop = trap(pc, pc != skip, entry); 
+                        skip = -1; 
+                        if (stop == STOP_BEFORE) {
+                            resume = pc; 
+                            reason = ExitReason.BREAKPOINT; 
+                            break; 
+                        } else if (stop == STOP_AFTER) {
+                            // Make this instruction the last one of the run. 
+                            budget = steps + 1; 
+                            watched = true; 
+                        }
+                    }
+                    if ((entry & FUSION_BITS) != 0 && budget - steps >= MAX_FUSED_STEPS) {
+                        int kind = (int) (entry >> 16) & 0b1111; 
+                        int next = followers[pc]; 
+                        int arg3 = (next & 0b000011110000) >> 4; 
+                        int arg4 = next & 0b000000001111; 
+                        switch (kind) {
+                            case LOAD_ADD_ADD: 
+                            case LOAD_ADD: 
+                                address = r[arg2]; 
+                                if (address < 0 || address >= cap) {
+                                    // Let the load on its own report the fault. 
+                                    break; 
+                                }
+                                r[arg1] = mem.read(address); 
+                                r[arg3] += r[arg4]; 
+                                loads++; 
+                                if (kind == LOAD_ADD_ADD) {
+                                    r[(next >> 16) & 0b1111] += r[(next >> 12) & 0b1111]; 
+                                    ir = next >>> 12; 
+                                    pc += 3; 
+                                } else {
+                                    ir = next; 
+                                    pc += 2; 
+                                }
+                                steps += FUSION_STEPS[kind]; 
+                                fusedRuns[kind]++; 
+                                continue; 
+                            case LOADC_ADD: 
+                                r[arg1] = (int) (entry >> 32); 
+                                r[arg3] += r[arg4]; 
+                                break; 
+                            case LOADC_SUB: 
+                                r[arg1] = (int) (entry >> 32); 
+                                r[arg3] -= r[arg4]; 
+                                break; 
+                            case LOADC_MUL: 
+                                r[arg1] = (int) (entry >> 32); 
+                                r[arg3] *= r[arg4]; 
+                                break; 
+                            case ADD_ADD: 
+                                r[arg1] += r[arg2]; 
+                                r[arg3] += r[arg4]; 
+                                break; 
+                            case ADD_IF: 
+                            case SUB_IF: 
+                                if (kind == ADD_IF) {
+                                    r[arg1] += r[arg2]; 
+                                } else {
+                                    r[arg1] -= r[arg2]; 
+                                }
+                                pc = r[arg3] != 0 ? r[arg4] : pc + 2; 
+                                ir = next; 
+                                steps += 2; 
+                                fusedRuns[kind]++; 
+                                if (blockOnly) {
+                                    break loop; 
+                                }
+                                continue; 
+                        }
+                        if (kind != LOAD_ADD_ADD && kind != LOAD_ADD) {
+                            // Pairs that simply fall through to the next instruction. 
+                            pc += kind == ADD_ADD ? 2 : 3; 
+                            ir = next; 
+                            steps += 2; 
+                            fusedRuns[kind]++; 
+                            continue; 
+                        }
+                    }
+                }
+                switch ((int) (entry & 0b111100000000) >> 8) {
+                    case 0: 
+                        ir = (int) (entry >> 32); 
+                        pc++; 
+                        steps++; 
+                        reason = ExitReason.HALT; 
+                        break loop; 
+                    case 1: 
+                        address = r[arg2]; 
+                        if (address < 0 || address >= cap) {
+                            reason = ExitReason.ADDRESS_OUT_OF_RANGE; 
+                            break loop; 
+                        }
+                        r[arg1] = mem.read(address); 
+                        loads++; 
+                        pc++; 
+                        break; 
+                    case 2: 
+                        r[arg1] = (int) (entry >> 32); 
+                        pc += 2; 
+                        break; 
+                    case 3: 
+                        address = r[arg1]; 
+                        if (address < 0 || address >= cap) {
+                            reason = ExitReason.ADDRESS_OUT_OF_RANGE; 
+                            break loop; 
+                        }
+                        mem.write(address, r[arg2]); 
+                        stores++; 
+                        pc++; 
+                        if (blockOnly) {
+                            ir = (int) (entry >> 32); 
+                            steps++; 
+                            break loop; 
+                        }
+                        break; 
+                    case 4: 
+                        r[arg1] += r[arg2]; 
+                        pc++; 
+                        break; 
+                    case 5: 
+                        r[arg1] *= r[arg2]; 
+                        pc++; 
+                        break; 
+                    case 6: 
+                        r[arg1] -= r[arg2]; 
+                        pc++; 
+                        break; 
+                    case 7: 
+                        if (r[arg2] == 0) {
+                            ir = (int) (entry >> 32); 
+                            pc++; 
+                            steps++; 
+                            reason = ExitReason.DIVIDE_BY_ZERO; 
+                            break loop; 
+                        }
+                        r[arg1] /= r[arg2]; 
+                        pc++; 
+                        break; 
+                    case 8: 
+                        r[arg1] = (r[arg1] != 0 && r[arg2] != 0) ? 1 : 0; 
+                        pc++; 
+                        break; 
+                    case 9: 
+                        r[arg1] = (r[arg1] != 0 || r[arg2] != 0) ? 1 : 0; 
+                        pc++; 
+                        break; 
+                    case 10: 
+                        r[arg1] = r[arg2] != 0 ? 0 : 1; 
+                        pc++; 
+                        break; 
+                    case 11: 
+                        r[arg1] = r[arg2] << 1; 
+                        pc++; 
+                        break; 
+                    case 12: 
+                        r[arg1] = r[arg2] >> 1; 
+                        pc++; 
+                        break; 
+                    case 13: 
+                        r[arg1] &= r[arg2]; 
+                        pc++; 
+                        break; 
+                    case 14: 
+                        r[arg1] |= r[arg2]; 
+                        pc++; 
+                        break; 
+                    case 15: 
+                        pc = r[arg1] != 0 ? r[arg2] : pc + 1; 
+                        if (blockOnly) {
+                            ir = (int) (entry >> 32); 
+                            steps++; 
+                            break loop; 
+                        }
+                        break; 
+                    default: 
+                        reason = ExitReason.UNKNOWN_OPCODE; 
+                        break loop; 
+                }
+                ir = (int) (entry >> 32); 
+                steps++; 
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            // Only a register argument outside of 0-7 gets here, addresses are checked above. 
+            reason = ExitReason.UNKNOWN_OPCODE; 
+        }
+        if (watched && reason == ExitReason.STEP_LIMIT) {
+            reason = ExitReason.WATCHPOINT; 
+        }
+        PC = pc; 
+        IR = ir; 
+        lastSteps = steps; 
+        lastLoads = loads; 
+        lastStores = stores; 
+        return reason; 
+    }
+
+    /**
+     * Checks an instruction marked with {@link #TRAP} against the breakpoints and watchpoints, 
+     * before it executes. 
+     * 
+     * @param pc
+     *  The address of the instruction. 
+     * @param breaking
+     *  <code>false</code> if the run resumes from a breakpoint at this address. 
+     * @param entry
+     *  The predecoded instruction. 
+     * @return
+     *  {@link #STOP_BEFORE} at a breakpoint, {@link #STOP_AFTER} for a load or store accessing a 
+     *  watched cell, {@link #NO_STOP} otherwise. 
+     */
+    private int trap(int pc, boolean breaking, long entry) {
+        if (breaking && breakpoints.stopsAt(pc, reg)) {
+            return STOP_BEFORE; 
+        }
+        int command = (int) (entry & 0b111100000000) >> 8; 
+        int register = (int) (command == 1 ? entry : entry >> 4) & 0b1111; 
+        if ((command == 1 || command == 3) && register < 8) {
+            int address = reg[register]; 
+            if (address >= 0 && address < memory.getCapacity() && breakpoints.stopsAfter(pc, address, command == 3)) {
+                return STOP_AFTER; 
+            }
+        }
+        return NO_STOP; 
+    }
+
+    /**
+     * The run loop used while the JIT is enabled. Whenever execution reaches the start of a block, 
+     * the compiled version of the block is executed if there is one and it fits in the remaining 
+     * steps, otherwise the block is interpreted. 
+     * 
+     * @param maxSteps
+     *  The maximum number of instructions to execute. 
+     * @return
+     *  Why the Processor stopped. The number of steps executed is stored in {@link #lastSteps}. 
+     */
+    private ExitReason executeJit(long maxSteps) {
+        final BlockCompiler compiler = jit; 
+        long steps = 0; 
+        long loads = 0; 
+        long stores = 0; 
+        ExitReason reason = ExitReason.STEP_LIMIT; 
+        while (steps < maxSteps) {
+            int head = PC; 
+            CompiledBlock block = compiler.lookup(head); 
+            if (block != null && compiler.steps(head) <= maxSteps - steps) {
                 try {
-                    reg[arg1] /= reg[arg2]; 
-                } catch (ArithmeticException e) { 
-                    System.out.println("Cannot divide by 0. ");
+                    PC = block.execute(reg, memory); 
+                    IR = compiler.irAfter(head); 
+                    steps += compiler.steps(head); 
+                    loads += compiler.loads(head); 
+                    stores += compiler.stores(head); 
+                    continue; 
+                } catch (IndexOutOfBoundsException e) {
+                    // Nothing was written, interpret the block so the fault is reported at the right instruction. 
                 }
-                return false; 
-            case 8: 
-                // and a b 
-                if (reg[arg1] != 0 && reg[arg2] != 0) {
-                    reg[arg1] = 1;
-                } else {
-                    reg[arg1] = 0; 
+            }
+            reason = execute(maxSteps - steps, true); 
+            steps += lastSteps; 
+            loads += lastLoads; 
+            stores += lastStores; 
+            if (reason != ExitReason.STEP_LIMIT) {
+                break; 
+            }
+        }
+        lastSteps = steps; 
+        lastLoads = loads; 
+        lastStores = stores; 
+        return reason; 
+    }
+
+    /**
+     * The run loop used while a trace is recorded or the caches are simulated and nothing else 
+     * needs {@link #executeStepwise(long)}. It interprets the instructions one at a time like 
+     * {@link #execute(long, boolean)} does without superinstructions. Right where each instruction 
+     * executes, it is fetched and reads or writes its data through the caches, then appended to 
+     * the trace with the register or cell it wrote. 
+     * 
+     * @param maxSteps
+     *  The maximum number of instructions to execute. 
+     * @return
+     *  Why the Processor stopped. The number of steps executed is stored in {@link #lastSteps}. 
+     */
+    private ExitReason executeObserved(long maxSteps) {
+        final int[] r = reg; 
+        final Memory mem = memory; 
+        final int cap = mem.getCapacity(); 
+        final CacheHierarchy hierarchy = caches; 
+        final TraceRecorder recorder = trace; 
+        long[] table = decoded; 
+        int pc = PC; 
+        int ir = IR; 
+        int skip = resume; 
+        resume = -1; 
+        long budget = maxSteps; 
+        boolean watched = false; 
+        long steps = 0; 
+        long loads = 0; 
+        long stores = 0; 
+        ExitReason reason = ExitReason.STEP_LIMIT; 
+        try {
+            loop: 
+            while (steps < budget) {
+                long entry; 
+                if (pc < 0 || pc >= table.length || (entry = table[pc]) == 0) {
+                    if (pc < 0 || pc >= cap) {
+                        reason = ExitReason.ADDRESS_OUT_OF_RANGE; 
+                        break; 
+                    }
+                    if (pc + 1 >= cap && (mem.read(pc) & 0b111100000000) == 0x200) {
+                        reason = ExitReason.ADDRESS_OUT_OF_RANGE; 
+                        break; 
+                    }
+                    entry = decode(pc); 
+                    table = decoded; 
                 }
-                return false; 
-            case 9: 
-                // or a b
-                if (reg[arg1] != 0 || reg[arg2] != 0) {
-                    reg[arg1] = 1; 
-                } else {
-                    reg[arg1] = 0; 
+                int arg1 = (int) (entry & 0b000011110000) >> 4; 
+                int arg2 = (int) (entry & 0b000000001111); 
+                if ((entry & TRAP) != 0) {
+                    int stop = trap(pc, pc != skip, entry); 
+                    skip = -1; 
+                    if (stop == STOP_BEFORE) {
+                        resume = pc; 
+                        reason = ExitReason.BREAKPOINT; 
+                        break; 
+                    } else if (stop == STOP_AFTER) {
+                        budget = steps + 1; 
+                        watched = true; 
+                    }
                 }
-                return false; 
-            case 10: 
-                // not a b 
-                if (reg[arg2] != 0) {
-                    reg[arg1] = 0; 
-                } else {
-                    reg[arg1] = 1; 
+                int command = (int) (entry & 0b111100000000) >> 8; 
+                int next = command == 2 ? pc + 2 : pc + 1; 
+                // Cell the instruction reads or writes, -1 for none. 
+                int address = -1; 
+                switch (command) {
+                    case 0: 
+                        reason = ExitReason.HALT; 
+                        break; 
+                    case 1: 
+                        address = r[arg2]; 
+                        if (address < 0 || address >= cap) {
+                            reason = ExitReason.ADDRESS_OUT_OF_RANGE; 
+                            break loop; 
+                        }
+                        r[arg1] = mem.read(address); 
+                        loads++; 
+                        break; 
+                    case 2: 
+                        r[arg1] = (int) (entry >> 32); 
+                        break; 
+                    case 3: 
+                        address = r[arg1]; 
+                        if (address < 0 || address >= cap) {
+                            reason = ExitReason.ADDRESS_OUT_OF_RANGE; 
+                            break loop; 
+                        }
+                        mem.write(address, r[arg2]); 
+                        stores++; 
+                        break; 
+                    case 4: 
+                        r[arg1] += r[arg2]; 
+                        break; 
+                    case 5: 
+                        r[arg1] *= r[arg2]; 
+                        break; 
+                    case 6: 
+                        r[arg1] -= r[arg2]; 
+                        break; 
+                    case 7: 
+                        if (r[arg2] == 0) {
+                            // The div still counts as executed, leaving its register as it is. 
+                            reason = ExitReason.DIVIDE_BY_ZERO; 
+                        } else {
+                            r[arg1] /= r[arg2]; 
+                        }
+                        break; 
+                    case 8: 
+                        r[arg1] = (r[arg1] != 0 && r[arg2] != 0) ? 1 : 0; 
+                        break; 
+                    case 9: 
+                        r[arg1] = (r[arg1] != 0 || r[arg2] != 0) ? 1 : 0; 
+                        break; 
+                    case 10: 
+                        r[arg1] = r[arg2] != 0 ? 0 : 1; 
+                        break; 
+                    case 11: 
+                        r[arg1] = r[arg2] << 1; 
+                        break; 
+                    case 12: 
+                        r[arg1] = r[arg2] >> 1; 
+                        break; 
+                    case 13: 
+                        r[arg1] &= r[arg2]; 
+                        break; 
+                    case 14: 
+                        r[arg1] |= r[arg2]; 
+                        break; 
+                    case 15: 
+                        if (r[arg1] != 0) {
+                            next = r[arg2]; 
+                        }
+                        break; 
+                    default: 
+                        reason = ExitReason.UNKNOWN_OPCODE; 
+                        break loop; 
                 }
-                return false; 
-            case 11: 
-                // lshift a b = reg[a] = reg[b] << 1
-                reg[arg1] = reg[arg2] << 1; 
-                return false; 
-            case 12: 
-                // rshift a b = reg[a] = reg[b] >> 1
-                reg[arg1] = reg[arg2] >> 1; 
-                return false; 
-            case 13: 
-                // bwc a b = reg[a] = reg[a] & reg[b]
-                reg[arg1] = reg[arg1] & reg[arg2]; 
-                return false; 
-            case 14: 
-                // bwd a b = reg[a] = reg[a] | reg[b]
-                reg[arg1] = reg[arg1] | reg[arg2]; 
-                return false; 
-            case 15: 
-                // if a b = if (reg[a] != 0) pc = reg[b]
-                if (reg[arg1] != 0) {
-                    PC = reg[arg2]; 
+                if (hierarchy != null) {
+                    hierarchy.fetch(pc, command == 2 ? 2 : 1); 
+                    if (address >= 0) {
+                        hierarchy.access(pc, address, command == 3); 
+                    }
                 }
-                return false; 
-            default: 
-                System.out.println("Unrecognized command: " + command);
-                return true; 
+                if (recorder != null) {
+                    if (command == 3) {
+                        recorder.record(pc, (int) (entry >> 32), address, r[arg2]); 
+                    } else if (command == 0 || command == 15) {
+                        // An if has nothing to write, its value tells if it jumped. 
+                        recorder.record(pc, (int) (entry >> 32), UndoLog.NONE, command == 15 && r[arg1] != 0 ? 1 : 0); 
+                    } else {
+                        recorder.record(pc, (int) (entry >> 32), UndoLog.register(arg1), r[arg1]); 
+                    }
+                }
+                pc = next; 
+                ir = (int) (entry >> 32); 
+                steps++; 
+                if (reason != ExitReason.STEP_LIMIT) {
+                    break; 
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            reason = ExitReason.UNKNOWN_OPCODE; 
+        }
+        if (watched && reason == ExitReason.STEP_LIMIT) {
+            reason = ExitReason.WATCHPOINT; 
+        }
+        PC = pc; 
+        IR = ir; 
+        lastSteps = steps; 
+        lastLoads = loads; 
+        lastStores = stores; 
+        return reason; 
+    }
+
+    /**
+     * The run loop used while the undo log, the profiler, the timing model or the branch models are 
+     * enabled, with or without a trace and the caches. Before each instruction is interpreted on its own, the value 
+     * it is about to overwrite is read. Once the instruction executed, the old value goes to the 
+     * undo log, the new one to the trace, the instruction is counted by the profiler, timed by the 
+     * pipeline and its fetch and data access go through the caches. An if is also predicted and 
+     * recorded. An instruction that faults is not executed and not logged. 
+     * 
+     * @param maxSteps
+     *  The maximum number of instructions to execute. 
+     * @return
+     *  Why the Processor stopped. The number of steps executed is stored in {@link #lastSteps}. 
+     */
+    private ExitReason executeStepwise(long maxSteps) {
+        final UndoLog log = undo; 
+        final TraceRecorder recorder = trace; 
+        final Profiler counters = profiler; 
+        final PipelineModel timing = pipeline; 
+        final CacheHierarchy hierarchy = caches; 
+        final BranchPredictor prediction = predictor; 
+        final BranchStream stream = branches; 
+        final int cap = memory.getCapacity(); 
+        long steps = 0; 
+        long loads = 0; 
+        long stores = 0; 
+        ExitReason reason = ExitReason.STEP_LIMIT; 
+        while (steps < maxSteps) {
+            int pc = PC; 
+            int ir = IR; 
+            long entry = entryAt(pc); 
+            int command = (int) (entry >> 8) & 0b1111; 
+            int arg1 = (int) (entry >> 4) & 0b1111; 
+            int target = UndoLog.NONE; 
+            int old = 0; 
+            boolean jumped = false; 
+            // Cell read by a load, -1 for any other instruction. 
+            int read = -1; 
+            if (entry == 0 || arg1 > 7) {
+                // The instruction faults without writing anything. 
+            } else if (command == 3) {
+                int address = reg[arg1]; 
+                if (address >= 0 && address < cap) {
+                    target = address; 
+                    old = memory.read(address); 
+                }
+            } else if (command == 15) {
+                jumped = reg[arg1] != 0; 
+            } else if (command != 0) {
+                target = UndoLog.register(arg1); 
+                old = reg[arg1]; 
+                int arg2 = (int) entry & 0b1111; 
+                if (command == 1 && arg2 < 8) {
+                    read = reg[arg2]; 
+                }
+            }
+            reason = execute(1, false); 
+            if (lastSteps == 0) {
+                break; 
+            }
+            if (log != null) {
+                log.record(pc, ir, target, old); 
+            }
+            if (recorder != null) {
+                int value = target >= 0 ? memory.read(target) : target != UndoLog.NONE ? reg[-1 - target] : jumped ? 1 : 0; 
+                recorder.record(pc, IR, target, value); 
+            }
+            if (counters != null) {
+                counters.record(pc, command); 
+                if (command == 15) {
+                    counters.branch(pc, jumped, PC); 
+                }
+            }
+            if (timing != null) {
+                timing.issue(pc, command, arg1, (int) entry & 0b1111, jumped); 
+            }
+            if (hierarchy != null) {
+                hierarchy.fetch(pc, command == 2 ? 2 : 1); 
+                if (read >= 0) {
+                    hierarchy.access(pc, read, false); 
+                } else if (command == 3) {
+                    hierarchy.access(pc, target, true); 
+                }
+            }
+            if (command == 15) {
+                if (prediction != null) {
+                    prediction.branch(pc, jumped, PC); 
+                }
+                if (stream != null) {
+                    stream.add(pc, jumped, PC); 
+                }
+            }
+            steps++; 
+            loads += lastLoads; 
+            stores += lastStores; 
+            if (reason != ExitReason.STEP_LIMIT) {
+                break; 
+            }
+        }
+        lastSteps = steps; 
+        lastLoads = loads; 
+        lastStores = stores; 
+        return reason; 
+    }
+
+    /**
+     * Gets the decoded instruction at the address for the JIT, decoding it first if needed. 
+     * 
+     * @param address
+     *  The address of the instruction. 
+     * @return
+     *  The packed predecode entry or 0 if the instruction (or its loadc constant) lies outside of the memory. 
+     */
+    long entryAt(int address) {
+        int cap = memory.getCapacity(); 
+        if (address < 0 || address >= cap) {
+            return 0; 
+        }
+        if (address < decoded.length && decoded[address] != 0) {
+            return decoded[address]; 
+        }
+        if (address + 1 >= cap && (memory.read(address) & 0b111100000000) == 0x200) {
+            return 0; 
+        }
+        return decode(address); 
+    }
+
+    /**
+     * Decodes the instruction stored at the address into the predecode table, growing the table 
+     * when the address lies past the decoded range. 
+     * 
+     * @param address
+     *  The address of the instruction to decode. 
+     * @return
+     *  The packed entry that was stored for the address. 
+     * @throws
+     *  ArrayIndexOutOfBoundsException should the instruction (or the constant of a loadc) lie outside of the memory. 
+     */
+    private long decode(int address) {
+        int word = memory.read(address); 
+        // Read the constant first so a loadc at the end of memory faults the same way as before. 
+        int ir = (word & 0b111100000000) == 0x200 ? memory.read(address + 1) : word; 
+        if (address >= decoded.length) {
+            decoded = Arrays.copyOf(decoded, Math.min(Math.max(decoded.length * 2, address + 1), memory.getCapacity())); 
+        }
+        if (address >= fused.length) {
+            fused = Arrays.copyOf(fused, decoded.length); 
+        }
+        long entry = ((long) ir << 32) | DECODED | (word & 0b111111111111); 
+        int command = (word & 0b111100000000) >> 8; 
+        if (breakpoints.traps(address, command)) {
+            entry |= TRAP; 
+        } else if (fusion && !breakpoints.breaksIn(address + 1, address + 2)) {
+            // No breakpoint may hide inside a superinstruction, and watched loads are trapped. 
+            entry |= (long) fuse(address, word) << 16; 
+        }
+        decoded[address] = entry; 
+        return entry; 
+    }
+
+    /**
+     * Checks if the instruction at the address starts one of the sequences executed as a single 
+     * superinstruction. Only instructions without bits set above the opcode and with registers in 
+     * the range 0-7 are fused, so each of them can be rebuilt from its 12 bits. 
+     * 
+     * @param address
+     *  The address of the first instruction. 
+     * @param word
+     *  The instruction stored at the address. 
+     * @return
+     *  The kind of superinstruction, or 0 if the instruction is not fused. The words of the 
+     *  following instructions are stored in {@link #fused}. 
+     */
+    private int fuse(int address, int word) {
+        int command = word >> 8; 
+        int second = command == 2 ? address + 2 : address + 1; 
+        if (!fusable(word) || second >= memory.getCapacity()) {
+            return 0; 
+        }
+        int next = memory.read(second); 
+        if (!fusable(next)) {
+            return 0; 
+        }
+        int nextCommand = next >> 8; 
+        int kind = 0; 
+        if (command == 1 && nextCommand == 4) {
+            kind = LOAD_ADD; 
+            if (second + 1 < memory.getCapacity()) {
+                int third = memory.read(second + 1); 
+                if (fusable(third) && third >> 8 == 4) {
+                    fused[address] = next | third << 12; 
+                    return LOAD_ADD_ADD; 
+                }
+            }
+        } else if (command == 2 && nextCommand >= 4 && nextCommand <= 6) {
+            kind = nextCommand == 4 ? LOADC_ADD : nextCommand == 5 ? LOADC_MUL : LOADC_SUB; 
+        } else if (command == 4 && nextCommand == 4) {
+            kind = ADD_ADD; 
+        } else if ((command == 4 || command == 6) && nextCommand == 15) {
+            kind = command == 4 ? ADD_IF : SUB_IF; 
+        }
+        fused[address] = next; 
+        return kind; 
+    }
+
+    /**
+     * Checks if the word is an instruction that can be part of a superinstruction. 
+     */
+    private static boolean fusable(int word) {
+        return (word & ~0b111111111111) == 0 && (word & 0b000010001000) == 0; 
+    }
+
+    /**
+     * Drops the predecoded instructions that depend on the value stored at the address. Called by 
+     * {@link Memory} on every write so that self-modifying programs still run correctly. 
+     * 
+     * @param address
+     *  The address of the cell that was overwritten. 
+     */
+    void invalidate(int address) {
+        if (address < decoded.length) {
+            decoded[address] = 0; 
+        }
+        // The cell might be the constant of a loadc stored right before it or part of a 
+        // superinstruction starting up to two cells before it, even past the end of the table. 
+        if (address > 0 && address - 1 < decoded.length) {
+            decoded[address - 1] = 0; 
+        }
+        if (address > 1 && address - 2 < decoded.length) {
+            decoded[address - 2] = 0; 
+        }
+        if (jit != null) {
+            jit.invalidate(address); 
+        }
+    }
+
+    /**
+     * Drops the predecoded and compiled instructions that use any cell of a range of memory, 
+     * after the range was written in bulk. 
+     * 
+     * @param from
+     *  The first address written. 
+     * @param to
+     *  The address after the last one written. 
+     */
+    void invalidate(int from, int to) {
+        int start = Math.max(0, from - 2); 
+        if (start < decoded.length) {
+            Arrays.fill(decoded, start, Math.min(to, decoded.length), 0); 
+        }
+        if (jit != null) {
+            for (int address = from; address < to; address++) {
+                jit.invalidate(address); 
+            }
+        }
+    }
+
+    /**
+     * Get the value stored in a register. 
+     * 
+     * @param index
+     *  The register to read, 0-7. 
+     * @return
+     *  The value of the register. 
+     */
+    public int getRegister(int index) {
+        return reg[index]; 
+    }
+
+    /**
+     * Get the address of the next instruction to execute. 
+     * 
+     * @return
+     *  The value of the PC. 
+     */
+    public int getPC() {
+        return PC; 
+    }
+
+    /**
+     * Get the instruction executed last. 
+     * 
+     * @return
+     *  The value of the IR. 
+     */
+    int getIR() {
+        return IR; 
+    }
+
+    /**
+     * Gets the memory the Processor executes out of. 
+     * 
+     * @return
+     *  The memory set by {@link #setMemory(Memory)}. 
+     */
+    Memory getMemory() {
+        return memory; 
+    }
+
+    /**
+     * Takes a full snapshot of the registers, PC, IR and memory. 
+     * 
+     * @return
+     *  The snapshot, later snapshots of the same memory can be deltas of it. 
+     */
+    public Snapshot snapshot() {
+        return Snapshot.take(this, null); 
+    }
+
+    /**
+     * Takes a snapshot that only holds the pages of memory written since a previous snapshot. 
+     * 
+     * @param previous
+     *  The last snapshot taken of (or restored into) the memory of this Processor. 
+     * @return
+     *  The delta snapshot. 
+     * @throws IllegalArgumentException
+     *  If the memory was snapshot or restored since <code>previous</code>. 
+     */
+    public Snapshot snapshot(Snapshot previous) {
+        return Snapshot.take(this, previous); 
+    }
+
+    /**
+     * Puts the registers, PC, IR and memory back as they were when a snapshot was taken. 
+     * 
+     * @param snapshot
+     *  The snapshot to restore. 
+     * @throws IllegalArgumentException
+     *  If the snapshot was taken of a memory with another capacity. 
+     */
+    public void restore(Snapshot snapshot) {
+        snapshot.restore(this); 
+    }
+
+    /**
+     * Sets the registers, PC and IR, as saved in a snapshot. 
+     */
+    void setState(int[] registers, int pc, int ir) {
+        System.arraycopy(registers, 0, reg, 0, reg.length); 
+        PC = pc; 
+        IR = ir; 
+        resume = -1; 
+        if (undo != null) {
+            undo.clear(); 
         }
     }
 
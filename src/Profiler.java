@@ -0,0 +1,220 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts where a {@link Processor} spends its instructions: how often each address and each
+ * opcode executed, how often each <code>if</code> jumped, and the loops formed by backward jumps.
+ * The counters are plain arrays indexed by address that grow with the highest address executed,
+ * recording an instruction is a few increments.
+ *
+ * <p>
+ * A loop is identified by its header, the target of a backward jump, and spans up to the furthest
+ * <code>if</code> jumping back to it. Every backward jump counts as one iteration.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class Profiler {
+
+    private long[] counts = new long[Counters.INITIAL_SIZE];
+    private long[] taken = new long[Counters.INITIAL_SIZE];
+    private long[] notTaken = new long[Counters.INITIAL_SIZE];
+    // Backward jumps to each address, the iterations of the loop it heads.
+    private long[] iterations = new long[Counters.INITIAL_SIZE];
+    // Furthest address of an if jumping back to each loop header.
+    private int[] loopEnds = new int[Counters.INITIAL_SIZE];
+    private final long[] opcodes = new long[16];
+    private long total;
+
+    /**
+     * Counts an executed instruction.
+     *
+     * @param pc
+     *  The address of the instruction.
+     * @param command
+     *  The opcode, 0-15.
+     */
+    void record(int pc, int command) {
+        if (pc >= counts.length) {
+            grow(pc);
+        }
+        counts[pc]++;
+        opcodes[command]++;
+        total++;
+    }
+
+    /**
+     * Counts the outcome of an executed <code>if</code>, after {@link #record(int, int)}.
+     *
+     * @param pc
+     *  The address of the if.
+     * @param jumped
+     *  <code>true</code> if the condition held.
+     * @param target
+     *  The address jumped to, ignored if it did not jump.
+     */
+    void branch(int pc, boolean jumped, int target) {
+        if (!jumped) {
+            notTaken[pc]++;
+            return;
+        }
+        taken[pc]++;
+        if (target >= 0 && target <= pc) {
+            iterations[target]++;
+            loopEnds[target] = Math.max(loopEnds[target], pc);
+        }
+    }
+
+    /**
+     * Grows the counters to cover an address.
+     */
+    private void grow(int pc) {
+        counts = Counters.cover(counts, pc);
+        taken = Counters.cover(taken, pc);
+        notTaken = Counters.cover(notTaken, pc);
+        iterations = Counters.cover(iterations, pc);
+        loopEnds = Counters.cover(loopEnds, pc);
+    }
+
+    /**
+     * Gets the number of instructions counted.
+     *
+     * @return
+     *  The instructions executed since profiling started or was reset.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Gets how often the instruction at an address executed.
+     *
+     * @param address
+     *  The address of the instruction.
+     * @return
+     *  The number of times it executed.
+     */
+    public long getCount(int address) {
+        return address >= 0 && address < counts.length ? counts[address] : 0;
+    }
+
+    /**
+     * Gets how often an opcode executed.
+     *
+     * @param command
+     *  The opcode, 0-15.
+     * @return
+     *  The number of instructions with that opcode executed.
+     */
+    public long getOpcodeCount(int command) {
+        return opcodes[command];
+    }
+
+    /**
+     * Gets how often the if at an address jumped.
+     *
+     * @param address
+     *  The address of the if.
+     * @return
+     *  The number of times its condition held.
+     */
+    public long getTaken(int address) {
+        return address >= 0 && address < taken.length ? taken[address] : 0;
+    }
+
+    /**
+     * Gets how often the if at an address fell through.
+     *
+     * @param address
+     *  The address of the if.
+     * @return
+     *  The number of times its condition did not hold.
+     */
+    public long getNotTaken(int address) {
+        return address >= 0 && address < notTaken.length ? notTaken[address] : 0;
+    }
+
+    /**
+     * Clears every counter.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(taken, 0);
+        Arrays.fill(notTaken, 0);
+        Arrays.fill(iterations, 0);
+        Arrays.fill(loopEnds, 0);
+        Arrays.fill(opcodes, 0);
+        total = 0;
+    }
+
+    /**
+     * Formats the profile: the opcode mix, the hottest instructions, the hottest loops and the
+     * branches, each with the source lines of the program when it was assembled from text.
+     *
+     * @param program
+     *  The program that ran, or <code>null</code> to leave the source lines out.
+     * @return
+     *  The lines of the report.
+     */
+    public List<String> report(Program program) {
+        List<String> lines = new ArrayList<>();
+        lines.add(total + " instructions profiled");
+        if (total == 0) {
+            return lines;
+        }
+        lines.add("opcodes:");
+        for (int command = 0; command < opcodes.length; command++) {
+            if (opcodes[command] != 0) {
+                lines.add(String.format("  %-6s %12d %6.2f%%", Assembler.CMDS[command], opcodes[command], percent(opcodes[command])));
+            }
+        }
+
+        lines.add("hottest instructions:");
+        for (int address : Counters.top(counts)) {
+            lines.add(String.format("  %6s %-11s %12d %6.2f%%", Memory.getHex(address), Counters.line(program, address),
+                                    counts[address], percent(counts[address])));
+        }
+
+        List<Integer> loops = Counters.top(iterations);
+        lines.add("hottest loops:" + (loops.isEmpty() ? " none" : ""));
+        for (int header : loops) {
+            long executed = 0;
+            for (int address = header; address <= loopEnds[header]; address++) {
+                executed += counts[address];
+            }
+            lines.add(String.format("  %s-%s: %d iterations, %d instructions %.2f%%%s", Memory.getHex(header),
+                                    Memory.getHex(loopEnds[header]), iterations[header], executed, percent(executed),
+                                    lines(program, header, loopEnds[header])));
+        }
+
+        long[] branches = new long[counts.length];
+        for (int address = 0; address < branches.length; address++) {
+            branches[address] = taken[address] + notTaken[address];
+        }
+        List<Integer> ifs = Counters.top(branches);
+        lines.add("branches, taken / not taken:" + (ifs.isEmpty() ? " none" : ""));
+        for (int address : ifs) {
+            lines.add(String.format("  %6s %-11s %12d / %-12d %6.2f%% taken", Memory.getHex(address), Counters.line(program, address),
+                                    taken[address], notTaken[address], 100.0 * taken[address] / branches[address]));
+        }
+        return lines;
+    }
+
+    private double percent(long count) {
+        return 100.0 * count / total;
+    }
+
+    /**
+     * Formats the source lines of a range of addresses, empty when they are not known.
+     */
+    private static String lines(Program program, int from, int to) {
+        if (Counters.line(program, from).isEmpty() || Counters.line(program, to).isEmpty()) {
+            return "";
+        }
+        return " (lines " + program.getLine(from) + "-" + program.getLine(to) + ")";
+    }
+}
@@ -0,0 +1,428 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Memory image produced by the {@link Assembler}: the words to place in memory starting at 
+ * address 0, along with the source line each word was translated from. 
+ * 
+ * <p>
+ * Programs are saved as binary images by {@link #save(Path)}. An image is a header of 
+ * {@link #HEADER_SIZE} bytes followed by the words as raw 32-bit values, every number is 
+ * little-endian: 
+ * </p>
+ * <pre>
+ *  0  "M1IM"
+ *  4  version (16 bits), size of the header in bytes (16 bits)
+ *  8  entry PC
+ *  12 memory size in cells
+ *  16 number of words
+ *  20 code end, see {@link #getCodeEnd()}
+ *  24 CRC-32 of the words
+ *  28 reserved, 0
+ * </pre>
+ * <p>
+ * Readers skip the bytes of a larger header, so later versions can add fields at the end of it. 
+ * </p>
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class Program {
+
+    // "M1IM" read as a little-endian number. 
+    private static final int MAGIC = 0x4D49314D; 
+    static final int VERSION = 1; 
+    static final int HEADER_SIZE = 32; 
+
+    private int[] words; 
+    // Source line of every word, null for programs read from an image. 
+    private int[] lines; 
+    private int size; 
+    // Number of words up to and including the first halt, -1 until a halt is found. 
+    private int codeEnd = -1; 
+    private int entry; 
+    private int memorySize; 
+
+    /**
+     * Creates an empty program that words are added to. 
+     */
+    Program() {
+        this(64); 
+    }
+
+    /**
+     * Creates an empty program with room for a number of words. 
+     * 
+     * @param capacity
+     *  The number of words expected, more can be added. 
+     */
+    Program(int capacity) {
+        words = new int[Math.max(capacity, 16)]; 
+        lines = new int[words.length]; 
+    }
+
+    private Program(int[] words, int codeEnd, int entry, int memorySize) {
+        this(words, null, words.length, codeEnd, entry, memorySize); 
+    }
+
+    private Program(int[] words, int[] lines, int size, int codeEnd, int entry, int memorySize) {
+        this.words = words; 
+        this.lines = lines; 
+        this.size = size; 
+        this.codeEnd = codeEnd; 
+        this.entry = entry; 
+        this.memorySize = memorySize; 
+    }
+
+    /**
+     * Creates a program out of words linked together by the {@link ParallelAssembler}. 
+     * 
+     * @param words
+     *  The words, owned by the program from now on. 
+     * @param lines
+     *  The source line of every word. 
+     * @param codeEnd
+     *  The number of words up to and including the first halt, -1 if there is none. 
+     * @return
+     *  The program. 
+     */
+    static Program of(int[] words, int[] lines, int codeEnd) {
+        return new Program(words, lines, words.length, codeEnd, 0, 0); 
+    }
+
+    /**
+     * Copies the words of this program into a larger one being linked. 
+     * 
+     * @param words
+     *  The words of the larger program. 
+     * @param lines
+     *  The source lines of the larger program. 
+     * @param offset
+     *  The address the first word of this program goes to. 
+     * @param lineOffset
+     *  The number added to the source lines of this program. 
+     */
+    void copyTo(int[] words, int[] lines, int offset, int lineOffset) {
+        System.arraycopy(this.words, 0, words, offset, size); 
+        for (int i = 0; i < size; i++) {
+            lines[offset + i] = this.lines[i] + lineOffset; 
+        }
+    }
+
+    /**
+     * Checks if a halt ended the code of this program. 
+     * 
+     * @return
+     *  <code>true</code> if the program has data after its code. 
+     */
+    boolean hasCodeEnd() {
+        return codeEnd >= 0; 
+    }
+
+    /**
+     * Creates a program sharing the words and lines of this one. The words of a complete 
+     * program never change, so the copy can be handed out while the entry PC and memory size 
+     * of each copy are set independently. 
+     * 
+     * @return
+     *  The copy. 
+     */
+    Program share() {
+        return new Program(words, lines, size, codeEnd, entry, memorySize); 
+    }
+
+    /**
+     * Appends a word to the image. 
+     * 
+     * @param word
+     *  The encoded instruction or constant. 
+     * @param line
+     *  The source line it was translated from. 
+     */
+    void add(int word, int line) {
+        if (size == words.length) {
+            words = Arrays.copyOf(words, size * 2); 
+            lines = Arrays.copyOf(lines, size * 2); 
+        }
+        words[size] = word; 
+        lines[size++] = line; 
+    }
+
+    /**
+     * Marks the end of the code, the words added afterwards are data. 
+     */
+    void endCode() {
+        if (codeEnd < 0) {
+            codeEnd = size; 
+        }
+    }
+
+    /**
+     * Gets the number of words in the image. 
+     * 
+     * @return
+     *  The number of memory cells the program needs. 
+     */
+    public int getSize() {
+        return size; 
+    }
+
+    /**
+     * Gets the number of words up to and including the first halt. The words after it are data. 
+     * 
+     * @return
+     *  The size of the code, or the size of the whole image if it has no halt. 
+     */
+    public int getCodeEnd() {
+        return codeEnd < 0 ? size : codeEnd; 
+    }
+
+    /**
+     * Gets the word placed at an address. 
+     * 
+     * @param address
+     *  The address of the word. 
+     * @return
+     *  The encoded word. 
+     */
+    public int getWord(int address) {
+        return words[Objects.checkIndex(address, size)]; 
+    }
+
+    /**
+     * Gets the source line a word was translated from. 
+     * 
+     * @param address
+     *  The address of the word. 
+     * @return
+     *  The line number, starting at 1, or 0 if the program was read from an image. 
+     */
+    public int getLine(int address) {
+        Objects.checkIndex(address, size); 
+        return lines == null ? 0 : lines[address]; 
+    }
+
+    /**
+     * Labels an address with the source line it was translated from, for reports. 
+     * 
+     * @param address
+     *  The address, which may lie outside the program. 
+     * @return
+     *  <code>line N</code>, or an empty string if the address has no known source line. 
+     */
+    public String getLineLabel(int address) {
+        if (lines == null || address < 0 || address >= size || lines[address] == 0) {
+            return ""; 
+        }
+        return "line " + lines[address]; 
+    }
+
+    /**
+     * Gets the address execution starts at. 
+     * 
+     * @return
+     *  The entry PC, 0 unless set otherwise. 
+     */
+    public int getEntry() {
+        return entry; 
+    }
+
+    /**
+     * Sets the address execution starts at. 
+     * 
+     * @param entry
+     *  The entry PC. 
+     */
+    public void setEntry(int entry) {
+        this.entry = entry; 
+    }
+
+    /**
+     * Gets the number of cells the program expects the memory to have. 
+     * 
+     * @return
+     *  The memory size, never less than the size of the program. 
+     */
+    public int getMemorySize() {
+        return Math.max(memorySize, size); 
+    }
+
+    /**
+     * Sets the number of cells the program expects the memory to have. 
+     * 
+     * @param memorySize
+     *  The memory size, sizes smaller than the program are ignored. 
+     */
+    public void setMemorySize(int memorySize) {
+        this.memorySize = memorySize; 
+    }
+
+    /**
+     * Gets a copy of the words of the image. 
+     * 
+     * @return
+     *  The words in address order. 
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(words, size); 
+    }
+
+    /**
+     * Writes the image into memory starting at address 0. 
+     * 
+     * @param memory
+     *  The memory to write to. 
+     * @throws
+     *  IllegalArgumentException if the image does not fit in the memory. 
+     */
+    public void load(Memory memory) {
+        if (size > memory.getCapacity()) {
+            throw new IllegalArgumentException("Program of " + size + " words does not fit in " + memory.getCapacity() + " cells"); 
+        }
+        long start = System.nanoTime(); 
+        memory.write(0, IntBuffer.wrap(words, 0, size)); 
+        SimulatorMetrics.get().loaded(System.nanoTime() - start); 
+    }
+
+    /**
+     * Saves the program as a binary image with a single write. 
+     * 
+     * @param file
+     *  The image file, replaced if it exists. 
+     * @throws IOException
+     *  Should the file not be writable or the program too large for an image. 
+     */
+    public void save(Path file) throws IOException {
+        if (size > (Integer.MAX_VALUE - HEADER_SIZE) / Integer.BYTES) {
+            throw new IOException("Program too large for an image: " + size + " words"); 
+        }
+        ByteBuffer image = ByteBuffer.allocate(HEADER_SIZE + size * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN); 
+        image.position(HEADER_SIZE); 
+        image.asIntBuffer().put(words, 0, size); 
+        CRC32 crc = new CRC32(); 
+        crc.update(image); 
+        image.putInt(0, MAGIC) 
+             .putShort(4, (short) VERSION) 
+             .putShort(6, (short) HEADER_SIZE) 
+             .putInt(8, entry) 
+             .putInt(12, getMemorySize()) 
+             .putInt(16, size) 
+             .putInt(20, getCodeEnd()) 
+             .putInt(24, (int) crc.getValue()); 
+        image.clear(); 
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, 
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (image.hasRemaining()) {
+                channel.write(image); 
+            }
+        }
+    }
+
+    /**
+     * Checks if a file starts like a binary image. 
+     * 
+     * @param file
+     *  The file to check. 
+     * @return
+     *  <code>true</code> if the file is a binary image rather than text. 
+     * @throws IOException
+     *  Should the file not be readable. 
+     */
+    public static boolean isImage(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN); 
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // Keep reading until the 4 bytes are in or the file ends. 
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC; 
+        }
+    }
+
+    /**
+     * Checks if the content of a file starts like a binary image. 
+     * 
+     * @param content
+     *  The bytes of the file, or at least its first 4. 
+     * @return
+     *  <code>true</code> if the bytes are a binary image rather than text. 
+     */
+    static boolean isImage(byte[] content) {
+        return content.length >= Integer.BYTES 
+               && ByteBuffer.wrap(content, 0, Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC; 
+    }
+
+    /**
+     * Reads a binary image saved by {@link #save(Path)}. The file is mapped and its words are 
+     * copied in bulk after the header and checksum are verified. 
+     * 
+     * @param file
+     *  The image file. 
+     * @return
+     *  The program, without source line numbers. 
+     * @throws IOException
+     *  Should the file not be readable, not be an image, be damaged or have a newer version. 
+     */
+    public static Program read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            long length = channel.size(); 
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not an M1 image"); 
+            }
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, length); 
+            image.order(ByteOrder.LITTLE_ENDIAN); 
+            if (image.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not an M1 image"); 
+            }
+            int version = image.getShort(4) & 0xffff; 
+            if (version > VERSION) {
+                throw new IOException(file + " has image version " + version + ", only " + VERSION + " is supported"); 
+            }
+            int header = image.getShort(6) & 0xffff; 
+            int count = image.getInt(16); 
+            int codeEnd = image.getInt(20); 
+            if (header < HEADER_SIZE || count < 0 || header + (long) count * Integer.BYTES != length 
+                    || codeEnd < 0 || codeEnd > count) {
+                throw new IOException(file + " is damaged: its header does not match its size"); 
+            }
+            ByteBuffer payload = image.slice(header, count * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN); 
+            CRC32 crc = new CRC32(); 
+            crc.update(payload.duplicate()); 
+            if ((int) crc.getValue() != image.getInt(24)) {
+                throw new IOException(file + " is damaged: checksum mismatch"); 
+            }
+            int[] words = new int[count]; 
+            payload.asIntBuffer().get(words); 
+            return new Program(words, codeEnd, image.getInt(8), image.getInt(12)); 
+        }
+    }
+
+    /**
+     * Exports the program as text, one hexadecimal word per line. The text can be loaded like 
+     * any other hexadecimal memory image. 
+     * 
+     * @param file
+     *  The text file, replaced if it exists. 
+     * @throws IOException
+     *  Should the file not be writable. 
+     */
+    public void exportText(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < size; i++) {
+                out.write(String.format("%08x\n", words[i])); 
+            }
+        }
+    }
+}
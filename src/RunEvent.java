@@ -0,0 +1,33 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of a call to {@link Processor#run(long)}. Events are committed once per
+ * run, never per instruction, and cost nothing more than a check while no recording enables them.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+@Name("m1.Run")
+@Label("M1 Run")
+@Category("M1 Simulator")
+@Description("Instructions executed by a single call to Processor.run")
+final class RunEvent extends Event {
+
+    @Label("Instructions")
+    long steps;
+
+    @Label("Memory Reads")
+    long reads;
+
+    @Label("Memory Writes")
+    long writes;
+
+    @Label("Exit Reason")
+    String reason;
+}
@@ -0,0 +1,65 @@
+/**
+ * Result of a batch of instructions executed by {@link Processor#run(long)}: why the 
+ * Processor stopped and how many instructions it executed before stopping. 
+ * 
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class RunResult {
+
+    private final ExitReason reason; 
+    private final long steps; 
+
+    /**
+     * Creates the result of a run. 
+     * 
+     * @param reason
+     *  Why the Processor stopped. 
+     * @param steps
+     *  The number of instructions that were executed. 
+     */
+    public RunResult(ExitReason reason, long steps) {
+        this.reason = reason; 
+        this.steps = steps; 
+    }
+
+    /**
+     * Gets the reason the Processor stopped. 
+     * 
+     * @return
+     *  The reason the run ended. 
+     */
+    public ExitReason getReason() {
+        return reason; 
+    }
+
+    /**
+     * Gets the number of instructions executed during the run. The faulting instruction of an 
+     * {@link ExitReason#UNKNOWN_OPCODE} or {@link ExitReason#ADDRESS_OUT_OF_RANGE} is not counted. 
+     * 
+     * @return
+     *  The number of instructions executed. 
+     */
+    public long getSteps() {
+        return steps; 
+    }
+
+    /**
+     * Checks if the program can not continue, meaning it halted or faulted. 
+     * 
+     * @return
+     *  <code>true</code> unless the run stopped because it used up its steps, divided by 0 or 
+     *  reached a breakpoint or watchpoint. 
+     */
+    public boolean isTerminated() {
+        return reason != ExitReason.STEP_LIMIT && reason != ExitReason.DIVIDE_BY_ZERO 
+               && reason != ExitReason.BREAKPOINT && reason != ExitReason.WATCHPOINT; 
+    }
+
+    @Override
+    public String toString() {
+        return reason.getMessage() + " after " + steps + " steps"; 
+    }
+}
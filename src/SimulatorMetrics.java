@@ -0,0 +1,200 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the simulator shared by every {@link Processor}, {@link Assembler} and program load
+ * in the JVM, and published over JMX as {@link #NAME}. The Processors add to them once per run,
+ * after the interpreter loop, so the loop itself is never slowed down. The counters are
+ * {@link LongAdder}s: Processors on different threads add without contending, and a monitoring
+ * thread can read them at any time.
+ *
+ * <p>
+ * Each run also emits a {@link RunEvent} for Java Flight Recorder, for example with
+ * <code>java -XX:StartFlightRecording=filename=m1.jfr ...</code>.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class SimulatorMetrics implements SimulatorMetricsMXBean {
+
+    /**
+     * Name of the MBean.
+     */
+    public static final String NAME = "m1:type=Simulator";
+
+    private static final SimulatorMetrics INSTANCE = register(new SimulatorMetrics());
+
+    private final LongAdder retired = new LongAdder();
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAdder halts = new LongAdder();
+    private final LongAdder faults = new LongAdder();
+    private final LongAdder assemblies = new LongAdder();
+    private final LongAdder assemblyNanos = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+    // Instructions retired and time of the last rate asked for, guarded by this.
+    private long sampleTime = System.nanoTime();
+    private long sampleRetired;
+
+    private SimulatorMetrics() {
+    }
+
+    private static SimulatorMetrics register(SimulatorMetrics metrics) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(NAME));
+        } catch (JMException | SecurityException e) {
+            // Another class loader registered its own copy first, these counters still work.
+        }
+        return metrics;
+    }
+
+    /**
+     * Gets the counters of the JVM.
+     *
+     * @return
+     *  The metrics, registered with the platform MBean server.
+     */
+    public static SimulatorMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Adds a finished run.
+     *
+     * @param reason
+     *  Why the Processor stopped.
+     * @param steps
+     *  The instructions executed.
+     * @param read
+     *  The cells read by loads.
+     * @param written
+     *  The cells written by stores.
+     * @param nanos
+     *  The time the run took, 0 if it was not measured.
+     */
+    void ran(ExitReason reason, long steps, long read, long written, long nanos) {
+        retired.add(steps);
+        reads.add(read);
+        writes.add(written);
+        runs.increment();
+        runNanos.add(nanos);
+        if (reason == ExitReason.HALT) {
+            halts.increment();
+        } else if (reason != ExitReason.STEP_LIMIT && reason != ExitReason.BREAKPOINT && reason != ExitReason.WATCHPOINT) {
+            faults.increment();
+        }
+    }
+
+    /**
+     * Adds a translated program.
+     *
+     * @param nanos
+     *  The time the translation took.
+     */
+    void assembled(long nanos) {
+        assemblies.increment();
+        assemblyNanos.add(nanos);
+    }
+
+    /**
+     * Adds a program written into memory.
+     *
+     * @param nanos
+     *  The time writing it took.
+     */
+    void loaded(long nanos) {
+        loads.increment();
+        loadNanos.add(nanos);
+    }
+
+    @Override
+    public long getInstructionsRetired() {
+        return retired.sum();
+    }
+
+    @Override
+    public synchronized double getInstructionsPerSecond() {
+        long now = System.nanoTime();
+        long total = retired.sum();
+        double rate = now == sampleTime ? 0 : (total - sampleRetired) * 1e9 / (now - sampleTime);
+        sampleTime = now;
+        sampleRetired = total;
+        return rate;
+    }
+
+    @Override
+    public long getMemoryReads() {
+        return reads.sum();
+    }
+
+    @Override
+    public long getMemoryWrites() {
+        return writes.sum();
+    }
+
+    @Override
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    @Override
+    public double getRunMillis() {
+        return runNanos.sum() / 1e6;
+    }
+
+    @Override
+    public long getHalts() {
+        return halts.sum();
+    }
+
+    @Override
+    public long getFaults() {
+        return faults.sum();
+    }
+
+    @Override
+    public long getAssemblies() {
+        return assemblies.sum();
+    }
+
+    @Override
+    public double getAssemblyMillis() {
+        return assemblyNanos.sum() / 1e6;
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public double getLoadMillis() {
+        return loadNanos.sum() / 1e6;
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (LongAdder counter : new LongAdder[] {retired, reads, writes, runs, runNanos, halts, faults,
+                                                  assemblies, assemblyNanos, loads, loadNanos}) {
+            counter.reset();
+        }
+        sampleTime = System.nanoTime();
+        sampleRetired = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d instructions in %d runs (%.1f ms), %d halts, %d faults, %d memory reads, %d memory writes, "
+                             + "%d programs assembled (%.1f ms), %d loaded (%.1f ms)",
+                             getInstructionsRetired(), getRuns(), getRunMillis(), getHalts(), getFaults(), getMemoryReads(),
+                             getMemoryWrites(), getAssemblies(), getAssemblyMillis(), getLoads(), getLoadMillis());
+    }
+}
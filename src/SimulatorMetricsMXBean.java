@@ -0,0 +1,116 @@
+/**
+ * Management interface of the {@link SimulatorMetrics}, registered with the platform MBean server
+ * as <code>m1:type=Simulator</code> so the counters can be watched with JConsole or any JMX
+ * client. Every count is since the start of the JVM or the last {@link #reset()}.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public interface SimulatorMetricsMXBean {
+
+    /**
+     * Gets the number of instructions executed by every Processor.
+     *
+     * @return
+     *  The instructions retired.
+     */
+    long getInstructionsRetired();
+
+    /**
+     * Gets the rate instructions were retired at since the previous call, or since the counters
+     * started for the first call.
+     *
+     * @return
+     *  The instructions retired per second.
+     */
+    double getInstructionsPerSecond();
+
+    /**
+     * Gets the number of memory cells read by load instructions.
+     *
+     * @return
+     *  The cells read.
+     */
+    long getMemoryReads();
+
+    /**
+     * Gets the number of memory cells written by store instructions.
+     *
+     * @return
+     *  The cells written.
+     */
+    long getMemoryWrites();
+
+    /**
+     * Gets the number of calls to {@link Processor#run(long)} and {@link Processor#step()}.
+     *
+     * @return
+     *  The runs.
+     */
+    long getRuns();
+
+    /**
+     * Gets the time spent in {@link Processor#run(long)}.
+     *
+     * @return
+     *  The total run time in milliseconds.
+     */
+    double getRunMillis();
+
+    /**
+     * Gets the number of runs that ended on a halt.
+     *
+     * @return
+     *  The halts.
+     */
+    long getHalts();
+
+    /**
+     * Gets the number of runs that ended on a fault: an address out of range, an unknown opcode
+     * or a division by 0.
+     *
+     * @return
+     *  The faults.
+     */
+    long getFaults();
+
+    /**
+     * Gets the number of programs translated by the {@link Assembler} or the
+     * {@link ParallelAssembler}, successfully or not.
+     *
+     * @return
+     *  The translations.
+     */
+    long getAssemblies();
+
+    /**
+     * Gets the time spent translating programs.
+     *
+     * @return
+     *  The total translation time in milliseconds.
+     */
+    double getAssemblyMillis();
+
+    /**
+     * Gets the number of programs written into a memory.
+     *
+     * @return
+     *  The program loads.
+     */
+    long getLoads();
+
+    /**
+     * Gets the time spent writing programs into memory.
+     *
+     * @return
+     *  The total load time in milliseconds.
+     */
+    double getLoadMillis();
+
+    /**
+     * Sets every counter back to 0.
+     */
+    void reset();
+}
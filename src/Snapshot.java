@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint of a running simulation: the registers, PC and IR of a {@link Processor} and the
+ * contents of its {@link Memory}, copied in bulk a page of {@link PagedMemory#PAGE_SIZE} cells at
+ * a time. Pages of 0 are not stored.
+ *
+ * <p>
+ * A delta snapshot only stores the pages written since the previous snapshot of the same memory
+ * and reads the other pages from that snapshot. Any snapshot can be restored into the Processor
+ * it was taken of, or forked into any number of new Processors by {@link #fork()}. Forks share
+ * the pages of the snapshot and only copy the pages they write, so forking is cheap whatever
+ * the size of the memory. Snapshots never change once taken.
+ * </p>
+ *
+ * <p>
+ * Snapshots are saved by {@link #save(Path)} as a header of {@link #HEADER_SIZE} bytes followed
+ * by the pages that are not 0, each as its index followed by its cells. Every number is a
+ * little-endian 32-bit value:
+ * </p>
+ * <pre>
+ *  0  "M1SN"
+ *  4  version (16 bits), size of the header in bytes (16 bits)
+ *  8  memory capacity in cells
+ *  12 PC
+ *  16 IR
+ *  20 registers 0-7
+ *  52 number of pages stored
+ *  56 CRC-32 of the pages
+ *  60 reserved, 0
+ * </pre>
+ * <p>
+ * The last page of a memory whose capacity is not a multiple of the page size is stored without
+ * the cells past the capacity. A saved delta snapshot holds every page, it can be read on its own.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class Snapshot {
+
+    // "M1SN" read as a little-endian number.
+    private static final int MAGIC = 0x4E53314D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    private final int capacity;
+    private final int[] registers;
+    private final int pc;
+    private final int ir;
+    // Snapshot the pages not stored here are read from, null for a full snapshot.
+    private final Snapshot parent;
+    // Pages stored in this snapshot, a null page holds only 0.
+    private final int[] indexes;
+    private final int[][] pages;
+    // Every page of the memory, resolved through the parents when first needed.
+    private int[][] table;
+
+    private Snapshot(int capacity, int[] registers, int pc, int ir, Snapshot parent, int[] indexes, int[][] pages) {
+        this.capacity = capacity;
+        this.registers = registers;
+        this.pc = pc;
+        this.ir = ir;
+        this.parent = parent;
+        this.indexes = indexes;
+        this.pages = pages;
+    }
+
+    /**
+     * Takes a snapshot of a Processor and its memory.
+     *
+     * @param cpu
+     *  The Processor, with a memory set.
+     * @param previous
+     *  The last snapshot of the memory to take a delta of, or <code>null</code> for a full snapshot.
+     * @return
+     *  The snapshot.
+     */
+    static Snapshot take(Processor cpu, Snapshot previous) {
+        Memory memory = cpu.getMemory();
+        if (previous != null && memory.getCheckpoint() != previous) {
+            throw new IllegalArgumentException("The memory changed snapshots since the previous one was taken");
+        }
+        int[] touched = memory.collectTouchedPages();
+        int[] indexes;
+        int[][] pages;
+        int count = 0;
+        if (previous != null) {
+            indexes = touched;
+            pages = new int[indexes.length][];
+            for (int i = 0; i < indexes.length; i++) {
+                pages[i] = memory.copyPage(indexes[i]);
+            }
+            count = indexes.length;
+        } else {
+            int pageCount = PagedMemory.pageCount(memory.getCapacity());
+            indexes = new int[16];
+            pages = new int[16][];
+            for (int index = 0; index < pageCount; index++) {
+                int[] page = memory.copyPage(index);
+                if (page == null) {
+                    continue;
+                }
+                if (count == indexes.length) {
+                    indexes = Arrays.copyOf(indexes, count * 2);
+                    pages = Arrays.copyOf(pages, count * 2);
+                }
+                indexes[count] = index;
+                pages[count++] = page;
+            }
+        }
+        int[] saved = new int[8];
+        for (int i = 0; i < saved.length; i++) {
+            saved[i] = cpu.getRegister(i);
+        }
+        Snapshot snapshot = new Snapshot(memory.getCapacity(), saved, cpu.getPC(), cpu.getIR(), previous,
+                                         Arrays.copyOf(indexes, count), Arrays.copyOf(pages, count));
+        memory.setCheckpoint(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Gets every page of the memory, the pages are shared and must not be written to.
+     */
+    synchronized int[][] table() {
+        if (table == null) {
+            int[][] resolved = parent != null ? parent.table().clone() : new int[PagedMemory.pageCount(capacity)][];
+            for (int i = 0; i < indexes.length; i++) {
+                resolved[indexes[i]] = pages[i];
+            }
+            table = resolved;
+        }
+        return table;
+    }
+
+    /**
+     * Puts a Processor and its memory back in the state of the snapshot. When the memory was last
+     * snapshot as or restored to this snapshot, only the pages written since are restored.
+     */
+    void restore(Processor cpu) {
+        Memory memory = cpu.getMemory();
+        if (memory.getCapacity() != capacity) {
+            throw new IllegalArgumentException("Snapshot of " + capacity + " cells cannot be restored into "
+                                               + memory.getCapacity() + " cells");
+        }
+        int[][] all = table();
+        if (memory.getCheckpoint() == this) {
+            for (int index : memory.collectTouchedPages()) {
+                memory.restorePage(index, all[index]);
+            }
+        } else {
+            for (int index = 0; index < all.length; index++) {
+                memory.restorePage(index, all[index]);
+            }
+        }
+        memory.collectTouchedPages();
+        memory.setCheckpoint(this);
+        cpu.setState(registers, pc, ir);
+    }
+
+    /**
+     * Creates a Processor in the state of the snapshot, on a {@link CopyOnWriteMemory} sharing the
+     * pages of the snapshot. Forks are independent of each other and of the Processor the
+     * snapshot was taken of.
+     *
+     * @return
+     *  The new Processor, its next snapshot can be a delta of this one.
+     */
+    public Processor fork() {
+        Memory memory = new CopyOnWriteMemory(capacity, table());
+        memory.setCheckpoint(this);
+        Processor cpu = new Processor();
+        cpu.setMemory(memory);
+        cpu.setState(registers, pc, ir);
+        return cpu;
+    }
+
+    /**
+     * Gets the number of cells of the memory the snapshot was taken of.
+     *
+     * @return
+     *  The capacity of the memory.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the value of a register when the snapshot was taken.
+     *
+     * @param index
+     *  The register, 0-7.
+     * @return
+     *  The value of the register.
+     */
+    public int getRegister(int index) {
+        return registers[index];
+    }
+
+    /**
+     * Gets the PC when the snapshot was taken.
+     *
+     * @return
+     *  The address of the next instruction.
+     */
+    public int getPC() {
+        return pc;
+    }
+
+    /**
+     * Checks if the snapshot only stores the pages written since a previous snapshot.
+     *
+     * @return
+     *  <code>true</code> for a delta snapshot.
+     */
+    public boolean isDelta() {
+        return parent != null;
+    }
+
+    /**
+     * Gets the number of pages the snapshot stores itself.
+     *
+     * @return
+     *  The number of pages, each of {@link PagedMemory#PAGE_SIZE} cells.
+     */
+    public int getStoredPages() {
+        return indexes.length;
+    }
+
+    @Override
+    public String toString() {
+        return (parent != null ? "delta" : "full") + " snapshot, " + indexes.length + " pages, PC = "
+               + Memory.getHex(pc);
+    }
+
+    /**
+     * Saves the snapshot with a single write. Only the pages that are not 0 are saved.
+     *
+     * @param file
+     *  The snapshot file, replaced if it exists.
+     * @throws IOException
+     *  Should the file not be writable or the snapshot too large for a file.
+     */
+    public void save(Path file) throws IOException {
+        int[][] all = table();
+        int count = 0;
+        long length = HEADER_SIZE;
+        for (int index = 0; index < all.length; index++) {
+            if (all[index] != null) {
+                count++;
+                length += (1L + pageLength(index)) * Integer.BYTES;
+            }
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large for a file: " + length + " bytes");
+        }
+        ByteBuffer image = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        IntBuffer cells = image.position(HEADER_SIZE).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        for (int index = 0; index < all.length; index++) {
+            if (all[index] != null) {
+                cells.put(index);
+                cells.put(all[index], 0, pageLength(index));
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(image);
+        image.putInt(0, MAGIC)
+             .putShort(4, (short) VERSION)
+             .putShort(6, (short) HEADER_SIZE)
+             .putInt(8, capacity)
+             .putInt(12, pc)
+             .putInt(16, ir)
+             .putInt(52, count)
+             .putInt(56, (int) crc.getValue());
+        for (int i = 0; i < registers.length; i++) {
+            image.putInt(20 + i * Integer.BYTES, registers[i]);
+        }
+        image.clear();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (image.hasRemaining()) {
+                channel.write(image);
+            }
+        }
+    }
+
+    private int pageLength(int index) {
+        return Math.min(PagedMemory.PAGE_SIZE, capacity - (index << PagedMemory.PAGE_BITS));
+    }
+
+    /**
+     * Reads a snapshot saved by {@link #save(Path)}. The file is mapped and its pages are copied in
+     * bulk after the header and checksum are verified.
+     *
+     * @param file
+     *  The snapshot file.
+     * @return
+     *  A full snapshot.
+     * @throws IOException
+     *  Should the file not be readable, not be a snapshot, be damaged or have a newer version.
+     */
+    public static Snapshot read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not an M1 snapshot");
+            }
+            MappedByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            image.order(ByteOrder.LITTLE_ENDIAN);
+            if (image.getInt(0) != MAGIC) {
+                throw new IOException(file + " is not an M1 snapshot");
+            }
+            int version = image.getShort(4) & 0xffff;
+            if (version > VERSION) {
+                throw new IOException(file + " has snapshot version " + version + ", only " + VERSION + " is supported");
+            }
+            int header = image.getShort(6) & 0xffff;
+            int capacity = image.getInt(8);
+            int count = image.getInt(52);
+            if (header < HEADER_SIZE || header > length || capacity < 0 || count < 0
+                    || count > PagedMemory.pageCount(capacity)) {
+                throw new IOException(file + " is damaged: its header does not match its size");
+            }
+            ByteBuffer payload = image.slice(header, (int) length - header).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != image.getInt(56)) {
+                throw new IOException(file + " is damaged: checksum mismatch");
+            }
+            int[] registers = new int[8];
+            for (int i = 0; i < registers.length; i++) {
+                registers[i] = image.getInt(20 + i * Integer.BYTES);
+            }
+            Snapshot snapshot = new Snapshot(capacity, registers, image.getInt(12), image.getInt(16), null,
+                                             new int[count], new int[count][]);
+            IntBuffer cells = payload.asIntBuffer();
+            int last = -1;
+            for (int i = 0; i < count; i++) {
+                int index = cells.hasRemaining() ? cells.get() : -1;
+                if (index <= last || index >= PagedMemory.pageCount(capacity)
+                        || cells.remaining() < snapshot.pageLength(index)) {
+                    throw new IOException(file + " is damaged: page " + i + " does not fit");
+                }
+                snapshot.indexes[i] = index;
+                snapshot.pages[i] = new int[PagedMemory.PAGE_SIZE];
+                cells.get(snapshot.pages[i], 0, snapshot.pageLength(index));
+                last = index;
+            }
+            if (cells.hasRemaining()) {
+                throw new IOException(file + " is damaged: its header does not match its size");
+            }
+            return snapshot;
+        }
+    }
+}
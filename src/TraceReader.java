@@ -0,0 +1,326 @@
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a trace written by {@link TraceRecorder}. The trace files are mapped and records are
+ * read in place, so seeking to any instruction is immediate whatever the length of the trace.
+ * Records are numbered by the instruction they were executed as, counting from the start of the
+ * trace, so a trace whose oldest files were deleted starts past 0.
+ *
+ * <p>
+ * {@link #main(String[])} prints records, finds the instructions at a PC or writing a cell, and
+ * checks a trace against a fresh run of the program.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class TraceReader {
+
+    private final MappedByteBuffer[] files;
+    // Index of the first record of each file, in increasing order.
+    private final long[] firsts;
+    private final int[] counts;
+    // Size of the header of each file, records follow it.
+    private final int[] headers;
+    // Oldest version of the files.
+    private int version = TraceRecorder.VERSION;
+
+    /**
+     * Opens the trace in a directory.
+     *
+     * @param directory
+     *  The directory the trace was recorded to.
+     * @throws IOException
+     *  Should a file not be readable or not be a trace, or files be missing from the middle.
+     */
+    public TraceReader(Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> found = Files.newDirectoryStream(directory, TraceRecorder.PREFIX + "*" + TraceRecorder.SUFFIX)) {
+            for (Path path : found) {
+                paths.add(path);
+            }
+        }
+        if (paths.isEmpty()) {
+            throw new IOException(directory + " holds no trace");
+        }
+        // The file names are numbered with leading zeros, so they sort in recording order.
+        paths.sort(null);
+        files = new MappedByteBuffer[paths.size()];
+        firsts = new long[files.length];
+        counts = new int[files.length];
+        headers = new int[files.length];
+        for (int i = 0; i < files.length; i++) {
+            Path path = paths.get(i);
+            try (FileChannel channel = FileChannel.open(path)) {
+                long length = channel.size();
+                if (length < TraceRecorder.HEADER_SIZE || length > Integer.MAX_VALUE) {
+                    throw new IOException(path + " is not an M1 trace");
+                }
+                files[i] = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            MappedByteBuffer file = files[i];
+            file.order(ByteOrder.LITTLE_ENDIAN);
+            if (file.getInt(0) != TraceRecorder.MAGIC) {
+                throw new IOException(path + " is not an M1 trace");
+            }
+            int version = file.getShort(4) & 0xffff;
+            if (version > TraceRecorder.VERSION) {
+                throw new IOException(path + " has trace version " + version + ", only " + TraceRecorder.VERSION + " is supported");
+            }
+            this.version = Math.min(this.version, version);
+            int header = file.getShort(6) & 0xffff;
+            headers[i] = header;
+            firsts[i] = file.getLong(8);
+            counts[i] = file.getInt(16);
+            if (file.getInt(20) != TraceRecorder.RECORD_SIZE || counts[i] < 0
+                    || header + (long) counts[i] * TraceRecorder.RECORD_SIZE > file.capacity()) {
+                throw new IOException(path + " is damaged: its header does not match its size");
+            }
+            if (i > 0 && firsts[i] != firsts[i - 1] + counts[i - 1]) {
+                throw new IOException(path + " does not follow " + paths.get(i - 1));
+            }
+        }
+    }
+
+    /**
+     * Gets the version of the trace, the oldest one when its files differ.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the number of the oldest instruction in the trace.
+     *
+     * @return
+     *  The index of the first record, 0 unless the oldest files were deleted.
+     */
+    public long getFirst() {
+        return firsts[0];
+    }
+
+    /**
+     * Gets the number of the instruction after the last one in the trace.
+     *
+     * @return
+     *  The index past the last record.
+     */
+    public long getEnd() {
+        return firsts[files.length - 1] + counts[files.length - 1];
+    }
+
+    /**
+     * Reads a field of a record, at a byte offset in the record.
+     */
+    private int field(long index, int field) {
+        if (index < getFirst() || index >= getEnd()) {
+            throw new IndexOutOfBoundsException("Instruction " + index + " is not in the trace");
+        }
+        int file = Arrays.binarySearch(firsts, index);
+        if (file < 0) {
+            file = -file - 2;
+        }
+        return files[file].getInt(headers[file] + (int) (index - firsts[file]) * TraceRecorder.RECORD_SIZE + field);
+    }
+
+    /**
+     * Gets the address an instruction was executed from.
+     *
+     * @param index
+     *  The number of the instruction.
+     * @return
+     *  The PC of the instruction.
+     */
+    public int getPC(long index) {
+        return field(index, 0);
+    }
+
+    /**
+     * Gets the IR after an instruction, the instruction word or the constant of a loadc.
+     *
+     * @param index
+     *  The number of the instruction.
+     * @return
+     *  The IR.
+     */
+    public int getIR(long index) {
+        return field(index, 4);
+    }
+
+    /**
+     * Gets what an instruction wrote.
+     *
+     * @param index
+     *  The number of the instruction.
+     * @return
+     *  The address of the cell written, -1 - the register written, or <code>Integer.MIN_VALUE</code>
+     *  if the instruction wrote neither.
+     */
+    public int getTarget(long index) {
+        return field(index, 8);
+    }
+
+    /**
+     * Gets the value an instruction wrote.
+     *
+     * @param index
+     *  The number of the instruction.
+     * @return
+     *  The value written, 0 if nothing was. For an <code>if</code>, 1 if it jumped.
+     */
+    public int getValue(long index) {
+        return field(index, 12);
+    }
+
+    /**
+     * Finds the next instruction executed from an address.
+     *
+     * @param from
+     *  The number of the first instruction to look at.
+     * @param pc
+     *  The address of the instruction.
+     * @return
+     *  The number of the instruction, or -1 if there is none.
+     */
+    public long findPC(long from, int pc) {
+        for (long index = Math.max(from, getFirst()); index < getEnd(); index++) {
+            if (getPC(index) == pc) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the next instruction writing a memory cell.
+     *
+     * @param from
+     *  The number of the first instruction to look at.
+     * @param address
+     *  The address of the cell.
+     * @return
+     *  The number of the instruction, or -1 if there is none.
+     */
+    public long findAddress(long from, int address) {
+        for (long index = Math.max(from, getFirst()); index < getEnd(); index++) {
+            if (getTarget(index) == address) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Formats a record for display, with the numbers in hexadecimal like the other dumps.
+     *
+     * @param index
+     *  The number of the instruction.
+     * @return
+     *  The instruction number, PC, IR and what it wrote.
+     */
+    public String format(long index) {
+        int target = getTarget(index);
+        String written = target >= 0 ? ", Cell[" + Memory.getHex(target) + "] = " + Memory.getHex(getValue(index))
+                         : target != UndoLog.NONE ? ", reg[" + (-1 - target) + "] = " + Memory.getHex(getValue(index)) : "";
+        return "#" + index + " PC = " + Memory.getHex(getPC(index)) + ", IR = " + Memory.getHex(getIR(index)) + written;
+    }
+
+    /**
+     * Runs a Processor through the trace and finds the first instruction that does not do what
+     * the trace recorded: it runs from another PC, stops, leaves another IR or writes another
+     * value.
+     *
+     * @param cpu
+     *  The Processor, in the state it was in before the first instruction of the trace.
+     * @return
+     *  The number of the first instruction that differs, or -1 if the run matches the trace.
+     */
+    public long check(Processor cpu) {
+        Memory memory = cpu.getMemory();
+        for (long index = getFirst(); index < getEnd(); index++) {
+            if (cpu.getPC() != getPC(index) || cpu.run(1).getSteps() != 1 || cpu.getIR() != getIR(index)) {
+                return index;
+            }
+            int target = getTarget(index);
+            int value = getValue(index);
+            if (target >= 0 ? target >= memory.getCapacity() || memory.read(target) != value
+                            : target != UndoLog.NONE && cpu.getRegister(-1 - target) != value) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inspects a trace. Usage: <code>java TraceReader directory [command]</code> with one of the
+     * commands below, addresses are in hexadecimal:
+     * <pre>
+     *  (none)                       number of instructions in the trace
+     *  show N [count]               the records from instruction N on, 20 by default
+     *  pc X [count]                 the instructions executed from address X
+     *  address X [count]            the instructions writing cell X
+     *  check program [cells]        runs the program from its entry and finds where it differs
+     * </pre>
+     *
+     * @param args
+     *  The directory of the trace and the command.
+     * @throws Exception
+     *  If the trace or the program cannot be read.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.out.println("usage: java TraceReader directory [show N [count] | pc X [count] | address X [count] | check program [cells]]");
+            return;
+        }
+        TraceReader trace = new TraceReader(Paths.get(args[0]));
+        String command = args.length > 1 ? args[1] : "";
+        int count = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        if (command.equals("show")) {
+            long from = Long.parseLong(args[2]);
+            for (long index = Math.max(from, trace.getFirst()); index < Math.min(from + count, trace.getEnd()); index++) {
+                System.out.println(trace.format(index));
+            }
+        } else if (command.equals("pc") || command.equals("address")) {
+            int value = Integer.parseInt(args[2], 16);
+            long index = trace.getFirst() - 1;
+            for (int found = 0; found < count; found++) {
+                index = command.equals("pc") ? trace.findPC(index + 1, value) : trace.findAddress(index + 1, value);
+                if (index < 0) {
+                    break;
+                }
+                System.out.println(trace.format(index));
+            }
+        } else if (command.equals("check")) {
+            Program program = Assembler.assemble(Paths.get(args[2]));
+            int cells = args.length > 3 ? Integer.parseInt(args[3]) : Math.max(256, program.getMemorySize());
+            Memory memory = Memory.forCapacity(cells);
+            program.load(memory);
+            Processor cpu = new Processor();
+            cpu.setMemory(memory);
+            cpu.setPC(program.getEntry());
+            // Instructions whose files were deleted are run without checking.
+            cpu.run(trace.getFirst());
+            long index = trace.check(cpu);
+            if (index < 0) {
+                System.out.println("the run matches the " + (trace.getEnd() - trace.getFirst()) + " instructions of the trace");
+            } else {
+                System.out.println("the run differs at " + trace.format(index));
+                System.out.println("  the fresh run has PC = " + Memory.getHex(cpu.getPC()) + ", IR = " + Memory.getHex(cpu.getIR()));
+            }
+        } else {
+            System.out.println("instructions " + trace.getFirst() + " to " + (trace.getEnd() - 1));
+        }
+    }
+}
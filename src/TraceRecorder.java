@@ -0,0 +1,224 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Records every instruction a {@link Processor} executes as a fixed-width binary record in a
+ * rolling set of memory-mapped files. Recording an instruction is a few stores into the mapped
+ * file, nothing is formatted or allocated. Traces are read back by {@link TraceReader}.
+ *
+ * <p>
+ * The trace is split into files named <code>trace-NNNNNN.m1t</code> in a directory, each holding
+ * a fixed number of records. Once the current file is full the next one is mapped, and once there
+ * are as many files as the limit the oldest one is renamed to become the next, so a long run keeps
+ * its most recent instructions. A file is a header of {@link #HEADER_SIZE} bytes followed by its records, every
+ * number is little-endian:
+ * </p>
+ * <pre>
+ *  0  "M1TR"
+ *  4  version (16 bits), size of the header in bytes (16 bits)
+ *  8  index of the first record in the whole trace (64 bits)
+ *  16 number of records written to the file
+ *  20 size of a record in bytes
+ *  24 number of records the file can hold
+ *  28 reserved, 0
+ * </pre>
+ * <p>
+ * A record is {@link #RECORD_SIZE} bytes: the PC of the instruction, the IR after it (the loadc
+ * constant for a loadc), what it wrote (an address, -1 - register, or
+ * <code>Integer.MIN_VALUE</code> for nothing) and the value written. An <code>if</code> writes
+ * nothing, its value is 1 if it jumped and 0 if it did not.
+ * </p>
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+public final class TraceRecorder implements Closeable {
+
+    // "M1TR" read as a little-endian number.
+    static final int MAGIC = 0x5254314D;
+    // Version 2 records whether each if jumped.
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 16;
+    static final String PREFIX = "trace-";
+    static final String SUFFIX = ".m1t";
+
+    private final Path directory;
+    private final int recordsPerFile;
+    private final int maxFiles;
+    // Number of the file being written, counting from 0.
+    private int sequence = -1;
+    private MappedByteBuffer file;
+    // Mapping of each file kept, by sequence modulo the number of files.
+    private final MappedByteBuffer[] ring;
+    private int position;
+    private long recorded;
+
+    /**
+     * Starts a trace in a directory, deleting the trace files already in it.
+     *
+     * @param directory
+     *  The directory of the trace files, created if needed.
+     * @param recordsPerFile
+     *  The number of records in each file.
+     * @param maxFiles
+     *  The number of files kept, the oldest one is deleted when a new one would exceed it.
+     * @throws IOException
+     *  Should the directory or the first file not be writable.
+     */
+    public TraceRecorder(Path directory, int recordsPerFile, int maxFiles) throws IOException {
+        if (recordsPerFile <= 0 || recordsPerFile > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE || maxFiles <= 0) {
+            throw new IllegalArgumentException("Invalid trace size: " + recordsPerFile + " records, " + maxFiles + " files");
+        }
+        this.directory = directory;
+        this.recordsPerFile = recordsPerFile;
+        this.maxFiles = maxFiles;
+        ring = new MappedByteBuffer[maxFiles];
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : old) {
+                Files.delete(path);
+            }
+        }
+        roll();
+    }
+
+    /**
+     * Starts a trace of files of 4M records (64 MiB), keeping the last 8 of them.
+     *
+     * @param directory
+     *  The directory of the trace files.
+     * @throws IOException
+     *  Should the directory or the first file not be writable.
+     */
+    public TraceRecorder(Path directory) throws IOException {
+        this(directory, 1 << 22, 8);
+    }
+
+    /**
+     * Gets the name of a trace file.
+     */
+    static Path file(Path directory, int sequence) {
+        return directory.resolve(String.format("%s%06d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    /**
+     * Maps the next file. Once there are as many files as the limit, the oldest one becomes the
+     * next file, renamed and written over through the mapping it already has: the first write to a
+     * page of a new mapping costs far more than recording into it.
+     */
+    private void roll() throws IOException {
+        sequence++;
+        Path next = file(directory, sequence);
+        MappedByteBuffer oldest = ring[sequence % maxFiles];
+        file = null;
+        if (oldest != null) {
+            try {
+                Files.move(file(directory, sequence - maxFiles), next);
+                file = oldest;
+            } catch (IOException e) {
+                // Some systems do not rename a mapped file, it is deleted below instead.
+            }
+        }
+        if (file == null) {
+            try (FileChannel channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                file = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) recordsPerFile * RECORD_SIZE);
+            }
+            Files.deleteIfExists(file(directory, sequence - maxFiles));
+        }
+        ring[sequence % maxFiles] = file;
+        file.order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(0, MAGIC)
+            .putShort(4, (short) VERSION)
+            .putShort(6, (short) HEADER_SIZE)
+            .putLong(8, recorded)
+            .putInt(16, 0)
+            .putInt(20, RECORD_SIZE)
+            .putInt(24, recordsPerFile);
+        position = 0;
+    }
+
+    /**
+     * Appends the record of an executed instruction.
+     *
+     * @param pc
+     *  The address of the instruction.
+     * @param ir
+     *  The IR after the instruction.
+     * @param target
+     *  The address written, -1 - the register written, or {@link UndoLog#NONE}.
+     * @param value
+     *  The value written, 0 when nothing was.
+     * @throws UncheckedIOException
+     *  Should the next file not be writable once the current one is full.
+     */
+    void record(int pc, int ir, int target, int value) {
+        if (position == recordsPerFile) {
+            if (file == null) {
+                // Closed, see close().
+                return;
+            }
+            try {
+                roll();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int at = HEADER_SIZE + position * RECORD_SIZE;
+        file.putInt(at, pc)
+            .putInt(at + 4, ir)
+            .putInt(at + 8, target)
+            .putInt(at + 12, value);
+        // The count is kept up to date, so a trace cut short by a crash can still be read.
+        file.putInt(16, ++position);
+        recorded++;
+    }
+
+    /**
+     * Gets the number of instructions recorded, including those whose file was deleted.
+     *
+     * @return
+     *  The number of records written.
+     */
+    public long getRecorded() {
+        return recorded;
+    }
+
+    /**
+     * Gets the directory of the trace files.
+     *
+     * @return
+     *  The directory given when the trace started.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Forces the records out to the current file. The recorder should be detached from its
+     * Processor first, the instructions it is given once closed are dropped. The file stays mapped
+     * until it is collected, which is why it is not shrunk to the records it holds.
+     */
+    @Override
+    public void close() {
+        if (file != null) {
+            file.force();
+            file = null;
+            Arrays.fill(ring, null);
+            // Sends the next record to the check for a full file, which finds it closed.
+            position = recordsPerFile;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Ring buffer of the state each executed instruction overwrote, used by
+ * {@link Processor#stepBack(int)}. Every entry holds the PC and IR before the instruction and the
+ * old value of the register or memory cell it wrote. The buffer is allocated once, recording an
+ * instruction only stores into it, and the oldest entries are overwritten once it is full.
+ *
+ * @author
+ *  Levi Kuhaulua
+ * @version
+ *  21.0.2
+ */
+final class UndoLog {
+
+    // Target of an instruction that wrote neither a register nor a cell, such as if and halt.
+    static final int NONE = Integer.MIN_VALUE;
+
+    private final int[] pcs;
+    private final int[] irs;
+    // Address of the cell written, or -1 - index of the register written, or NONE.
+    private final int[] targets;
+    private final int[] olds;
+    // Slot the next entry goes to.
+    private int next;
+    private int size;
+
+    /**
+     * Creates an empty log.
+     *
+     * @param depth
+     *  The number of instructions that can be undone.
+     */
+    UndoLog(int depth) {
+        pcs = new int[depth];
+        irs = new int[depth];
+        targets = new int[depth];
+        olds = new int[depth];
+    }
+
+    /**
+     * Records an executed instruction.
+     *
+     * @param pc
+     *  The PC before the instruction.
+     * @param ir
+     *  The IR before the instruction.
+     * @param target
+     *  What the instruction wrote, see {@link #register(int)}, an address or {@link #NONE}.
+     * @param old
+     *  The value the target held before.
+     */
+    void record(int pc, int ir, int target, int old) {
+        pcs[next] = pc;
+        irs[next] = ir;
+        targets[next] = target;
+        olds[next] = old;
+        next = next + 1 == pcs.length ? 0 : next + 1;
+        if (size < pcs.length) {
+            size++;
+        }
+    }
+
+    /**
+     * Encodes a register as a target.
+     *
+     * @param index
+     *  The register, 0-7.
+     * @return
+     *  The target for {@link #record(int, int, int, int)}.
+     */
+    static int register(int index) {
+        return -1 - index;
+    }
+
+    /**
+     * Removes the entry of the instruction executed last.
+     *
+     * @return
+     *  The slot of the entry, valid until the next call to {@link #record(int, int, int, int)},
+     *  or -1 if the log is empty.
+     */
+    int pop() {
+        if (size == 0) {
+            return -1;
+        }
+        size--;
+        next = next == 0 ? pcs.length - 1 : next - 1;
+        return next;
+    }
+
+    int getPC(int slot) {
+        return pcs[slot];
+    }
+
+    int getIR(int slot) {
+        return irs[slot];
+    }
+
+    int getTarget(int slot) {
+        return targets[slot];
+    }
+
+    int getOld(int slot) {
+        return olds[slot];
+    }
+
+    /**
+     * Gets the number of instructions that can be undone.
+     *
+     * @return
+     *  The number of entries.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of instructions the log can hold.
+     *
+     * @return
+     *  The depth given when the log was created.
+     */
+    int getDepth() {
+        return pcs.length;
+    }
+
+    /**
+     * Forgets every entry.
+     */
+    void clear() {
+        size = 0;
+    }
+}